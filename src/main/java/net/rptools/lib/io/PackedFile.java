@@ -38,6 +38,8 @@
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -95,6 +97,9 @@ public class PackedFile {
   private static final String PROPERTY_FILE = "properties.xml";
   private static final String CONTENT_FILE = "content.xml";
 
+  /** Extensions of files that are stored in the zip as they are rather than deflated. */
+  private static final String[] COMPRESSED_EXTENSIONS = {".png", ".jpg", ".jpeg", ".gif"};
+
   private static final Logger log = LogManager.getLogger(PackedFile.class);
 
   private static File tmpDir =
@@ -309,7 +314,12 @@ public void save() throws IOException {
       saveTimer.start("addFiles");
       addedFileSet.remove(CONTENT_FILE);
       for (String path : addedFileSet) {
-        zout.putNextEntry(new ZipEntry(path));
+        File explodedFile = getExplodedFile(path);
+        if (isCompressed(path) && explodedFile.exists()) {
+          zout.putNextEntry(newStoredEntry(path, explodedFile.length(), checksum(explodedFile)));
+        } else {
+          zout.putNextEntry(new ZipEntry(path));
+        }
         is = getFileAsInputStream(path); // When copying, always use an InputStream
         IOUtils.copy(is, zout);
         IOUtils.closeQuietly(is);
@@ -328,14 +338,14 @@ public void save() throws IOException {
               && !removedFileSet.contains(entry.getName())
               && !CONTENT_FILE.equals(entry.getName())
               && !PROPERTY_FILE.equals(entry.getName())) {
-            // if (entry.getName().endsWith(".png") ||
-            // entry.getName().endsWith(".gif") ||
-            // entry.getName().endsWith(".jpeg"))
-            // zout.setLevel(Deflater.NO_COMPRESSION); // none needed for images as they are already
-            // compressed
-            // else
-            // zout.setLevel(Deflater.BEST_COMPRESSION); // fast compression
-            zout.putNextEntry(entry);
+            if (isCompressed(entry.getName())
+                && entry.getSize() >= 0
+                && entry.getCrc() != -1) {
+              // Images are already compressed, so store them rather than deflate them again
+              zout.putNextEntry(newStoredEntry(entry.getName(), entry.getSize(), entry.getCrc()));
+            } else {
+              zout.putNextEntry(entry);
+            }
             is = getFileAsInputStream(entry.getName()); // When copying, always use an InputStream
             IOUtils.copy(is, zout);
             IOUtils.closeQuietly(is);
@@ -402,6 +412,43 @@ public void save() throws IOException {
     }
   }
 
+  /**
+   * Whether the path names a file whose contents are already compressed, such as a PNG or JPEG
+   * image, which gains nothing from being deflated again.
+   */
+  static boolean isCompressed(String path) {
+    String name = path.toLowerCase();
+    for (String extension : COMPRESSED_EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static ZipEntry newStoredEntry(String path, long size, long crc) {
+    ZipEntry entry = new ZipEntry(path);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(size);
+    entry.setCompressedSize(size);
+    entry.setCrc(crc);
+    return entry;
+  }
+
+  private static long checksum(File file) throws IOException {
+    CRC32 crc = new CRC32();
+    InputStream in = new CheckedInputStream(FileUtil.getFileAsInputStream(file), crc);
+    try {
+      byte[] buffer = new byte[8192];
+      while (in.read(buffer) != -1) {
+        // Just reading it updates the checksum
+      }
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    return crc.getValue();
+  }
+
   /**
    * Set the given object as the information to write to the 'content.xml' file in the archive.
    *
@@ -522,7 +569,8 @@ public boolean hasFile(String path) throws IOException {
 
   private ZipFile zFile = null;
 
-  private ZipFile getZipFile() throws IOException {
+  /** Synchronized as files may be read from several threads at once while loading. */
+  private synchronized ZipFile getZipFile() throws IOException {
     if (zFile == null) zFile = new ZipFile(file);
     return zFile;
   }
@@ -175,6 +175,9 @@ public class AppPreferences {
   private static final String KEY_USE_ASTAR_PATHFINDING = "useAstarPathfinding";
   private static final boolean DEFAULT_USE_ASTAR_PATHFINDING = true;
 
+  private static final String KEY_USE_HIERARCHICAL_PATHFINDING = "useHierarchicalPathfinding";
+  private static final boolean DEFAULT_USE_HIERARCHICAL_PATHFINDING = false;
+
   private static final String MACRO_EDITOR_THEME = "macroEditorTheme";
   private static final String DEFAULT_MACRO_EDITOR_THEME = "default";
 
@@ -1150,6 +1153,18 @@ public static void setUseAstarPathfinding(boolean show) {
     prefs.putBoolean(KEY_USE_ASTAR_PATHFINDING, show);
   }
 
+  /**
+   * Whether square grids plan long paths over a cluster graph before running A*. Intended for very
+   * large maps, off by default.
+   */
+  public static boolean isUsingHierarchicalPathfinding() {
+    return prefs.getBoolean(KEY_USE_HIERARCHICAL_PATHFINDING, DEFAULT_USE_HIERARCHICAL_PATHFINDING);
+  }
+
+  public static void setUseHierarchicalPathfinding(boolean flag) {
+    prefs.putBoolean(KEY_USE_HIERARCHICAL_PATHFINDING, flag);
+  }
+
   public static String getDefaultMacroEditorTheme() {
     return prefs.get(MACRO_EDITOR_THEME, DEFAULT_MACRO_EDITOR_THEME);
   }
@@ -14,13 +14,16 @@
  */
 package net.rptools.maptool.client;
 
+import java.awt.EventQueue;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import javax.swing.Timer;
 import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.Campaign;
+import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.util.PersistenceUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,6 +35,9 @@
 public class AutoSaveManager implements ActionListener {
   private static final Logger log = LogManager.getLogger(AutoSaveManager.class);
   private Timer autoSaveTimer;
+
+  /** Whether the campaign is being copied for an autosave, which is done over several events. */
+  private boolean snapshotting;
   public static final File AUTOSAVE_FILE =
       new File(
           AppUtil.getAppHome("autosave"), // $NON-NLS-1$
@@ -87,9 +93,12 @@ public void actionPerformed(ActionEvent e) {
       log.debug("Canceling autosave because user has initiated save operation"); // $NON-NLS-1$
       return;
     }
+    if (snapshotting) {
+      log.debug("Skipping autosave because the last one is still copying the campaign");
+      return;
+    }
     try {
       MapTool.getFrame().setStatusMessage(I18N.getString("AutoSaveManager.status.autoSaving"));
-      long startCopy = System.currentTimeMillis();
 
       // This occurs on the event dispatch thread, so it's ok to mess with the models.
       // We need to clone the campaign so that we can save in the background, but
@@ -97,39 +106,13 @@ public void actionPerformed(ActionEvent e) {
       //
       // NOTE: This is a cheesy way to clone the campaign, but it makes it so that I
       // don't have to keep all the various models' clone methods updated on each change.
-      final Campaign campaign = new Campaign(MapTool.getCampaign());
-      if (log.isInfoEnabled())
-        log.info(
-            "Time to copy Campaign object (ms): "
-                + (System.currentTimeMillis() - startCopy)); // $NON-NLS-1$
-
-      // Now that we have a copy of the model, save that one
-      // TODO: Replace this with a swing worker
-      new Thread(
-              null,
-              new Runnable() {
-                public void run() {
-                  AppState.setIsSaving(true);
-                  pause();
-                  long startSave = System.currentTimeMillis();
-                  try {
-                    PersistenceUtil.saveCampaign(campaign, AUTOSAVE_FILE, null);
-                    MapTool.getFrame()
-                        .setStatusMessage(
-                            I18N.getText(
-                                "AutoSaveManager.status.autoSaveComplete",
-                                System.currentTimeMillis() - startSave));
-                  } catch (IOException ioe) {
-                    MapTool.showError("AutoSaveManager.failed", ioe);
-                  } catch (Throwable t) {
-                    MapTool.showError("AutoSaveManager.failed", t);
-                  } finally {
-                    AppState.setIsSaving(false);
-                  }
-                }
-              },
-              "AutoSaveThread")
-          .start();
+      //
+      // The zones are copied one per event, so that on a large campaign the UI keeps
+      // responding between them rather than freezing for the whole copy.
+      final Campaign source = MapTool.getCampaign();
+      final Campaign campaign = new Campaign(source, false);
+      snapshotting = true;
+      EventQueue.invokeLater(new ZoneCopier(source, campaign));
     } catch (Throwable t) {
       // If this routine fails, be sure the isSaving is turned off. This should not be necessary:
       // If the exception occurs anywhere before the .start() method of Thread, the boolean
@@ -137,6 +120,7 @@ public void run() {
       // will never be invoked, in which case the .run() method will decide when to set/reset
       // the flag. For safety's sake I retrieve the current value and report it if it's true, but
       // we shouldn't be able to get here in that case...
+      snapshotting = false;
       if (AppState.isSaving()) {
         MapTool.showError(
             I18N.getString("AutoSaveManager.failed") + "<br/>\nand AppState.isSaving() is true!",
@@ -148,6 +132,82 @@ public void run() {
     }
   }
 
+  /** Saves the copy of the campaign on a background thread. */
+  private void save(final Campaign campaign) {
+    // TODO: Replace this with a swing worker
+    new Thread(
+            null,
+            new Runnable() {
+              public void run() {
+                AppState.setIsSaving(true);
+                pause();
+                long startSave = System.currentTimeMillis();
+                try {
+                  PersistenceUtil.saveCampaign(campaign, AUTOSAVE_FILE, null);
+                  MapTool.getFrame()
+                      .setStatusMessage(
+                          I18N.getText(
+                              "AutoSaveManager.status.autoSaveComplete",
+                              System.currentTimeMillis() - startSave));
+                } catch (IOException ioe) {
+                  MapTool.showError("AutoSaveManager.failed", ioe);
+                } catch (Throwable t) {
+                  MapTool.showError("AutoSaveManager.failed", t);
+                } finally {
+                  AppState.setIsSaving(false);
+                }
+              }
+            },
+            "AutoSaveThread")
+        .start();
+  }
+
+  /**
+   * Copies the zones of a campaign into its copy one zone per run, queueing itself on the event
+   * dispatch thread again until they are all done and then starting the save.
+   */
+  private class ZoneCopier implements Runnable {
+    private final Campaign source;
+    private final Campaign campaign;
+    private final List<Zone> zones;
+    private final long startCopy = System.currentTimeMillis();
+    private int next;
+
+    ZoneCopier(Campaign source, Campaign campaign) {
+      this.source = source;
+      this.campaign = campaign;
+      zones = source.getZones();
+    }
+
+    public void run() {
+      try {
+        if (MapTool.getCampaign() != source) {
+          // A different campaign was loaded part way through; the next autosave will get it
+          snapshotting = false;
+          return;
+        }
+        if (next < zones.size()) {
+          Zone zone = zones.get(next++);
+          // Skip zones deleted since we started
+          if (source.getZone(zone.getId()) != null) {
+            campaign.putZone(new Zone(zone, true));
+          }
+          EventQueue.invokeLater(this);
+          return;
+        }
+        snapshotting = false;
+        if (log.isInfoEnabled())
+          log.info(
+              "Time to copy Campaign object (ms): "
+                  + (System.currentTimeMillis() - startCopy)); // $NON-NLS-1$
+        save(campaign);
+      } catch (Throwable t) {
+        snapshotting = false;
+        MapTool.showError("AutoSaveManager.failed", t);
+      }
+    }
+  }
+
   /** Removes any autosaved files */
   public void purge() {
     if (AUTOSAVE_FILE.exists()) {
@@ -71,6 +71,9 @@ public static enum COMMAND {
     setBoard,
     updateExposedAreaMeta,
     clearExposedArea,
+    updateFoW,
+    updateToken,
+    updateTokens,
     restoreZoneView // Jamz: New command to restore player's view and let GM temporarily center and
     // scale a player's view
     // @formatter:on
@@ -20,6 +20,7 @@
 import java.io.IOException;
 import java.lang.reflect.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import net.rptools.clientserver.hessian.AbstractMethodHandler;
@@ -35,6 +36,7 @@
 import net.rptools.maptool.model.CampaignProperties;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.FogUpdate;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.InitiativeList;
@@ -45,6 +47,8 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenBatch;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -58,6 +62,9 @@
 
 /** @author drice */
 public class ClientMethodHandler extends AbstractMethodHandler {
+  /** Zones whose fog was requested from the server after missing an update. Used on the EDT. */
+  private final Set<GUID> fogRequests = new HashSet<GUID>();
+
   public ClientMethodHandler() {}
 
   public void handleMethod(final String id, final String method, final Object... parameters) {
@@ -92,6 +99,9 @@ public void handleMethod(final String id, final String method, final Object... p
           // manager, and clear the "we're waiting for" flag so that it
           // gets requested again
           ioe.printStackTrace();
+        } finally {
+          // Either way, make room for the server to send more
+          MapTool.serverCommand().acknowledgeAssetChunk(chunk.getData().length);
         }
         return;
     }
@@ -220,8 +230,28 @@ public void run() {
               case putToken:
                 zoneGUID = (GUID) parameters[0];
                 zone = MapTool.getCampaign().getZone(zoneGUID);
-                token = (Token) parameters[1];
-                zone.putToken(token);
+                putToken(zone, (Token) parameters[1]);
+                MapTool.getFrame().refresh();
+                return;
+
+              case updateToken:
+                zoneGUID = (GUID) parameters[0];
+                zone = MapTool.getCampaign().getZone(zoneGUID);
+                updateToken(zone, (TokenDelta) parameters[1]);
+                MapTool.getFrame().refresh();
+                return;
+
+              case updateTokens:
+                zoneGUID = (GUID) parameters[0];
+                zone = MapTool.getCampaign().getZone(zoneGUID);
+                for (Object item : ((TokenBatch) parameters[1]).getItems()) {
+                  if (item instanceof Token) {
+                    putToken(zone, (Token) item);
+                  } else {
+                    updateToken(zone, (TokenDelta) item);
+                  }
+                }
+                // Once for the lot
                 MapTool.getFrame().refresh();
                 return;
 
@@ -625,8 +655,49 @@ public void run() {
                 zone = MapTool.getCampaign().getZone(zoneGUID);
                 zone.setExposedAreaMetaData(tokenGUID, meta);
                 return;
+
+              case updateFoW:
+                zoneGUID = (GUID) parameters[0];
+                FogUpdate update = (FogUpdate) parameters[1];
+                zone = MapTool.getCampaign().getZone(zoneGUID);
+                if (zone == null) {
+                  return;
+                }
+                if (update.getType() == FogUpdate.Type.SNAPSHOT) {
+                  fogRequests.remove(zoneGUID);
+                }
+                if (update.applyInOrder(zone) == FogUpdate.Outcome.MISSED_UPDATE) {
+                  // Start again from the whole fog
+                  if (fogRequests.add(zoneGUID)) {
+                    MapTool.serverCommand().requestFoW(zoneGUID);
+                  }
+                  return;
+                }
+                MapTool.serverCommand().acknowledgeFoW(zoneGUID, zone.getFogVersion());
+                MapTool.getFrame().refresh();
+                return;
             }
           }
         });
   }
+
+  private static void putToken(Zone zone, Token token) {
+    Token oldToken = zone.getToken(token.getId());
+    if (oldToken != null) {
+      // The version isn't sent, and when hosting the old token is the server's
+      token.setVersion(oldToken.getVersion());
+    }
+    zone.putToken(token);
+    TokenDelta.resetBaseline(token);
+  }
+
+  private static void updateToken(Zone zone, TokenDelta delta) {
+    Token token = zone.getToken(delta.getTokenId());
+    // An older version means it's already applied, as when hosting and sharing the server's token
+    if (token != null && delta.getVersion() > token.getVersion()) {
+      delta.apply(token);
+      token.setVersion(delta.getVersion());
+      zone.putToken(token);
+    }
+  }
 }
@@ -18,8 +18,10 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -174,6 +176,20 @@ public class MapToolLineParser {
    */
   private List<Integer> newRolls = new LinkedList<>();
 
+  /** The most macro lines, and the most roll option strings, whose parsed form is kept. */
+  private static final int MAX_CACHED_STATEMENTS = 1000;
+
+  /**
+   * The inline rolls found in recently run macro lines, by the text of the line. A macro that is
+   * edited has different text, so its old entry is simply never hit again and ages out.
+   */
+  private final Map<String, List<InlineRollMatch>> inlineRollCache =
+      Collections.synchronizedMap(new StatementCache<List<InlineRollMatch>>());
+
+  /** The parsed roll options of recently run rolls, by the text of the options. */
+  private final Map<String, List<OptionInfo>> rollOptionCache =
+      Collections.synchronizedMap(new StatementCache<List<OptionInfo>>());
+
   private enum Output { // Mutually exclusive output formats
     NONE,
     RESULT,
@@ -293,6 +309,81 @@ public String getRoll() {
     }
   }
 
+  /** Matches the name of a roll option, "abcd(" or "abcd". */
+  private static final Pattern OPTION_NAME_PATTERN =
+      Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))");
+
+  /** Matches one roll option parameter and the "," or ")" after it. */
+  private static final Pattern OPTION_PARAM_PATTERN =
+      Pattern.compile(
+          "^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
+
+  /** Matches the "," between roll options. */
+  private static final Pattern OPTION_SEPARATOR_PATTERN = Pattern.compile("^\\s*,\\s*(?!$)");
+
+  /** The patterns for finding the branches of a roll body that isn't a code block. */
+  private static final BranchPatterns NO_CODE_BRANCH_PATTERNS =
+      // matches any text not containing a ";" (skipping over strings)
+      new BranchPatterns("((?:[^\";]|\"[^\"]*\"|'[^']*')*)");
+
+  /** The patterns for finding the branches of a code block roll body. */
+  private static final BranchPatterns CODE_BRANCH_PATTERNS =
+      // matches text inside braces "{...}", skipping over strings (one level of {} nesting allowed)
+      new BranchPatterns(
+          "\\{((?:[^{}\"]|\"[^\"]*\"|'[^']*'|\\{(?:[^}\"]|\"[^\"]*\"|'[^']*')*})*)}");
+
+  /**
+   * The patterns for the branches of a roll body, compiled once rather than every time a roll is
+   * run. Each branch pattern has one matcher group for the parseable content of the branch.
+   */
+  private static class BranchPatterns {
+    /** Matches a body with a single branch. */
+    final Pattern single;
+
+    /** Matches an IF body, with one or two branches. */
+    final Pattern ifElse;
+
+    /** Matches a whole SWITCH body. */
+    final Pattern switchBody;
+
+    /** Finds the cases of a SWITCH body one by one. */
+    final Pattern switchCase;
+
+    BranchPatterns(String branchRegex) {
+      String sepRegex = ";";
+      String lastSepRegex = ";?"; // The last clause doesn't have to end with a separator
+      single = Pattern.compile(String.format("^\\s*%s\\s*$", branchRegex));
+      ifElse =
+          Pattern.compile(
+              String.format(
+                  "^\\s*%s\\s*(?:%s\\s*%s\\s*%s)?\\s*$",
+                  branchRegex, sepRegex, branchRegex, lastSepRegex));
+      // Regex matches 'default', 'case 123:', 'case "123":', 'case "abc":', but not 'case abc:'
+      String caseRegex =
+          "(?:case\\s*\"?((?<!\")(?:\\+|-)?[\\d]+(?!\")|(?<=\")[^\"]*(?=\"))\"?|(default))\\s*:\\s*"
+              + branchRegex;
+      switchBody =
+          Pattern.compile(
+              String.format(
+                  "^(?:\\s*%s\\s*%s\\s*)*\\s*%s\\s*%s\\s*$",
+                  caseRegex, sepRegex, caseRegex, lastSepRegex));
+      switchCase = Pattern.compile(String.format("\\s*%s\\s*(?:%s)?", caseRegex, sepRegex));
+    }
+  }
+
+  /** A map that drops the least recently used entry once it holds too many. */
+  @SuppressWarnings("serial")
+  private static class StatementCache<V> extends LinkedHashMap<String, V> {
+    StatementCache() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+      return size() > MAX_CACHED_STATEMENTS;
+    }
+  }
+
   /**
    * *************************************************************************** OptionType -
    * defines roll options, including values for default parameters.
@@ -354,9 +445,11 @@ private enum OptionType {
     protected final String nameRegex;
     protected final int minParams, maxParams;
     protected final Object[] defaultParams;
+    private final Pattern namePattern;
 
     OptionType(String nameRegex, int minParams, int maxParams, Object... defaultParams) {
       this.nameRegex = nameRegex;
+      this.namePattern = Pattern.compile("^\\s*" + nameRegex + "\\s*$", Pattern.CASE_INSENSITIVE);
       this.minParams = minParams;
       this.maxParams = maxParams;
       if (defaultParams == null) {
@@ -381,9 +474,7 @@ private enum OptionType {
     /** Obtain one of the enum values, or null if <code>strName</code> doesn't match any of them. */
     protected static OptionType optionTypeFromName(String strName) {
       for (OptionType rot : OptionType.values()) {
-        if (Pattern.compile("^\\s*" + rot.getNameRegex() + "\\s*$", Pattern.CASE_INSENSITIVE)
-            .matcher(strName)
-            .matches()) {
+        if (rot.namePattern.matcher(strName).matches()) {
           return rot;
         }
       }
@@ -469,9 +560,7 @@ private void parseOptionString(String optionString, int start) throws RollOption
       int endOfString = optionString.length();
 
       // Find the name
-      Pattern pattern =
-          Pattern.compile("^\\s*(?:(\\w+)\\s*\\(|(\\w+))"); // matches "abcd(" or "abcd"
-      Matcher matcher = pattern.matcher(optionString);
+      Matcher matcher = OPTION_NAME_PATTERN.matcher(optionString);
       matcher.region(start, endOfString);
       if (!matcher.find()) {
         throw new RollOptionException(I18N.getText("lineParser.badRollOpt", optionString));
@@ -501,10 +590,7 @@ private void parseOptionString(String optionString, int start) throws RollOption
       }
 
       // Otherwise, match the individual parameters one at a time
-      pattern =
-          Pattern.compile(
-              "^(?:((?:[^()\"',]|\"[^\"]*\"|'[^']*'|\\((?:[^()\"']|\"[^\"]*\"|'[^']*')*\\))+)(,|\\))){1}?");
-      matcher = pattern.matcher(optionString);
+      matcher = OPTION_PARAM_PATTERN.matcher(optionString);
       matcher.region(start, endOfString);
       List<String> paramList = new ArrayList<String>();
       boolean lastItem = false; // true if last match ended in ")"
@@ -667,13 +753,21 @@ public RollOptionException(String msg) {
   private List<OptionInfo> getRollOptionList(String optionString) throws RollOptionException {
     if (optionString == null) return null;
 
+    // Options hold only their text and the numbers in it, so the same text parses the same way
+    List<OptionInfo> list = rollOptionCache.get(optionString);
+    if (list == null) {
+      list = Collections.unmodifiableList(parseRollOptionList(optionString));
+      rollOptionCache.put(optionString, list);
+    }
+    return list;
+  }
+
+  private List<OptionInfo> parseRollOptionList(String optionString) throws RollOptionException {
     List<OptionInfo> list = new ArrayList<OptionInfo>();
     optionString = optionString.trim();
     int start = 0;
     int endOfString = optionString.length();
     boolean atEnd = false;
-    Pattern commaPattern = Pattern.compile("^\\s*,\\s*(?!$)");
-
     while (start < endOfString) {
       OptionInfo roi;
       if (atEnd) {
@@ -685,7 +779,7 @@ private List<OptionInfo> getRollOptionList(String optionString) throws RollOptio
       list.add(roi);
       start = roi.getEnd();
       // Eat any "," sitting between options
-      Matcher matcher = commaPattern.matcher(optionString);
+      Matcher matcher = OPTION_SEPARATOR_PATTERN.matcher(optionString);
       matcher.region(start, endOfString);
       if (matcher.find()) {
         start = matcher.end();
@@ -737,6 +831,8 @@ public String parseLine(
     }
     Stack<Token> contextTokenStack = new Stack<Token>();
     enterContext(context);
+    // Send the token changes the macro makes together when it's done
+    ServerCommandClientImpl.startBatch();
     MapToolVariableResolver resolver = null;
     boolean resolverInitialized = false;
     String opts = null;
@@ -747,7 +843,11 @@ public String parseLine(
       resolverInitialized = resolver.initialize();
       StringBuilder builder = new StringBuilder();
       int start = 0;
-      List<InlineRollMatch> matches = this.locateInlineRolls(line);
+      List<InlineRollMatch> matches = inlineRollCache.get(line);
+      if (matches == null) {
+        matches = Collections.unmodifiableList(locateInlineRolls(line));
+        inlineRollCache.put(line, matches);
+      }
 
       for (InlineRollMatch match : matches) {
         builder.append(line.substring(start, match.getStart())); // add everything before the roll
@@ -1165,25 +1265,10 @@ public String parseLine(
               }
             }
 
-            // Set up regexes for scanning through the branches.
-            // branchRegex then defines one matcher group for the parseable content of the branch.
+            // Pick the patterns for scanning through the branches.
             String rollBranch = roll;
-            String branchRegex, branchSepRegex, branchLastSepRegex;
-            if (codeType != CodeType.CODEBLOCK) {
-              // matches any text not containing a ";" (skipping over strings)
-              String noCodeRegex = "((?:[^\";]|\"[^\"]*\"|'[^']*')*)";
-              branchRegex = noCodeRegex;
-              branchSepRegex = ";";
-              branchLastSepRegex = ";?"; // The last clause doesn't have to end with a separator
-            } else {
-              // matches text inside braces "{...}", skipping over strings (one level of {} nesting
-              // allowed)
-              String codeRegex =
-                  "\\{((?:[^{}\"]|\"[^\"]*\"|'[^']*'|\\{(?:[^}\"]|\"[^\"]*\"|'[^']*')*})*)}";
-              branchRegex = codeRegex;
-              branchSepRegex = ";";
-              branchLastSepRegex = ";?"; // The last clause doesn't have to end with a separator
-            }
+            BranchPatterns branchPatterns =
+                codeType != CodeType.CODEBLOCK ? NO_CODE_BRANCH_PATTERNS : CODE_BRANCH_PATTERNS;
 
             // Extract the branch to use
             switch (branchType) {
@@ -1193,8 +1278,7 @@ public String parseLine(
               case NO_BRANCH:
                 {
                   // There's only one branch, so our regex is very simple
-                  String testRegex = String.format("^\\s*%s\\s*$", branchRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = branchPatterns.single.matcher(roll);
                   if (testMatcher.find()) {
                     rollBranch = testMatcher.group(1);
                   } else {
@@ -1216,11 +1300,7 @@ public String parseLine(
                         roll);
                   }
                   int whichBranch = (branchConditionValue != 0) ? 0 : 1;
-                  String testRegex =
-                      String.format(
-                          "^\\s*%s\\s*(?:%s\\s*%s\\s*%s)?\\s*$",
-                          branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = branchPatterns.ifElse.matcher(roll);
                   if (testMatcher.find()) { // verifies that roll body is well-formed
                     rollBranch = testMatcher.group(1 + whichBranch);
                     if (rollBranch == null)
@@ -1233,24 +1313,12 @@ public String parseLine(
                 }
               case SWITCH:
                 {
-                  // We augment the branch regex to detect the "case xxx:" or "default:" prefixes,
-                  // and search for a match. An error is thrown if no case match is found.
-
-                  // Regex matches 'default', 'case 123:', 'case "123":', 'case "abc":', but not
-                  // 'case abc:'
-                  branchRegex =
-                      "(?:case\\s*\"?((?<!\")(?:\\+|-)?[\\d]+(?!\")|(?<=\")[^\"]*(?=\"))\"?|(default))\\s*:\\s*"
-                          + branchRegex;
+                  // The branch patterns are augmented to detect the "case xxx:" or "default:"
+                  // prefixes, and search for a match. An error is thrown if no case match is found.
                   String caseTarget = branchConditionParsed.toString();
-                  String testRegex =
-                      String.format(
-                          "^(?:\\s*%s\\s*%s\\s*)*\\s*%s\\s*%s\\s*$",
-                          branchRegex, branchSepRegex, branchRegex, branchLastSepRegex);
-                  Matcher testMatcher = Pattern.compile(testRegex).matcher(roll);
+                  Matcher testMatcher = branchPatterns.switchBody.matcher(roll);
                   if (testMatcher.find()) { // verifies that roll body is well-formed
-                    String scanRegex =
-                        String.format("\\s*%s\\s*(?:%s)?", branchRegex, branchSepRegex);
-                    Matcher scanMatcher = Pattern.compile(scanRegex).matcher(roll);
+                    Matcher scanMatcher = branchPatterns.switchCase.matcher(roll);
                     boolean foundMatch = false;
                     while (!foundMatch && scanMatcher.find()) {
                       String caseLabel = scanMatcher.group(1); // "case (xxx):"
@@ -1448,6 +1516,7 @@ public String parseLine(
           "lineParser.errorBodyRoll", opts == null ? "" : opts, roll == null ? line : roll);
     } finally {
       exitContext();
+      ServerCommandClientImpl.endBatch();
       if (resolverInitialized) {
         // This is the top level call, time to clean up
         resolver.flush();
@@ -1908,6 +1977,21 @@ String errorString(String msg, String opts, String roll) {
   }
 
   private ExpressionParser createParser(VariableResolver resolver, boolean hasTokenInContext) {
+    if (!(resolver instanceof MapToolVariableResolver)) {
+      return newParser(resolver);
+    }
+    // Setting up a parser registers every function with it, so do that once per resolver, which
+    // is once per macro, rather than once for each expression in it
+    MapToolVariableResolver mapToolResolver = (MapToolVariableResolver) resolver;
+    ExpressionParser parser = mapToolResolver.getExpressionParser();
+    if (parser == null) {
+      parser = newParser(resolver);
+      mapToolResolver.setExpressionParser(parser);
+    }
+    return parser;
+  }
+
+  private ExpressionParser newParser(VariableResolver resolver) {
     ExpressionParser parser = new ExpressionParser(resolver);
     parser.getParser().addFunctions(mapToolParserFunctions);
     return parser;
@@ -18,6 +18,7 @@
 import java.util.ArrayList;
 import java.util.List;
 import javax.swing.JOptionPane;
+import net.rptools.common.expression.ExpressionParser;
 import net.rptools.maptool.client.functions.CurrentInitiativeFunction;
 import net.rptools.maptool.client.functions.InitiativeRoundFunction;
 import net.rptools.maptool.client.functions.JSONMacroFunctions;
@@ -86,6 +87,9 @@ public class MapToolVariableResolver extends MapVariableResolver {
 
   private boolean autoPrompt;
 
+  /** The parser that evaluates expressions against this resolver, once one has been needed. */
+  private ExpressionParser expressionParser;
+
   public MapToolVariableResolver(Token tokenInContext) {
     this.tokenInContext = tokenInContext;
     autoPrompt = true;
@@ -115,6 +119,14 @@ public boolean initialize() {
     return false;
   }
 
+  ExpressionParser getExpressionParser() {
+    return expressionParser;
+  }
+
+  void setExpressionParser(ExpressionParser expressionParser) {
+    this.expressionParser = expressionParser;
+  }
+
   /** Add an action to be performed after the full expression has been evaluated. */
   public void addDelayedAction(Runnable runnable) {
     if (!delayedActionList.contains(runnable)) {
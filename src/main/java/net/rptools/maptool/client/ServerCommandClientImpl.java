@@ -15,7 +15,10 @@
 package net.rptools.maptool.client;
 
 import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import net.rptools.lib.MD5Key;
@@ -31,6 +34,8 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenBatch;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -45,6 +50,9 @@ public class ServerCommandClientImpl implements ServerCommand {
   private final TimedEventQueue movementUpdateQueue = new TimedEventQueue(100);
   private final LinkedBlockingQueue<MD5Key> assetRetrieveQueue = new LinkedBlockingQueue<MD5Key>();
 
+  /** The token changes held back on each thread by {@link #startBatch()}. */
+  private static final ThreadLocal<CommandBatch> batch = new ThreadLocal<CommandBatch>();
+
   public ServerCommandClientImpl() {
     movementUpdateQueue.start();
     // new AssetRetrievalThread().start();
@@ -99,8 +107,8 @@ public void putAsset(Asset asset) {
     makeServerCall(COMMAND.putAsset, asset);
   }
 
-  public void getAsset(MD5Key assetID) {
-    makeServerCall(COMMAND.getAsset, assetID);
+  public void getAsset(MD5Key assetID, boolean urgent) {
+    makeServerCall(COMMAND.getAsset, assetID, urgent);
   }
 
   public void removeAsset(MD5Key assetID) {
@@ -120,10 +128,106 @@ public void putToken(GUID zoneGUID, Token token) {
     // after changing the token. But they don't tell the zone about it so classes
     // waiting for the zone change event don't get it.
     MapTool.getCampaign().getZone(zoneGUID).putToken(token);
-    makeServerCall(COMMAND.putToken, zoneGUID, token);
+    CommandBatch current = batch.get();
+    if (current != null) {
+      current.putToken(zoneGUID, token);
+      return;
+    }
+    Object change = getTokenChange(token);
+    if (change instanceof Token) {
+      makeServerCall(COMMAND.putToken, zoneGUID, token);
+    } else if (change != null) {
+      makeServerCall(COMMAND.updateToken, zoneGUID, change);
+    }
+  }
+
+  /**
+   * Works out what to send for a put of the token.
+   *
+   * @return the token itself if it must be sent whole, its {@link TokenDelta} if not, or null if it
+   *     hasn't changed
+   */
+  private static Object getTokenChange(Token token) {
+    if (MapTool.isPersonalServer()) {
+      // Nobody to send it to, so don't bother working out what changed
+      return token;
+    }
+    TokenDelta delta = TokenDelta.create(token);
+    if (delta == null) {
+      return token;
+    }
+    return delta.isEmpty() ? null : delta;
+  }
+
+  public void updateTokens(GUID zoneGUID, TokenBatch tokens) {
+    makeServerCall(COMMAND.updateTokens, zoneGUID, tokens);
+  }
+
+  /**
+   * Holds back token puts and property updates made on this thread until the matching {@link
+   * #endBatch()}, then sends the latest state of each changed token in one message per zone. Any
+   * other command sends what is held back first, so the server still sees commands in order.
+   * Batches nest; only the outermost sends.
+   */
+  public static void startBatch() {
+    CommandBatch current = batch.get();
+    if (current == null) {
+      current = new CommandBatch();
+      batch.set(current);
+    }
+    current.depth++;
+  }
+
+  /** Ends a batch started with {@link #startBatch()}, sending it if it is the outermost one. */
+  public static void endBatch() {
+    CommandBatch current = batch.get();
+    if (current == null) {
+      return;
+    }
+    if (--current.depth == 0) {
+      flushBatch();
+      batch.remove();
+    }
+  }
+
+  /** Sends the token changes held back on this thread, if any. */
+  private static void flushBatch() {
+    CommandBatch current = batch.get();
+    if (current == null || current.tokens.isEmpty()) {
+      return;
+    }
+    Map<GUID, List<Object>> changes = new LinkedHashMap<GUID, List<Object>>();
+    for (Map.Entry<GUID, Token> entry : current.tokens.entrySet()) {
+      Object change = getTokenChange(entry.getValue());
+      if (change != null) {
+        GUID zoneGUID = current.zones.get(entry.getKey());
+        changes.computeIfAbsent(zoneGUID, z -> new ArrayList<Object>()).add(change);
+      }
+    }
+    current.tokens.clear();
+    current.zones.clear();
+    for (Map.Entry<GUID, List<Object>> entry : changes.entrySet()) {
+      List<Object> zoneChanges = entry.getValue();
+      if (zoneChanges.size() > 1) {
+        sendServerCall(COMMAND.updateTokens, entry.getKey(), new TokenBatch(zoneChanges));
+      } else if (zoneChanges.get(0) instanceof Token) {
+        sendServerCall(COMMAND.putToken, entry.getKey(), zoneChanges.get(0));
+      } else {
+        sendServerCall(COMMAND.updateToken, entry.getKey(), zoneChanges.get(0));
+      }
+    }
+  }
+
+  public void updateToken(GUID zoneGUID, TokenDelta delta) {
+    makeServerCall(COMMAND.updateToken, zoneGUID, delta);
   }
 
   public void removeToken(GUID zoneGUID, GUID tokenGUID) {
+    CommandBatch current = batch.get();
+    if (current != null) {
+      current.removeToken(zoneGUID, tokenGUID);
+    }
+    // Sends a pending put of the token to another zone first, as when it is moved between maps
     makeServerCall(COMMAND.removeToken, zoneGUID, tokenGUID);
   }
 
@@ -153,6 +257,13 @@ public void updateTokenProperty(Token token, String methodName, Object... parame
     GUID tokenGUID = token.getId();
     GUID zoneGUID = zone.getId();
 
+    CommandBatch current = batch.get();
+    if (current != null) {
+      // Goes out with the token's delta when the batch ends
+      TokenDelta.updateProperty(token, zone, methodName, parameters);
+      current.putToken(zoneGUID, token);
+      return;
+    }
     token.updateProperty(zone, methodName, parameters); // update locally right away
     updateTokenProperty(zoneGUID, tokenGUID, methodName, parameters);
   }
@@ -290,7 +401,24 @@ public void clearExposedArea(GUID zoneGUID) {
     makeServerCall(COMMAND.clearExposedArea, zoneGUID);
   }
 
+  public void acknowledgeFoW(GUID zoneGUID, int version) {
+    makeServerCall(COMMAND.acknowledgeFoW, zoneGUID, version);
+  }
+
+  public void acknowledgeAssetChunk(int size) {
+    makeServerCall(COMMAND.acknowledgeAssetChunk, size);
+  }
+
+  public void requestFoW(GUID zoneGUID) {
+    makeServerCall(COMMAND.requestFoW, zoneGUID);
+  }
+
   private static void makeServerCall(ServerCommand.COMMAND command, Object... params) {
+    flushBatch();
+    sendServerCall(command, params);
+  }
+
+  private static void sendServerCall(ServerCommand.COMMAND command, Object... params) {
     if (MapTool.getConnection() != null) {
       MapTool.getConnection().callMethod(command.name(), params);
     }
@@ -317,6 +445,32 @@ public void updateExposedAreaMeta(
     makeServerCall(COMMAND.updateExposedAreaMeta, zoneGUID, tokenExposedAreaGUID, meta);
   }
 
+  /** Token changes held back by {@link #startBatch()}. */
+  static class CommandBatch {
+    int depth;
+
+    /** The changed tokens by id, in the order they were first changed. */
+    final Map<GUID, Token> tokens = new LinkedHashMap<GUID, Token>();
+
+    final Map<GUID, GUID> zones = new LinkedHashMap<GUID, GUID>();
+
+    void putToken(GUID zoneGUID, Token token) {
+      tokens.put(token.getId(), token);
+      zones.put(token.getId(), zoneGUID);
+    }
+
+    /**
+     * Drops the pending put of the token if it is to the zone it is being removed from, as sending
+     * it after the removal would bring it back. A put to any other zone is kept.
+     */
+    void removeToken(GUID zoneGUID, GUID tokenGUID) {
+      if (zoneGUID.equals(zones.get(tokenGUID))) {
+        tokens.remove(tokenGUID);
+        zones.remove(tokenGUID);
+      }
+    }
+  }
+
   /**
    * Some events become obsolete very quickly, such as dragging a token around. This queue always
    * has exactly one element, the more current version of the event. The event is then dispatched at
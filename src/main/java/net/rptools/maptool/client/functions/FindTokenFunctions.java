@@ -473,8 +473,14 @@ private Object getTokenList(Parser parser, boolean nameOnly, String delim, Strin
       if (range.containsKey("metric")) {
         metric = range.getString("metric");
       }
-      List<Token> inrange = new LinkedList<Token>();
-      for (Token targetToken : tokenList) {
+      // Only tokens near the source can be in range, so let the zone's index skip the rest
+      List<Token> candidates = tokenList;
+      if (upto != Integer.MAX_VALUE) {
+        Zone zone = MapTool.getFrame().getCurrentZoneRenderer().getZone();
+        candidates = instance.getTokensNear(zone, token, upto, useDistancePerCell, tokenList);
+      }
+      Set<Token> inrange = new HashSet<Token>();
+      for (Token targetToken : candidates) {
         Double distance = instance.getDistance(token, targetToken, useDistancePerCell, metric);
         if (distance <= upto && distance >= from && token != targetToken) {
           inrange.add(targetToken);
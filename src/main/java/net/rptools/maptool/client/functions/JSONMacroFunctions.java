@@ -20,6 +20,7 @@
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolVariableResolver;
 import net.rptools.maptool.language.I18N;
+import net.rptools.maptool.util.MemoryBoundedCache;
 import net.rptools.parser.*;
 import net.rptools.parser.function.AbstractFunction;
 import net.sf.json.JSONArray;
@@ -35,6 +36,34 @@ public enum JSONObjectType {
 
   private static final JSONMacroFunctions instance = new JSONMacroFunctions();
 
+  /** The share of the heap that parsed JSON values kept for reuse may take up. */
+  private static final double PARSED_JSON_HEAP_FRACTION = 0.03125;
+
+  /**
+   * Parsed values of the JSON text passed to the json.* functions, by the text. Frameworks keep
+   * large JSON documents in token properties and pass the same text to one function after another,
+   * so it is parsed once rather than on every call. The functions never change a value they are
+   * given but change a copy, which is what lets them share these.
+   */
+  private static final MemoryBoundedCache<String, ParsedJSON> parsedJSONCache =
+      new MemoryBoundedCache<String, ParsedJSON>(
+          "Parsed JSON cache",
+          (long) (Runtime.getRuntime().maxMemory() * PARSED_JSON_HEAP_FRACTION),
+          parsed -> parsed.size,
+          (text, parsed) -> true);
+
+  /** A parsed JSON value with a rough count of the bytes it holds on to. */
+  private static class ParsedJSON {
+    final Object value;
+    final long size;
+
+    ParsedJSON(Object value, int textLength) {
+      this.value = value;
+      // Parsed JSON takes several times the memory of its text
+      this.size = 64 + 8L * textLength;
+    }
+  }
+
   private JSONMacroFunctions() {
     super(
         1,
@@ -102,11 +131,11 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
             I18N.getText(
                 "macro.function.general.notEnoughParam", functionName, 3, parameters.size()));
       }
-      return JSONSet(asJSON(parameters.get(0)), parameters);
+      return JSONSet(asSharedJSON(parameters.get(0)), parameters);
     }
 
     if (functionName.equals("json.length")) {
-      return JSONLength(asJSON(parameters.get(0)));
+      return JSONLength(asSharedJSON(parameters.get(0)));
     }
 
     if (functionName.equals("json.fields")) {
@@ -114,7 +143,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
       if (parameters.size() > 1) {
         delim = parameters.get(1).toString();
       }
-      return JSONFields(asJSON(parameters.get(0)), delim);
+      return JSONFields(asSharedJSON(parameters.get(0)), delim);
     }
 
     if (functionName.equals("json.type")) {
@@ -126,7 +155,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
       if (parameters.size() > 1) {
         delim = parameters.get(1).toString();
       }
-      return JSONToList(asJSON(parameters.get(0)), delim);
+      return JSONToList(asSharedJSON(parameters.get(0)), delim);
     }
 
     if (functionName.equals("json.toStrProp")) {
@@ -134,7 +163,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
       if (parameters.size() > 1) {
         delim = parameters.get(1).toString();
       }
-      return JSONToStrProp(asJSON(parameters.get(0)), delim);
+      return JSONToStrProp(asSharedJSON(parameters.get(0)), delim);
     }
 
     if (functionName.equals("json.get")) {
@@ -143,7 +172,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
             I18N.getText(
                 "macro.function.general.notEnoughParam", functionName, 2, parameters.size()));
       }
-      return JSONGet(asJSON(parameters.get(0)), parameters.subList(1, parameters.size()));
+      return JSONGet(asSharedJSON(parameters.get(0)), parameters.subList(1, parameters.size()));
     }
 
     if (functionName.equals("json.append")) {
@@ -152,7 +181,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
             I18N.getText(
                 "macro.function.general.notEnoughParam", functionName, 2, parameters.size()));
       }
-      return JSONAppend(asJSON(parameters.get(0)), parameters);
+      return JSONAppend(asSharedJSON(parameters.get(0)), parameters);
     }
 
     if (functionName.equals("json.remove")) {
@@ -161,7 +190,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
             I18N.getText(
                 "macro.function.general.notEnoughParam", functionName, 2, parameters.size()));
       }
-      return JSONDelete(asJSON(parameters.get(0)), parameters.get(1).toString());
+      return JSONDelete(asSharedJSON(parameters.get(0)), parameters.get(1).toString());
     }
 
     if (functionName.equals("json.indent")) {
@@ -173,7 +202,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
           // Do nothing as we will just use the default.
         }
       }
-      return JSONIndent(asJSON(parameters.get(0)), indent);
+      return JSONIndent(asSharedJSON(parameters.get(0)), indent);
     }
 
     if (functionName.equals("json.contains")) {
@@ -182,7 +211,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
             I18N.getText(
                 "macro.function.general.notEnoughParam", functionName, 2, parameters.size()));
       }
-      return JSONContains(asJSON(parameters.get(0)), parameters.get(1).toString())
+      return JSONContains(asSharedJSON(parameters.get(0)), parameters.get(1).toString())
           ? BigDecimal.ONE
           : BigDecimal.ZERO;
     }
@@ -200,30 +229,30 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
                     functionName));
         }
         return JSONSort(
-            asJSON(parameters.get(0)),
+            asSharedJSON(parameters.get(0)),
             parameters.size() > 1 ? parameters.get(1).toString() : "ascending",
             fields);
       } else {
         return JSONSort(
-            asJSON(parameters.get(0)),
+            asSharedJSON(parameters.get(0)),
             parameters.size() > 1 ? parameters.get(1).toString() : "ascending",
             null);
       }
     }
 
     if (functionName.equals("json.shuffle")) {
-      return JSONShuffle(asJSON(parameters.get(0)));
+      return JSONShuffle(asSharedJSON(parameters.get(0)));
     }
 
     if (functionName.equals("json.reverse")) {
-      return JSONReverse(asJSON(parameters.get(0)));
+      return JSONReverse(asSharedJSON(parameters.get(0)));
     }
 
     if (functionName.equals("json.evaluate")) {
       if (!MapTool.getParser().isMacroTrusted()) {
         throw new ParserException(I18N.getText("macro.function.general.noPerm", functionName));
       }
-      Object j = asJSON(parameters.get(0));
+      Object j = asSharedJSON(parameters.get(0));
       if (!(j instanceof JSONObject) && !(j instanceof JSONArray)) {
         throw new ParserException(
             I18N.getText(
@@ -242,7 +271,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
     }
 
     if (functionName.equals("json.isEmpty")) {
-      Object j = asJSON(parameters.get(0));
+      Object j = asSharedJSON(parameters.get(0));
       if (j instanceof JSONObject) {
         return ((JSONObject) j).isEmpty() ? BigDecimal.ONE : BigDecimal.ZERO;
       }
@@ -261,8 +290,8 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
             I18N.getText(
                 "macro.function.general.notEnoughParam", functionName, 2, parameters.size()));
       }
-      Object left = asJSON(parameters.get(0));
-      Object right = asJSON(parameters.get(1));
+      Object left = asSharedJSON(parameters.get(0));
+      Object right = asSharedJSON(parameters.get(1));
 
       if (left instanceof JSONArray) {
         if (right instanceof JSONArray) {
@@ -328,7 +357,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
         }
         start = ((BigDecimal) parameters.get(2)).intValue();
       }
-      return JSONCount(asJSON(parameters.get(0).toString()), parameters.get(1), start);
+      return JSONCount(toSharedJSON(parameters.get(0)), parameters.get(1), start);
     }
 
     if (functionName.equals("json.indexOf")) {
@@ -349,7 +378,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
         }
         start = ((BigDecimal) parameters.get(2)).intValue();
       }
-      return JSONIndexOf(asJSON(parameters.get(0).toString()), parameters.get(1), start);
+      return JSONIndexOf(toSharedJSON(parameters.get(0)), parameters.get(1), start);
     }
 
     if (functionName.equals("json.merge")) {
@@ -357,7 +386,7 @@ public Object childEvaluate(Parser parser, String functionName, List<Object> par
     }
 
     if (functionName.equals("json.unique")) {
-      return JSONUnique(asJSON(parameters.get(0).toString()));
+      return JSONUnique(toSharedJSON(parameters.get(0)));
     }
 
     if (functionName.equals("json.removeAll")) {
@@ -445,7 +474,7 @@ private BigDecimal JSONIsSubset(List<Object> parameters) throws ParserException
     Set<Object> set = new HashSet<Object>();
     Set<Object> subset = new HashSet<Object>();
 
-    Object o1 = asJSON(parameters.get(0));
+    Object o1 = asSharedJSON(parameters.get(0));
     if (o1 instanceof JSONArray) {
       set.addAll((JSONArray) o1);
     } else if (o1 instanceof JSONObject) {
@@ -459,7 +488,7 @@ private BigDecimal JSONIsSubset(List<Object> parameters) throws ParserException
     }
 
     for (int i = 1; i < parameters.size(); i++) {
-      Object o2 = asJSON(parameters.get(i));
+      Object o2 = asSharedJSON(parameters.get(i));
       if (o2 instanceof JSONArray) {
         subset.addAll((JSONArray) o2);
       } else if (o2 instanceof JSONObject) {
@@ -491,7 +520,7 @@ private Object JSONRemoveFirst(List<Object> parameters) throws ParserException {
 
     List<Object> result = new LinkedList<>();
 
-    Object o = asJSON(parameters.get(0).toString());
+    Object o = toSharedJSON(parameters.get(0));
     if (o instanceof JSONArray) {
       result.addAll((JSONArray) o);
     } else {
@@ -502,7 +531,7 @@ private Object JSONRemoveFirst(List<Object> parameters) throws ParserException {
               "json.removeFirst"));
     }
 
-    o = asJSON(parameters.get(1).toString());
+    o = toSharedJSON(parameters.get(1));
     List<Object> toRemove = new ArrayList<>();
     if (o instanceof JSONArray) {
       toRemove.addAll((JSONArray) o);
@@ -538,7 +567,7 @@ private Object JSONRemoveFirst(List<Object> parameters) throws ParserException {
   private Object JSONDifference(List<Object> parameters) throws ParserException {
     Set<Object> s = new HashSet<Object>();
 
-    Object o = asJSON(parameters.get(0).toString());
+    Object o = toSharedJSON(parameters.get(0));
     if (o instanceof JSONArray) {
       s.addAll((JSONArray) o);
     } else if (o instanceof JSONObject) {
@@ -552,7 +581,7 @@ private Object JSONDifference(List<Object> parameters) throws ParserException {
     }
 
     for (int i = 1; i < parameters.size(); i++) {
-      o = asJSON(parameters.get(i).toString());
+      o = toSharedJSON(parameters.get(i));
       if (o instanceof JSONArray) {
         s.removeAll((JSONArray) o);
       } else if (o instanceof JSONObject) {
@@ -579,7 +608,7 @@ private Object JSONDifference(List<Object> parameters) throws ParserException {
   private Object JSONUnion(List<Object> parameters) throws ParserException {
     Set<Object> s = new HashSet<Object>();
 
-    Object o = asJSON(parameters.get(0).toString());
+    Object o = toSharedJSON(parameters.get(0));
     if (o instanceof JSONArray) {
       s.addAll((JSONArray) o);
     } else if (o instanceof JSONObject) {
@@ -591,7 +620,7 @@ private Object JSONUnion(List<Object> parameters) throws ParserException {
     }
 
     for (int i = 1; i < parameters.size(); i++) {
-      o = asJSON(parameters.get(i).toString());
+      o = toSharedJSON(parameters.get(i));
       if (o instanceof JSONArray) {
         s.addAll((JSONArray) o);
       } else if (o instanceof JSONObject) {
@@ -616,7 +645,7 @@ private Object JSONUnion(List<Object> parameters) throws ParserException {
   private Object JSONIntersection(List<Object> parameters) throws ParserException {
     Set<Object> s = new HashSet<Object>();
 
-    Object o = asJSON(parameters.get(0).toString());
+    Object o = toSharedJSON(parameters.get(0));
     if (o instanceof JSONArray) {
       s.addAll((JSONArray) o);
     } else if (o instanceof JSONObject) {
@@ -630,7 +659,7 @@ private Object JSONIntersection(List<Object> parameters) throws ParserException
     }
 
     for (int i = 1; i < parameters.size(); i++) {
-      o = asJSON(parameters.get(i).toString());
+      o = toSharedJSON(parameters.get(i));
       if (o instanceof JSONArray) {
         s.retainAll((JSONArray) o);
       } else if (o instanceof JSONObject) {
@@ -656,14 +685,14 @@ private Object JSONIntersection(List<Object> parameters) throws ParserException
    * @throws ParserException if an error occurs.
    */
   private Object JSONRemoveAll(List<Object> parameters) throws ParserException {
-    Object json = asJSON(parameters.get(0).toString());
+    Object json = toSharedJSON(parameters.get(0));
 
     if (json instanceof JSONArray) {
       // Create a new JSON Array to preserve immutability for the macro script.
       JSONArray jarr = JSONArray.fromObject(json);
 
       for (int i = 1; i < parameters.size(); i++) {
-        Object o2 = asJSON(parameters.get(i).toString());
+        Object o2 = toSharedJSON(parameters.get(i));
         if (o2 instanceof JSONArray) {
           jarr.removeAll((JSONArray) o2);
         } else if (o2 instanceof JSONObject) {
@@ -682,7 +711,7 @@ private Object JSONRemoveAll(List<Object> parameters) throws ParserException {
       JSONObject jobj = JSONObject.fromObject(json);
 
       for (int i = 1; i < parameters.size(); i++) {
-        Object o2 = asJSON(parameters.get(i).toString());
+        Object o2 = toSharedJSON(parameters.get(i));
         if (o2 instanceof JSONArray) {
           for (Object o3 : (JSONArray) o2) {
             jobj.remove(o3);
@@ -738,14 +767,14 @@ private JSONArray JSONUnique(Object obj) throws ParserException {
    * @throws ParserException if an error occurs.
    */
   private Object JSONMerge(List<Object> parameters) throws ParserException {
-    Object json = asJSON(parameters.get(0).toString());
+    Object json = toSharedJSON(parameters.get(0));
 
     if (json instanceof JSONArray) {
       // Create a new JSON Array to preserve immutability for the macro script.
       JSONArray jarr = JSONArray.fromObject(json);
 
       for (int i = 1; i < parameters.size(); i++) {
-        Object o2 = asJSON(parameters.get(i).toString());
+        Object o2 = toSharedJSON(parameters.get(i));
         if (!(o2 instanceof JSONArray)) {
           throw new ParserException(
               I18N.getText(
@@ -761,7 +790,7 @@ private Object JSONMerge(List<Object> parameters) throws ParserException {
       JSONObject jobj = JSONObject.fromObject(json);
 
       for (int i = 1; i < parameters.size(); i++) {
-        Object o2 = asJSON(parameters.get(i).toString());
+        Object o2 = toSharedJSON(parameters.get(i));
         if (!(o2 instanceof JSONObject)) {
           throw new ParserException(
               I18N.getText(
@@ -800,8 +829,11 @@ private BigDecimal JSONCount(Object json, Object searchFor, int start) throws Pa
     }
     JSONArray jarr = (JSONArray) json;
 
-    if (searchFor instanceof String && convertToJSON((String) searchFor) != null) {
-      searchFor = convertToJSON((String) searchFor);
+    if (searchFor instanceof String) {
+      Object parsed = convertToJSON((String) searchFor);
+      if (parsed != null) {
+        searchFor = parsed;
+      }
     }
 
     int count = 0;
@@ -852,8 +884,11 @@ private BigDecimal JSONIndexOf(Object json, Object searchFor, int start) throws
     }
     JSONArray jarr = (JSONArray) json;
 
-    if (searchFor instanceof String && convertToJSON((String) searchFor) != null) {
-      searchFor = convertToJSON((String) searchFor);
+    if (searchFor instanceof String) {
+      Object parsed = convertToJSON((String) searchFor);
+      if (parsed != null) {
+        searchFor = parsed;
+      }
     }
 
     for (int i = start, max = jarr.size(); i < max; i++) {
@@ -1445,7 +1480,7 @@ private JSONObjectType getJSONObjectType(Object obj) {
     } else {
       String str = obj.toString().trim();
       if (str.startsWith("{") || str.startsWith("[")) {
-        Object converted = asJSON(str);
+        Object converted = asSharedJSON(str);
         if (converted != null) {
           return getJSONObjectType(converted);
         }
@@ -1713,6 +1748,37 @@ public static Object asJSON(Object o) {
     return convertToJSON(o.toString());
   }
 
+  /**
+   * Like {@link #asJSON(Object)}, but JSON text is only parsed the first time it is seen. The value
+   * returned may be shared with other callers and must not be changed.
+   */
+  private static Object asSharedJSON(Object o) {
+    if (!(o instanceof String)) {
+      return asJSON(o);
+    }
+    String text = (String) o;
+    ParsedJSON parsed = parsedJSONCache.get(text);
+    if (parsed != null) {
+      return parsed.value;
+    }
+    Object json = asJSON(text);
+    if (json instanceof JSONObject || json instanceof JSONArray) {
+      parsedJSONCache.put(text, new ParsedJSON(json, text.length()));
+    }
+    return json;
+  }
+
+  /**
+   * Like {@link #asSharedJSON(Object)} on the text of the parameter, but a parameter that is
+   * already a JSON value is used as it is rather than written out as text only to be parsed back.
+   */
+  private static Object toSharedJSON(Object o) {
+    if (o instanceof JSONObject || o instanceof JSONArray) {
+      return o;
+    }
+    return asSharedJSON(o.toString());
+  }
+
   public JSONArray JSONRolls(List<Object> param) throws ParserException {
     String roll = param.get(0).toString();
     if (!(param.get(1) instanceof BigDecimal)) {
@@ -1759,7 +1825,7 @@ public JSONObject JSONObjRolls(List<Object> param) throws ParserException {
     Object[] rolls;
 
     Object o;
-    o = asJSON(param.get(0));
+    o = asSharedJSON(param.get(0));
     if (o instanceof JSONArray) {
       names = (JSONArray) o;
     } else {
@@ -1768,7 +1834,7 @@ public JSONObject JSONObjRolls(List<Object> param) throws ParserException {
               "macro.function.json.onlyArray", o == null ? "NULL" : o.toString(), "json.objrolls"));
     }
 
-    o = asJSON(param.get(1));
+    o = asSharedJSON(param.get(1));
     if (o instanceof JSONArray) {
       stats = ((JSONArray) o).toArray();
     } else {
@@ -1778,7 +1844,7 @@ public JSONObject JSONObjRolls(List<Object> param) throws ParserException {
     }
 
     if (param.get(2).toString().trim().startsWith("[")) {
-      o = asJSON(param.get(2));
+      o = asSharedJSON(param.get(2));
       if (o instanceof JSONArray) {
         rolls = ((JSONArray) o).toArray();
         if (rolls.length != stats.length) {
@@ -17,6 +17,7 @@
 import java.awt.Rectangle;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import net.rptools.maptool.client.MapTool;
@@ -30,6 +31,7 @@
 import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.SquareGrid;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.ZonePoint;
 import net.rptools.parser.Parser;
@@ -48,6 +50,9 @@ private static class TokenLocation {
   /** Ignore grid for movement metric in distance methods. */
   private static final String NO_GRID = "NO_GRID";
 
+  /** Ranges (in cells) beyond this cover most maps, so the token index isn't worth using. */
+  private static final double MAX_INDEXED_RANGE = 1000;
+
   /** Singleton for class/ */
   private static final TokenLocationFunctions instance = new TokenLocationFunctions();
 
@@ -231,6 +236,8 @@ private String tokenMoveMap(boolean fromCurrentMap, List<Object> args) throws Pa
         token.setX(x);
         token.setY(y);
         token.setZOrder(z);
+        // The new map has never had the token, so a delta would have nothing to apply to
+        TokenDelta.clearBaseline(token);
         toZone.putToken(token);
         MapTool.serverCommand().putToken(toZone.getId(), token);
         MapTool.serverCommand().removeToken(fromZone.getId(), token.getId());
@@ -361,6 +368,48 @@ public double getDistance(Token source, Token target, boolean units, String metr
     }
   }
 
+  /**
+   * Narrows a list of tokens down to those that could be within <code>upto</code> of <code>source
+   * </code>, using the zone's token index. Every metric used by {@link #getDistance(Token, Token,
+   * boolean, String)} is at least the number of cells crossed in a straight line, so tokens outside
+   * a box of that many cells around the source can be skipped before the exact (and possibly path
+   * finding) distance is calculated.
+   *
+   * @param zone the zone the tokens are on
+   * @param source the token distances are measured from
+   * @param upto the maximum distance
+   * @param units whether <code>upto</code> is in map units rather than cells
+   * @param tokens the tokens to narrow down
+   * @return the tokens from <code>tokens</code> that may be in range, in the same order
+   */
+  public List<Token> getTokensNear(
+      Zone zone, Token source, double upto, boolean units, List<Token> tokens) {
+    double cells = upto;
+    if (units) {
+      if (zone.getUnitsPerCell() <= 0) {
+        return tokens;
+      }
+      cells = upto / zone.getUnitsPerCell();
+    }
+    if (cells > MAX_INDEXED_RANGE) {
+      return tokens;
+    }
+    Grid grid = zone.getGrid();
+    double cellSize = Math.max(grid.getCellWidth(), grid.getCellHeight());
+    int margin = (int) Math.ceil((Math.max(cells, 0) + 2) * cellSize);
+    Rectangle area = source.getBounds(zone);
+    area.grow(margin, margin);
+
+    Set<Token> near = new HashSet<Token>(zone.getTokensIntersecting(null, area));
+    List<Token> result = new ArrayList<Token>();
+    for (Token token : tokens) {
+      if (near.contains(token)) {
+        result.add(token);
+      }
+    }
+    return result;
+  }
+
   /**
    * Gets the distance to a target x,y co-ordinate following map movement rules.
    *
@@ -128,6 +128,7 @@ private void initialize() {
     initDistanceTextField();
     initPixelsPerCellTextField();
     initDefaultVisionTextField();
+    initFogCellSizeTextField();
 
     initIsometricRadio();
     initHexHoriRadio();
@@ -220,6 +221,7 @@ private void copyZoneToUI() {
     getDistanceTextField().setText(Double.toString(zone.getUnitsPerCell()));
     getPixelsPerCellTextField().setText(Integer.toString(zone.getGrid().getSize()));
     getDefaultVisionTextField().setText(Integer.toString(zone.getTokenVisionDistance()));
+    getFogCellSizeTextField().setText(Integer.toString(zone.getFogCellSize()));
     getHexVerticalRadio().setSelected(zone.getGrid() instanceof HexGridVertical);
     getIsometricRadio().setSelected(zone.getGrid() instanceof IsometricGrid);
     getHexHorizontalRadio().setSelected(zone.getGrid() instanceof HexGridHorizontal);
@@ -239,6 +241,8 @@ private void copyUIToZone() {
     zone.setTokenVisionDistance(
         StringUtil.parseInteger(
             getDefaultVisionTextField().getText(), zone.getTokenVisionDistance()));
+    zone.setFogCellSize(
+        StringUtil.parseInteger(getFogCellSizeTextField().getText(), zone.getFogCellSize()));
 
     zone.setFogPaint(fogPaint);
     zone.setBackgroundPaint(backgroundPaint);
@@ -434,6 +438,15 @@ private void initDefaultVisionTextField() {
         .setText(Integer.toString(AppPreferences.getDefaultVisionDistance()));
   }
 
+  /** The cell size for keeping exposed areas as rasters, 0 to keep them as areas. */
+  public JTextField getFogCellSizeTextField() {
+    return formPanel.getTextField("fogCellSize");
+  }
+
+  private void initFogCellSizeTextField() {
+    getFogCellSizeTextField().setText("0");
+  }
+
   public String getZoneName() {
     return getNameTextField().getText();
   }
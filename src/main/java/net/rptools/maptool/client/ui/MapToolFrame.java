@@ -1536,6 +1536,10 @@ public void setCurrentZoneRenderer(ZoneRenderer renderer) {
     }
     if (currentRenderer != null) {
       currentRenderer.flush();
+      if (currentRenderer != renderer) {
+        // Drawing chunks take a lot of memory, and the renderer may not be shown again for a while
+        currentRenderer.releaseDrawableRenderer();
+      }
       zoneRendererPanel.remove(currentRenderer);
     }
     if (renderer != null) {
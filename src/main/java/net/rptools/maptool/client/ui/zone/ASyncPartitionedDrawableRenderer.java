@@ -15,6 +15,7 @@
 package net.rptools.maptool.client.ui.zone;
 
 import java.awt.AlphaComposite;
+import java.awt.Component;
 import java.awt.Composite;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -24,152 +25,416 @@
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import net.rptools.maptool.client.MapTool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+import net.rptools.lib.image.ImageUtil;
 import net.rptools.maptool.model.drawing.Drawable;
+import net.rptools.maptool.model.drawing.DrawablesGroup;
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
-
-/** */
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Renders drawings in chunks on a pool of background threads, so that painting only ever copies
+ * finished chunks to the screen. Chunks nearest the middle of the view are rendered first. Until a
+ * chunk is ready the renderer shows its out of date version if it has one, or else the chunks of
+ * the zoom level shown before.
+ *
+ * <p>The chunk cache is only touched on the event dispatch thread. Workers render from a snapshot
+ * of the drawing list and hand the finished chunk back with {@link
+ * SwingUtilities#invokeLater(Runnable)}.
+ */
 public class ASyncPartitionedDrawableRenderer implements DrawableRenderer {
+  private static final Logger log = LogManager.getLogger(ASyncPartitionedDrawableRenderer.class);
 
-  private static final BufferedImage NO_IMAGE = new BufferedImage(1, 1, Transparency.OPAQUE);
   private static final int CHUNK_SIZE = 256;
 
-  private Map<String, BufferedImage> chunkMap = new HashMap<String, BufferedImage>();
+  private static final int CHUNK_BYTES = CHUNK_SIZE * CHUNK_SIZE * 4;
 
-  private static BlockingQueue<QueuedRenderer> renderQueue =
-      new LinkedBlockingQueue<QueuedRenderer>();
+  /** Memory a renderer may spend on chunks, unless covering the viewport twice takes more. */
+  private static final long CHUNK_CACHE_BYTES = 48L * 1024 * 1024;
 
-  private double lastDrawableCount;
-  private double lastScale;
-  private Rectangle lastViewport;
+  /** How many zoom levels to keep chunks for before starting over. */
+  private static final int MAX_SCALE_BUCKETS = 16;
 
-  private int horizontalChunkCount;
-  private int verticalChunkCount;
+  /** Zoomed out further than this, there are too many old chunks to fill in a new one with. */
+  private static final double MAX_FALLBACK_RATIO = 4;
 
-  static {
-    new RenderThread().start();
-  }
+  /** Cached in place of chunks that have nothing drawn on them. */
+  private static final BufferedImage NO_IMAGE =
+      new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
 
-  public void flush() {
-    // for (BufferedImage image : chunkMap.values()) {
-    // releaseChunk(image);
-    // }
-    // chunkMap.clear();
-    renderQueue.clear();
-  }
+  /** Shared by all renderers, so that every drawing layer competes for the same threads. */
+  private static final ThreadPoolExecutor renderPool = createRenderPool();
 
-  public void renderDrawables(
-      Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
+  private static final AtomicLong taskSequence = new AtomicLong();
 
-    // NOTHING TO DO
-    if (drawableList == null || drawableList.size() == 0) {
-      flush();
-      return;
-    }
+  private static final BlockingQueue<BufferedImage> unusedChunks =
+      new ArrayBlockingQueue<BufferedImage>(64);
 
-    if (drawableList.size() != lastDrawableCount || lastScale != scale) {
-      flush();
-    }
+  /** Repainted when a chunk is ready. */
+  private final Component component;
 
-    boolean forceRedraw = true;
-    if (lastViewport == null
-        || viewport.width != lastViewport.width
-        || viewport.height != lastViewport.height) {
-      horizontalChunkCount = (int) Math.ceil(viewport.width / (double) CHUNK_SIZE) + 1;
-      verticalChunkCount = (int) Math.ceil(viewport.height / (double) CHUNK_SIZE) + 1;
-      forceRedraw = true;
-    }
+  /**
+   * Rendered chunks keyed by {@link #getKey(int, int, int)}, least recently used first. Chunks
+   * rendered at other zoom levels are kept too, so zooming back doesn't start from scratch.
+   */
+  private final LinkedHashMap<Long, Chunk> chunkCache =
+      new LinkedHashMap<Long, Chunk>(64, 0.75f, true);
+
+  /** Chunks queued or being rendered, by key. */
+  private final Map<Long, ChunkTask> pending = new HashMap<Long, ChunkTask>();
+
+  /** The scale each zoom level bucket was rendered at, indexed by bucket. */
+  private final List<Double> bucketScales = new ArrayList<Double>();
+
+  /** Entries in the cache other than {@link #NO_IMAGE}. */
+  private int imageCount;
 
-    forceRedraw = lastScale != scale || !lastViewport.equals(viewport);
+  private int maxChunks = (int) (CHUNK_CACHE_BYTES / CHUNK_BYTES);
 
-    // REMEMBER
-    lastViewport = viewport;
-    lastDrawableCount = drawableList.size();
-    lastScale = scale;
+  private int currentBucket = -1;
+  private int previousBucket = -1;
 
-    // Calculate cells
-    int gridx = (int) Math.floor(-viewport.x / (double) CHUNK_SIZE);
-    int gridy = (int) Math.floor(-viewport.y / (double) CHUNK_SIZE);
+  /** The list the snapshot was taken from. */
+  private List<DrawnElement> drawableSource;
 
-    Set<String> chunkCache = new HashSet<String>();
-    chunkCache.addAll(chunkMap.keySet());
-    for (int row = 0; row < verticalChunkCount; row++) {
+  /** What new chunks are rendered from; null once the drawings are known to have changed. */
+  private List<DrawnElement> snapshot;
 
-      for (int col = 0; col < horizontalChunkCount; col++) {
+  /** @param component repainted whenever a chunk finishes rendering */
+  public ASyncPartitionedDrawableRenderer(Component component) {
+    this.component = component;
+  }
 
-        int x =
-            col * CHUNK_SIZE
-                - ((CHUNK_SIZE - viewport.x)) % CHUNK_SIZE
-                - (gridx < -1 ? CHUNK_SIZE : 0);
-        int y =
-            row * CHUNK_SIZE
-                - ((CHUNK_SIZE - viewport.y)) % CHUNK_SIZE
-                - (gridy < -1 ? CHUNK_SIZE : 0);
+  private static ThreadPoolExecutor createRenderPool() {
+    int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory factory =
+        runnable -> {
+          Thread thread =
+              new Thread(runnable, "DrawableRenderer-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          // Keep out of the way of the event dispatch thread
+          thread.setPriority(Thread.NORM_PRIORITY - 1);
+          return thread;
+        };
+    return new ThreadPoolExecutor(
+        threads,
+        threads,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new PriorityBlockingQueue<Runnable>(),
+        factory);
+  }
 
-        int cellX = gridx + col;
-        int cellY = gridy + row;
+  /** Marks every chunk out of date. They are still shown until their replacements are ready. */
+  public void flush() {
+    if (!SwingUtilities.isEventDispatchThread()) {
+      // Image observers call this from the image loader threads
+      SwingUtilities.invokeLater(this::flush);
+      return;
+    }
+    snapshot = null;
+    for (Chunk chunk : chunkCache.values()) {
+      chunk.stale = true;
+    }
+    cancelPending(null);
+  }
 
-        String key = getKey(cellX, cellY);
-        BufferedImage chunk = chunkMap.get(key);
-        if (chunk == null || forceRedraw) {
+  /** Marks the chunks, at every zoom level, that overlap the bounds out of date. */
+  @Override
+  public void flush(Rectangle2D bounds) {
+    if (!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(() -> flush(bounds));
+      return;
+    }
+    snapshot = null;
+    for (Map.Entry<Long, Chunk> entry : chunkCache.entrySet()) {
+      if (overlaps(entry.getKey(), bounds)) {
+        entry.getValue().stale = true;
+      }
+    }
+    // Anything already queued would be rendered from the old drawings
+    cancelPending(bounds);
+  }
 
-          createChunk(drawableList, cellX, cellY, scale, viewport);
+  private boolean overlaps(long key, Rectangle2D bounds) {
+    double scale = bucketScales.get(getBucket(key));
+    double size = CHUNK_SIZE / scale;
+    // Antialiasing can spill a pixel or so past the drawn bounds
+    double margin = 2 / scale;
+    return bounds.intersects(
+        getCellX(key) * size - margin,
+        getCellY(key) * size - margin,
+        size + 2 * margin,
+        size + 2 * margin);
+  }
 
-          if (chunk == null) chunk = NO_IMAGE;
-          chunkMap.put(key, chunk);
+  /** @param bounds only cancel chunks overlapping this, or all of them if null */
+  private void cancelPending(Rectangle2D bounds) {
+    Iterator<ChunkTask> iter = pending.values().iterator();
+    while (iter.hasNext()) {
+      ChunkTask task = iter.next();
+      if (bounds == null || overlaps(task.key, bounds)) {
+        task.cancelled = true;
+        iter.remove();
+      }
+    }
+  }
+
+  /** Drops every chunk, which {@link #flush()} keeps to show until it is replaced. */
+  @Override
+  public void release() {
+    if (!SwingUtilities.isEventDispatchThread()) {
+      SwingUtilities.invokeLater(this::release);
+      return;
+    }
+    clear();
+  }
+
+  /** Drops everything, for when there is nothing left to draw. */
+  private void clear() {
+    cancelPending(null);
+    for (Chunk chunk : chunkCache.values()) {
+      recycle(chunk.image);
+    }
+    chunkCache.clear();
+    bucketScales.clear();
+    imageCount = 0;
+    currentBucket = -1;
+    previousBucket = -1;
+    drawableSource = null;
+    snapshot = null;
+  }
+
+  public void renderDrawables(
+      Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
+    // NOTHING TO DO
+    if (drawableList == null || drawableList.isEmpty()) {
+      if (!chunkCache.isEmpty() || !pending.isEmpty()) {
+        clear();
+      }
+      return;
+    }
+    if (snapshot == null
+        || drawableList != drawableSource
+        || drawableList.size() != snapshot.size()) {
+      if (snapshot != null) {
+        // The drawings changed without flush(Rectangle2D) being told, so any chunk may be stale
+        flush();
+      }
+      drawableSource = drawableList;
+      snapshot = new ArrayList<DrawnElement>(drawableList);
+    }
+    int bucket = getScaleBucket(scale);
+    if (bucket != currentBucket) {
+      previousBucket = currentBucket;
+      currentBucket = bucket;
+    }
+    int firstCol = Math.floorDiv(-viewport.x, CHUNK_SIZE);
+    int lastCol = Math.floorDiv(-viewport.x + viewport.width - 1, CHUNK_SIZE);
+    int firstRow = Math.floorDiv(-viewport.y, CHUNK_SIZE);
+    int lastRow = Math.floorDiv(-viewport.y + viewport.height - 1, CHUNK_SIZE);
+    maxChunks =
+        (int)
+            Math.max(
+                (lastCol - firstCol + 1) * (lastRow - firstRow + 1) * 2,
+                CHUNK_CACHE_BYTES / CHUNK_BYTES);
+
+    // Stop work on other zoom levels and on chunks that have scrolled well out of view
+    Iterator<ChunkTask> iter = pending.values().iterator();
+    while (iter.hasNext()) {
+      ChunkTask task = iter.next();
+      if (getBucket(task.key) != bucket
+          || task.cellX < firstCol - 1
+          || task.cellX > lastCol + 1
+          || task.cellY < firstRow - 1
+          || task.cellY > lastRow + 1) {
+        task.cancelled = true;
+        iter.remove();
+      }
+    }
+    double centerCol = (firstCol + lastCol) / 2.0;
+    double centerRow = (firstRow + lastRow) / 2.0;
+
+    for (int cellY = firstRow; cellY <= lastRow; cellY++) {
+      for (int cellX = firstCol; cellX <= lastCol; cellX++) {
+        long key = getKey(bucket, cellX, cellY);
+        // Looking the chunk up marks it most recently used
+        Chunk chunk = chunkCache.get(key);
+        if ((chunk == null || chunk.stale) && !pending.containsKey(key)) {
+          double dx = cellX - centerCol;
+          double dy = cellY - centerRow;
+          ChunkTask task =
+              new ChunkTask(key, cellX, cellY, scale, snapshot, (long) ((dx * dx + dy * dy) * 4));
+          pending.put(key, task);
+          renderPool.execute(task);
+        }
+        int x = cellX * CHUNK_SIZE + viewport.x;
+        int y = cellY * CHUNK_SIZE + viewport.y;
+        if (chunk != null) {
+          if (chunk.image != NO_IMAGE) {
+            g.drawImage(chunk.image, x, y, null);
+          }
         } else {
-          // System.out.println("cache: " + getKey(cellX, cellY) + " - " + (chunk == NO_IMAGE));
+          drawPreviousScale(g, cellX, cellY, x, y, scale);
         }
-        if (chunk != null && chunk != NO_IMAGE) {
-          // System.out.println("Drawing: " + key);
-          g.drawImage(chunk, x, y, null);
+      }
+    }
+    trimCache();
+  }
+
+  /**
+   * Renders the drawings completely before returning, without using or disturbing the chunk cache.
+   * This is for images that are saved rather than shown, which can't wait for the workers.
+   */
+  @Override
+  public void renderDrawablesAndWait(
+      Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
+    if (drawableList == null || drawableList.isEmpty()) {
+      return;
+    }
+    List<DrawnElement> drawables = new ArrayList<DrawnElement>(drawableList);
+    int firstCol = Math.floorDiv(-viewport.x, CHUNK_SIZE);
+    int lastCol = Math.floorDiv(-viewport.x + viewport.width - 1, CHUNK_SIZE);
+    int firstRow = Math.floorDiv(-viewport.y, CHUNK_SIZE);
+    int lastRow = Math.floorDiv(-viewport.y + viewport.height - 1, CHUNK_SIZE);
+    for (int cellY = firstRow; cellY <= lastRow; cellY++) {
+      for (int cellX = firstCol; cellX <= lastCol; cellX++) {
+        BufferedImage image = renderChunk(drawables, cellX, cellY, scale, null);
+        if (image != null) {
+          int x = cellX * CHUNK_SIZE + viewport.x;
+          int y = cellY * CHUNK_SIZE + viewport.y;
+          g.drawImage(image, x, y, null);
+          recycle(image);
         }
-        chunkCache.remove(key);
-
-        // if (col%2 == 0) {
-        // if (row%2 == 0) {
-        // g.setColor(Color.white);
-        // } else {
-        // g.setColor(Color.green);
-        // }
-        // } else {
-        // if (row%2 == 0) {
-        // g.setColor(Color.green);
-        // } else {
-        // g.setColor(Color.white);
-        // }
-        // }
-        // g.drawRect(x, y, CHUNK_SIZE-1, CHUNK_SIZE-1);
-        // g.drawString(key, x + CHUNK_SIZE/2, y + CHUNK_SIZE/2);
       }
     }
-    for (String key : chunkCache) {
-      // System.out.println("Removing: " + key);
-      releaseChunk(chunkMap.remove(key));
+  }
+
+  /** Fills in a chunk that isn't ready yet by scaling the chunks of the last zoom level shown. */
+  private void drawPreviousScale(Graphics g, int cellX, int cellY, int x, int y, double scale) {
+    if (previousBucket < 0) {
+      return;
+    }
+    // How many of the old chunks span one new chunk
+    double ratio = bucketScales.get(previousBucket) / scale;
+    if (ratio > MAX_FALLBACK_RATIO) {
+      return;
+    }
+    int firstCol = (int) Math.floor(cellX * ratio);
+    int lastCol = (int) Math.ceil((cellX + 1) * ratio) - 1;
+    int firstRow = (int) Math.floor(cellY * ratio);
+    int lastRow = (int) Math.ceil((cellY + 1) * ratio) - 1;
+
+    Graphics g2 = null;
+    for (int oldY = firstRow; oldY <= lastRow; oldY++) {
+      for (int oldX = firstCol; oldX <= lastCol; oldX++) {
+        Chunk chunk = chunkCache.get(getKey(previousBucket, oldX, oldY));
+        if (chunk == null || chunk.image == NO_IMAGE) {
+          continue;
+        }
+        if (g2 == null) {
+          g2 = g.create(x, y, CHUNK_SIZE, CHUNK_SIZE);
+        }
+        int x1 = (int) Math.floor(CHUNK_SIZE * (oldX / ratio - cellX));
+        int x2 = (int) Math.floor(CHUNK_SIZE * ((oldX + 1) / ratio - cellX));
+        int y1 = (int) Math.floor(CHUNK_SIZE * (oldY / ratio - cellY));
+        int y2 = (int) Math.floor(CHUNK_SIZE * ((oldY + 1) / ratio - cellY));
+        g2.drawImage(chunk.image, x1, y1, x2 - x1, y2 - y1, null);
+      }
+    }
+    if (g2 != null) {
+      g2.dispose();
     }
   }
 
-  private void createChunk(
-      List<DrawnElement> drawableList, int gridx, int gridy, double scale, Rectangle view) {
-    // System.out.println("create: " + getKey(gridx, gridy));
-    renderQueue.add(new QueuedRenderer(drawableList, gridx, gridy, scale, view));
+  /** Called on the event dispatch thread with a finished chunk, null if it was empty. */
+  private void chunkRendered(ChunkTask task, BufferedImage image) {
+    if (pending.get(task.key) != task) {
+      // Cancelled since, and maybe queued again
+      recycle(image);
+      return;
+    }
+    pending.remove(task.key);
+    Chunk old = chunkCache.put(task.key, new Chunk(image != null ? image : NO_IMAGE));
+    if (image != null) {
+      imageCount++;
+    }
+    if (old != null) {
+      discard(old);
+    }
+    trimCache();
+    component.repaint();
   }
 
-  private static BufferedImage renderChunk(QueuedRenderer renderer) {
+  /** Called on the event dispatch thread when rendering a chunk failed. */
+  private void chunkFailed(ChunkTask task) {
+    // Leave the chunk as it was, it is asked for again on the next paint
+    if (pending.get(task.key) == task) {
+      pending.remove(task.key);
+    }
+  }
 
-    int gridx = renderer.cellX;
-    int gridy = renderer.cellY;
-    List<DrawnElement> drawableList = renderer.drawableList;
-    double scale = renderer.scale;
+  /** Evicts least recently used chunks until the cache is back within its limits. */
+  private void trimCache() {
+    Iterator<Chunk> iter = chunkCache.values().iterator();
+    while ((imageCount > maxChunks || chunkCache.size() > maxChunks * 4) && iter.hasNext()) {
+      Chunk chunk = iter.next();
+      iter.remove();
+      discard(chunk);
+    }
+  }
 
+  private void discard(Chunk chunk) {
+    if (chunk.image != NO_IMAGE) {
+      imageCount--;
+      recycle(chunk.image);
+    }
+  }
+
+  private static void recycle(BufferedImage image) {
+    if (image != null && image != NO_IMAGE) {
+      // Dropped if the pool is full
+      unusedChunks.offer(image);
+    }
+  }
+
+  private static BufferedImage getNewChunk() {
+    BufferedImage image = unusedChunks.poll();
+    if (image != null) {
+      ImageUtil.clearImage(image);
+    } else {
+      image = new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.BITMASK);
+    }
+    image.setAccelerationPriority(1);
+    return image;
+  }
+
+  /**
+   * Render one chunk of drawings. Runs on the worker threads, except when rendering for a saved
+   * image.
+   *
+   * @param task checked between drawings so that cancelled work stops early, may be null
+   * @return the chunk, or null if nothing is drawn on it or the task was cancelled
+   */
+  private static BufferedImage renderChunk(
+      List<DrawnElement> drawableList, int gridx, int gridy, double scale, ChunkTask task) {
     int x = gridx * CHUNK_SIZE;
     int y = gridy * CHUNK_SIZE;
 
@@ -177,27 +442,34 @@ private static BufferedImage renderChunk(QueuedRenderer renderer) {
     Composite oldComposite = null;
     Graphics2D g = null;
 
-    for (DrawnElement element : drawableList) {
+    Rectangle2D chunkBounds =
+        new Rectangle(
+            (int) (gridx * (CHUNK_SIZE / scale)),
+            (int) (gridy * (CHUNK_SIZE / scale)),
+            (int) (CHUNK_SIZE / scale),
+            (int) (CHUNK_SIZE / scale));
 
+    for (DrawnElement element : drawableList) {
+      if (task != null && task.cancelled) {
+        break;
+      }
       Drawable drawable = element.getDrawable();
+      if (drawable.getBounds() == null) {
+        continue;
+      }
+      Rectangle2D drawnBounds = new Rectangle(drawable.getBounds());
 
-      Rectangle2D drawnBounds = drawable.getBounds();
-      Rectangle2D chunkBounds =
-          new Rectangle(
-              (int) (gridx * (CHUNK_SIZE / scale)),
-              (int) (gridy * (CHUNK_SIZE / scale)),
-              (int) (CHUNK_SIZE / scale),
-              (int) (CHUNK_SIZE / scale));
-      // if (gridx == 0 && gridy == 1) {
-      // System.out.println(drawnBounds.intersects(chunkBounds));
-      // System.out.println(drawnBounds + " - " + chunkBounds);
-      // }
-
-      // TODO: handle pen size
+      // Handle pen size
+      Pen pen = element.getPen();
+      int penSize = (int) (pen.getThickness() / 2 + 1);
+      drawnBounds.setRect(
+          drawnBounds.getX() - penSize,
+          drawnBounds.getY() - penSize,
+          drawnBounds.getWidth() + pen.getThickness(),
+          drawnBounds.getHeight() + pen.getThickness());
       if (!drawnBounds.intersects(chunkBounds)) {
         continue;
       }
-
       if (image == null) {
         image = getNewChunk();
         g = image.createGraphics();
@@ -211,98 +483,136 @@ private static BufferedImage renderChunk(QueuedRenderer renderer) {
         af.scale(scale, scale);
         g.setTransform(af);
       }
-
-      Pen pen = element.getPen();
-      if (pen.getOpacity() != 1 && pen.getOpacity() != 0 /*
-																 * handle legacy pens, besides, it doesn't make sense to have a non visible pen
-																 */) {
+      // Legacy pens may have an opacity of 0, and an invisible pen makes no sense anyway
+      if (pen.getOpacity() != 1 && pen.getOpacity() != 0) {
         g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, pen.getOpacity()));
       }
-      // if (gridx == 0 && gridy == 1) {
-      // System.out.println("draw");
-      // }
-      drawable.draw(g, pen);
+      if (drawable instanceof DrawablesGroup) {
+        DrawablesGroup dg = (DrawablesGroup) drawable;
+        BufferedImage groupImage = renderChunk(dg.getDrawableList(), gridx, gridy, scale, task);
+        if (groupImage != null) {
+          Graphics2D g2 = image.createGraphics();
+          g2.drawImage(groupImage, 0, 0, CHUNK_SIZE, CHUNK_SIZE, null);
+          g2.dispose();
+          recycle(groupImage);
+        }
+      } else {
+        drawable.draw(g, pen);
+      }
       g.setComposite(oldComposite);
     }
-
     if (g != null) {
       g.dispose();
     }
-    // if (image != null && isEmpty(image)) {
-    // releaseChunk(image);
-    // image = null;
-    // }
-    if (image == null) {
-      image = NO_IMAGE;
+    if (task != null && task.cancelled) {
+      recycle(image);
+      return null;
     }
-
     return image;
   }
 
-  private static void releaseChunk(BufferedImage image) {
-    // if (image == null || image == NO_IMAGE || chunkPool.size() >= maxChunkPoolSize) {
-    // return;
-    // }
-    // clearImage(image);
-    // chunkPool.add(image);
+  /**
+   * Find the zoom level bucket for the scale, starting a new one if it hasn't been rendered at
+   * before. Once there are too many buckets the cache is cleared and they are handed out afresh.
+   */
+  private int getScaleBucket(double scale) {
+    int bucket = bucketScales.indexOf(scale);
+    if (bucket < 0) {
+      if (bucketScales.size() >= MAX_SCALE_BUCKETS) {
+        List<DrawnElement> source = drawableSource;
+        List<DrawnElement> drawables = snapshot;
+        clear();
+        drawableSource = source;
+        snapshot = drawables;
+      }
+      bucket = bucketScales.size();
+      bucketScales.add(scale);
+    }
+    return bucket;
   }
 
-  private static BufferedImage getNewChunk() {
-    // System.out.println("New chunk");
-    return new BufferedImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.BITMASK);
+  /**
+   * Packs the zoom level bucket into the top 16 bits and the chunk column and row into 24 bits
+   * each, which is far more chunks in each direction than any map will use.
+   */
+  private static long getKey(int bucket, int col, int row) {
+    return ((long) bucket << 48) | ((col & 0xffffffL) << 24) | (row & 0xffffffL);
   }
 
-  private static String getKey(int col, int row) {
-    return col + "." + row;
+  private static int getBucket(long key) {
+    return (int) (key >>> 48);
   }
 
-  private class QueuedRenderer {
-    List<DrawnElement> drawableList;
-    int cellX, cellY;
-    double scale;
-    Rectangle view;
+  private static int getCellX(long key) {
+    // Shift up and back down to sign extend
+    return (int) (key << 16 >> 40);
+  }
 
-    public QueuedRenderer(
-        List<DrawnElement> drawableList, int cellX, int cellY, double scale, Rectangle view) {
-      this.drawableList = drawableList;
-      this.cellX = cellX;
-      this.cellY = cellY;
-      this.scale = scale;
-      this.view = view;
-    }
+  private static int getCellY(long key) {
+    return (int) (key << 40 >> 40);
+  }
 
-    public boolean isValid() {
-      return view.equals(lastViewport) && scale == lastScale;
-    }
+  private static class Chunk {
+    private final BufferedImage image;
+    /** The drawings have changed since this was rendered. */
+    private boolean stale;
 
-    public void render() {
-      // System.out.println("rendering:" + getKey(cellX, cellY));
-      BufferedImage chunk = renderChunk(this);
-      // System.out.println("putting:" + getKey(cellX, cellY) + " - " + (chunk == NO_IMAGE));
-      chunkMap.put(getKey(cellX, cellY), chunk);
+    private Chunk(BufferedImage image) {
+      this.image = image;
     }
   }
 
-  private static class RenderThread extends Thread {
+  /** Renders one chunk on a worker thread. Tasks nearest the middle of the view run first. */
+  private class ChunkTask implements Runnable, Comparable<ChunkTask> {
+    private final long key;
+    private final int cellX;
+    private final int cellY;
+    private final double scale;
+    private final List<DrawnElement> drawableList;
+    private final long priority;
+    private final long sequence = taskSequence.incrementAndGet();
+    private volatile boolean cancelled;
+
+    private ChunkTask(
+        long key,
+        int cellX,
+        int cellY,
+        double scale,
+        List<DrawnElement> drawableList,
+        long priority) {
+      this.key = key;
+      this.cellX = cellX;
+      this.cellY = cellY;
+      this.scale = scale;
+      this.drawableList = drawableList;
+      this.priority = priority;
+    }
 
-    @Override
     public void run() {
-      while (true) {
-        try {
-          QueuedRenderer renderer = renderQueue.take();
-          if (!renderer.isValid()) {
-            // System.out.println("invalid: " + getKey(renderer.cellX, renderer.cellY));
-            continue;
-          }
-
-          renderer.render();
+      if (cancelled) {
+        return;
+      }
+      BufferedImage image;
+      try {
+        image = renderChunk(drawableList, cellX, cellY, scale, this);
+      } catch (RuntimeException e) {
+        // Most likely a drawing changed while it was being drawn
+        log.debug("Could not render drawing chunk " + cellX + "." + cellY, e);
+        SwingUtilities.invokeLater(() -> chunkFailed(this));
+        return;
+      }
+      if (cancelled) {
+        recycle(image);
+        return;
+      }
+      SwingUtilities.invokeLater(() -> chunkRendered(this, image));
+    }
 
-          MapTool.getFrame().refresh();
-        } catch (InterruptedException ie) {
-          ie.printStackTrace();
-          // Continue working
-        }
+    public int compareTo(ChunkTask other) {
+      if (priority != other.priority) {
+        return priority < other.priority ? -1 : 1;
       }
+      return Long.compare(sequence, other.sequence);
     }
   }
 }
@@ -16,6 +16,7 @@
 
 import java.awt.Graphics;
 import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.util.List;
 import net.rptools.maptool.model.drawing.DrawnElement;
 
@@ -25,5 +26,34 @@ public interface DrawableRenderer {
   public void renderDrawables(
       Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale);
 
+  /**
+   * Render the drawings completely before returning. Renderers that do their work in the
+   * background must not leave any of it for later here, as the result is saved rather than shown.
+   */
+  public default void renderDrawablesAndWait(
+      Graphics g, List<DrawnElement> drawableList, Rectangle viewport, double scale) {
+    renderDrawables(g, drawableList, viewport, scale);
+  }
+
   public void flush();
+
+  /**
+   * Free everything cached, as the drawings won't be shown for a while, such as when another zone
+   * is shown instead. Renderers that only mark their cache out of date on {@link #flush()} must
+   * override this.
+   */
+  public default void release() {
+    flush();
+  }
+
+  /**
+   * Discard anything cached for the given area of the map, as a drawing there has been added,
+   * changed or removed. Renderers that can't tell which parts of their cache are affected flush
+   * everything.
+   *
+   * @param bounds the changed area, in zone coordinates
+   */
+  public default void flush(Rectangle2D bounds) {
+    flush();
+  }
 }
@@ -26,7 +26,9 @@
 import java.awt.event.MouseMotionAdapter;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
 import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -34,7 +36,6 @@
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import javax.swing.JFrame;
@@ -74,14 +75,35 @@ public static Area calculateVisibility(int x, int y, Area vision, AreaTree topol
       return null;
     }
     int skippedAreas = 0;
+    int culledSegments = 0;
 
     // Jamz: Updated comparison for VisibleAreaSegment, hopefully this fixes the exceptions
     // If exception still happens, this JVM option can be used as a temp fix:
     // -Djava.util.Arrays.useLegacyMergeSort=true
     // http://dertompson.com/2012/11/23/sort-algorithm-changes-in-java-7/
     // http://bugs.java.com/bugdatabase/view_bug.do?bug_id=7075600
-    List<VisibleAreaSegment> segmentList =
-        new ArrayList<VisibleAreaSegment>(ocean.getVisibleAreaSegments(origin));
+    //
+    // A segment whose shadow misses the vision bounds can't change the result, so drop those
+    // before sorting; the sort needs each segment's stroked outline, which is costly to build.
+    Rectangle2D visionBounds = vision.getBounds2D();
+    // Topology outside a rectangle holding both the vision and the origin can't shadow the vision
+    Rectangle2D cullBounds = new Rectangle2D.Double();
+    cullBounds.setRect(visionBounds);
+    cullBounds.add(origin);
+    cullBounds.setRect(
+        cullBounds.getX() - 1,
+        cullBounds.getY() - 1,
+        cullBounds.getWidth() + 2,
+        cullBounds.getHeight() + 2);
+    List<VisibleAreaSegment> segmentList = new ArrayList<VisibleAreaSegment>();
+    for (VisibleAreaSegment segment : ocean.getVisibleAreaSegments(origin, cullBounds)) {
+      GeneralPath shadow = segment.getShadowPath();
+      if (shadow != null && shadow.intersects(visionBounds)) {
+        segmentList.add(segment);
+      } else {
+        culledSegments++;
+      }
+    }
     Collections.sort(segmentList);
 
     List<Area> clearedAreaList = new LinkedList<Area>();
@@ -124,6 +146,16 @@ public static Area calculateVisibility(int x, int y, Area vision, AreaTree topol
       vision.subtract(clearedAreaList.get(0));
     }
 
+    if (log.isTraceEnabled()) {
+      log.trace(
+          "calculateVisibility: "
+              + segmentList.size()
+              + " segments, "
+              + culledSegments
+              + " culled, "
+              + skippedAreas
+              + " skipped");
+    }
     // For simplicity, this catches some of the edge cases
     return vision;
   }
@@ -327,14 +359,8 @@ public static void exposeLastPath(final ZoneRenderer renderer, final Set<GUID> t
 
       if (lastPath == null) return;
 
-      Map<GUID, ExposedAreaMetaData> fullMeta = zone.getExposedAreaMetaData();
       GUID exposedGUID = token.getExposedAreaGUID();
-      ExposedAreaMetaData meta = fullMeta.get(exposedGUID);
-
-      if (meta == null) {
-        meta = new ExposedAreaMetaData();
-        fullMeta.put(exposedGUID, meta);
-      }
+      ExposedAreaMetaData meta = zone.getExposedAreaMetaData(exposedGUID);
 
       /*
        * Lee: this assumes that all tokens that pass through the checks above stored CellPoints. Well, they don't, not in the context of a snapped to grid follower following an unsnapped key
@@ -381,7 +407,6 @@ public static void exposeLastPath(final ZoneRenderer renderer, final Set<GUID> t
       filteredToks.add(token.getId());
       zone.putToken(token);
       MapTool.serverCommand().exposeFoW(zone.getId(), visionArea, filteredToks);
-      MapTool.serverCommand().updateExposedAreaMeta(zone.getId(), exposedGUID, metaCopy);
     }
 
     String results = timer.toString();
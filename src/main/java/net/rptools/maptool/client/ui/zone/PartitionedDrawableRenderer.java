@@ -25,11 +25,12 @@
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.Set;
+import java.util.Map;
 import net.rptools.lib.CodeTimer;
 import net.rptools.lib.image.ImageUtil;
 import net.rptools.maptool.model.drawing.Drawable;
@@ -47,12 +48,37 @@ public class PartitionedDrawableRenderer implements DrawableRenderer {
   private static final int CHUNK_SIZE = 256;
   private static List<BufferedImage> unusedChunkList = new LinkedList<BufferedImage>();
 
-  private final Set<String> noImageSet = new HashSet<String>();
-  private final List<Tuple> chunkList = new LinkedList<Tuple>();
+  /** Memory a renderer may spend on chunks, unless covering the viewport twice takes more. */
+  private static final long CHUNK_CACHE_BYTES = 48L * 1024 * 1024;
+
+  private static final int CHUNK_BYTES = CHUNK_SIZE * CHUNK_SIZE * 4;
+
+  /** How many zoom levels to keep chunks for before starting over. */
+  private static final int MAX_SCALE_BUCKETS = 16;
+
+  /** Cached in place of chunks that have nothing drawn on them. */
+  private static final BufferedImage NO_IMAGE =
+      new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+  /**
+   * Rendered chunks keyed by {@link #getKey(int, int, int)}, least recently used first. Chunks
+   * rendered at other zoom levels are kept too, so zooming back doesn't start from scratch.
+   */
+  private final LinkedHashMap<Long, BufferedImage> chunkCache =
+      new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true);
+
+  /** The scale each zoom level bucket was rendered at, indexed by bucket. */
+  private final List<Double> bucketScales = new ArrayList<Double>();
+
+  /** Entries in the cache other than {@link #NO_IMAGE}. */
+  private int imageCount;
+
   private int maxChunks;
 
+  /** Whether drawings have been reported changed since the last render. */
+  private boolean invalidatedSinceRender;
+
   private double lastDrawableCount;
-  private double lastScale;
   private Rectangle lastViewport;
 
   private int horizontalChunkCount;
@@ -61,16 +87,59 @@ public class PartitionedDrawableRenderer implements DrawableRenderer {
   private CodeTimer timer;
 
   public void flush() {
-    int unusedSize = unusedChunkList.size();
-    for (Tuple tuple : chunkList) {
-      // Reuse the images
-      if (unusedSize < maxChunks && tuple != null) {
-        unusedChunkList.add(tuple.image);
-        unusedSize++;
+    for (BufferedImage image : chunkCache.values()) {
+      recycle(image);
+    }
+    chunkCache.clear();
+    bucketScales.clear();
+    imageCount = 0;
+  }
+
+  /** Drops only the chunks, at every zoom level, that overlap the bounds. */
+  @Override
+  public void flush(Rectangle2D bounds) {
+    invalidatedSinceRender = true;
+    Iterator<Map.Entry<Long, BufferedImage>> iter = chunkCache.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<Long, BufferedImage> entry = iter.next();
+      long key = entry.getKey();
+      double scale = bucketScales.get(getBucket(key));
+      double size = CHUNK_SIZE / scale;
+      // Antialiasing can spill a pixel or so past the drawn bounds
+      double margin = 2 / scale;
+      if (bounds.intersects(
+          getCellX(key) * size - margin,
+          getCellY(key) * size - margin,
+          size + 2 * margin,
+          size + 2 * margin)) {
+        iter.remove();
+        discard(entry.getValue());
       }
     }
-    chunkList.clear();
-    noImageSet.clear();
+  }
+
+  private void discard(BufferedImage image) {
+    if (image != NO_IMAGE) {
+      imageCount--;
+      recycle(image);
+    }
+  }
+
+  private void recycle(BufferedImage image) {
+    // Reuse the images
+    if (image != NO_IMAGE && unusedChunkList.size() < maxChunks) {
+      unusedChunkList.add(image);
+    }
+  }
+
+  /** Evicts least recently used chunks until the cache is back within its limits. */
+  private void trimCache() {
+    Iterator<BufferedImage> iter = chunkCache.values().iterator();
+    while ((imageCount > maxChunks || chunkCache.size() > maxChunks * 4) && iter.hasNext()) {
+      BufferedImage image = iter.next();
+      iter.remove();
+      discard(image);
+    }
   }
 
   public void renderDrawables(
@@ -84,18 +153,24 @@ public void renderDrawables(
       flush();
       return;
     }
-    // View changed ?
-    if (drawableList.size() != lastDrawableCount || lastScale != scale) {
+    // Changes reported through flush(Rectangle2D) have already been dealt with, but the list
+    // changing without any report means we can't tell which chunks are stale
+    if (drawableList.size() != lastDrawableCount && !invalidatedSinceRender) {
       flush();
     }
+    invalidatedSinceRender = false;
     if (lastViewport == null
         || viewport.width != lastViewport.width
         || viewport.height != lastViewport.height) {
       horizontalChunkCount = (int) Math.ceil(viewport.width / (double) CHUNK_SIZE) + 1;
       verticalChunkCount = (int) Math.ceil(viewport.height / (double) CHUNK_SIZE) + 1;
 
-      maxChunks = (horizontalChunkCount * verticalChunkCount * 2);
+      maxChunks =
+          (int)
+              Math.max(
+                  horizontalChunkCount * verticalChunkCount * 2, CHUNK_CACHE_BYTES / CHUNK_BYTES);
     }
+    int bucket = getScaleBucket(scale);
     // Compute grid
     int gridx = (int) Math.floor(-viewport.x / (double) CHUNK_SIZE);
     int gridy = (int) Math.floor(-viewport.y / (double) CHUNK_SIZE);
@@ -113,29 +188,21 @@ public void renderDrawables(
         int cellX = gridx + col;
         int cellY = gridy + row;
 
-        String key = getKey(cellX, cellY);
-        if (noImageSet.contains(key)) {
-          continue;
-        }
-        Tuple chunk = findChunk(chunkList, key);
+        long key = getKey(bucket, cellX, cellY);
+        // Looking the chunk up marks it most recently used
+        BufferedImage chunk = chunkCache.get(key);
         if (chunk == null) {
-          chunk = new Tuple(key, createChunk(drawableList, cellX, cellY, scale));
-
-          if (chunk.image == null) {
-            noImageSet.add(key);
-            continue;
+          chunk = createChunk(drawableList, cellX, cellY, scale);
+          if (chunk == null) {
+            chunk = NO_IMAGE;
+          } else {
+            imageCount++;
           }
+          chunkCache.put(key, chunk);
+          trimCache();
         }
-        // Most recently used is at the front
-        chunkList.add(0, chunk);
-
-        // Trim to the right size
-        if (chunkList.size() > maxChunks) {
-          int chunkSize = chunkList.size();
-          // chunkList.subList(maxChunks, chunkSize).clear();
-          while (chunkSize > maxChunks) {
-            chunkList.remove(--chunkSize);
-          }
+        if (chunk == NO_IMAGE) {
+          continue;
         }
         int x =
             col * CHUNK_SIZE
@@ -147,7 +214,7 @@ public void renderDrawables(
                 - (gridy < -1 ? CHUNK_SIZE : 0);
 
         timer.start("render:DrawImage");
-        g.drawImage(chunk.image, x, y, null);
+        g.drawImage(chunk, x, y, null);
         timer.stop("render:DrawImage");
 
         // DEBUG: Partition boundaries
@@ -173,14 +240,13 @@ public void renderDrawables(
             }
           }
           g.drawRect(x, y, CHUNK_SIZE - 1, CHUNK_SIZE - 1);
-          g.drawString(key, x + CHUNK_SIZE / 2, y + CHUNK_SIZE / 2);
+          g.drawString(cellX + "." + cellY, x + CHUNK_SIZE / 2, y + CHUNK_SIZE / 2);
         }
       }
     }
     // REMEMBER
     lastViewport = viewport;
     lastDrawableCount = drawableList.size();
-    lastScale = scale;
 
     if (timer.isEnabled()) {
       // System.out.println(timer);
@@ -188,22 +254,19 @@ public void renderDrawables(
   }
 
   /**
-   * Given a List and a String key, find the element in the list that matches the key.
-   *
-   * @param list
-   * @param key
-   * @return
+   * Find the zoom level bucket for the scale, starting a new one if it hasn't been rendered at
+   * before. Once there are too many buckets the cache is flushed and they are handed out afresh.
    */
-  private Tuple findChunk(List<Tuple> list, String key) {
-    ListIterator<Tuple> iter = list.listIterator();
-    while (iter.hasNext()) {
-      Tuple tuple = iter.next();
-      if (tuple.equals(key)) {
-        iter.remove();
-        return tuple;
+  private int getScaleBucket(double scale) {
+    int bucket = bucketScales.indexOf(scale);
+    if (bucket < 0) {
+      if (bucketScales.size() >= MAX_SCALE_BUCKETS) {
+        flush();
       }
+      bucket = bucketScales.size();
+      bucketScales.add(scale);
     }
-    return null;
+    return bucket;
   }
 
   private BufferedImage createChunk(
@@ -302,22 +365,24 @@ private BufferedImage getNewChunk() {
     return image;
   }
 
-  private String getKey(int col, int row) {
-    return col + "." + row;
+  /**
+   * Packs the zoom level bucket into the top 16 bits and the chunk column and row into 24 bits
+   * each, which is far more chunks in each direction than any map will use.
+   */
+  private static long getKey(int bucket, int col, int row) {
+    return ((long) bucket << 48) | ((col & 0xffffffL) << 24) | (row & 0xffffffL);
   }
 
-  private static class Tuple {
-    String key;
-    BufferedImage image;
+  private static int getBucket(long key) {
+    return (int) (key >>> 48);
+  }
 
-    public Tuple(String key, BufferedImage image) {
-      this.key = key;
-      this.image = image;
-    }
+  private static int getCellX(long key) {
+    // Shift up and back down to sign extend
+    return (int) (key << 16 >> 40);
+  }
 
-    @Override
-    public boolean equals(Object obj) {
-      return key.equals(obj.toString());
-    }
+  private static int getCellY(long key) {
+    return (int) (key << 40 >> 40);
   }
 }
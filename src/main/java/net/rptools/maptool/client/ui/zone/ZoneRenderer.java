@@ -68,6 +68,7 @@
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TooManyListenersException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import javax.imageio.ImageIO;
@@ -106,6 +107,7 @@
 import net.rptools.maptool.client.walker.astar.AStarCellPoint;
 import net.rptools.maptool.model.AbstractPoint;
 import net.rptools.maptool.model.Asset;
+import net.rptools.maptool.model.AssetLoader;
 import net.rptools.maptool.model.AssetManager;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.ExposedAreaMetaData;
@@ -153,11 +155,15 @@ public class ZoneRenderer extends JComponent
   protected Zone zone;
   private final ZoneView zoneView;
   private Scale zoneScale;
-  private final DrawableRenderer backgroundDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer objectDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer tokenDrawableRenderer = new PartitionedDrawableRenderer();
-  private final DrawableRenderer gmDrawableRenderer = new PartitionedDrawableRenderer();
+  private final DrawableRenderer backgroundDrawableRenderer =
+      new ASyncPartitionedDrawableRenderer(this);
+  private final DrawableRenderer objectDrawableRenderer =
+      new ASyncPartitionedDrawableRenderer(this);
+  private final DrawableRenderer tokenDrawableRenderer = new ASyncPartitionedDrawableRenderer(this);
+  private final DrawableRenderer gmDrawableRenderer = new ASyncPartitionedDrawableRenderer(this);
   private final List<ZoneOverlay> overlayList = new ArrayList<ZoneOverlay>();
+  /** True while paintComponent is rendering, as opposed to a screenshot or export. */
+  private boolean paintingOnScreen;
   private final Map<Zone.Layer, List<TokenLocation>> tokenLocationMap =
       new HashMap<Zone.Layer, List<TokenLocation>>();
   private Set<GUID> selectedTokenSet = new LinkedHashSet<GUID>();
@@ -171,6 +177,9 @@ public class ZoneRenderer extends JComponent
   // TokenLocation>());
   private final Map<Token, TokenLocation> tokenLocationCache = new HashMap<Token, TokenLocation>();
   private final List<TokenLocation> markerLocationList = new ArrayList<TokenLocation>();
+  // Bumped every time the token location lists are rebuilt, see TokenLocation.frame
+  private int locationFrame;
+  private int locationCount;
   private GeneralPath facingArrow;
   private final List<Token> showPathList = new ArrayList<Token>();
   private boolean showAllPaths = true; // Jamz: new option to show path
@@ -201,6 +210,9 @@ public class ZoneRenderer extends JComponent
   private final List<ItemRenderer> itemRenderList = new LinkedList<ItemRenderer>();
   private PlayerView lastView;
   private Set<GUID> visibleTokenSet = new HashSet<>();
+
+  /** The assets drawn by the render in progress; see {@link AssetLoader#setUrgentAssets(Set)}. */
+  private Set<MD5Key> visibleAssetSet = Collections.emptySet();
   private CodeTimer timer;
 
   private boolean autoResizeStamp = false;
@@ -349,6 +361,40 @@ public void flushDrawableRenderer() {
     gmDrawableRenderer.flush();
   }
 
+  /** Frees the drawable renderers' caches, for when another zone is shown instead of this one. */
+  public void releaseDrawableRenderer() {
+    backgroundDrawableRenderer.release();
+    objectDrawableRenderer.release();
+    tokenDrawableRenderer.release();
+    gmDrawableRenderer.release();
+  }
+
+  /**
+   * Tell the drawable renderers that a drawing has been added, changed or removed, so they only
+   * redraw the part of the map it covers. Every layer is told, as the drawing may have just moved
+   * from another one.
+   *
+   * @param element the drawing that changed
+   */
+  public void flushDrawableRenderer(DrawnElement element) {
+    Rectangle bounds = element.getDrawable().getBounds();
+    if (bounds == null) {
+      return;
+    }
+    // Generous enough for the pen, whichever side of the line it falls on
+    double penSize = element.getPen().getThickness() / 2 + 1;
+    Rectangle2D drawnBounds =
+        new Rectangle2D.Double(
+            bounds.getX() - penSize,
+            bounds.getY() - penSize,
+            bounds.getWidth() + 2 * penSize,
+            bounds.getHeight() + 2 * penSize);
+    backgroundDrawableRenderer.flush(drawnBounds);
+    objectDrawableRenderer.flush(drawnBounds);
+    tokenDrawableRenderer.flush(drawnBounds);
+    gmDrawableRenderer.flush(drawnBounds);
+  }
+
   public ScreenPoint getPointUnderMouse() {
     return pointUnderMouse;
   }
@@ -795,7 +841,12 @@ public void paintComponent(Graphics g) {
     PlayerView pl = getPlayerView();
     timer.stop("paintComponent:createView");
 
-    renderZone(g2d, pl);
+    paintingOnScreen = true;
+    try {
+      renderZone(g2d, pl);
+    } finally {
+      paintingOnScreen = false;
+    }
     int noteVPos = 20;
     if (!zone.isVisible() && pl.isGMView()) {
       GraphicsUtil.drawBoxedString(
@@ -1049,8 +1100,22 @@ public void renderZone(Graphics2D g2d, PlayerView view) {
     // Clear internal state
     tokenLocationMap.clear();
     markerLocationList.clear();
+    locationFrame++;
+    locationCount = 0;
     itemRenderList.clear();
 
+    // Filled in as things are drawn, so that what's missing from this render is asked for first
+    visibleAssetSet = ConcurrentHashMap.newKeySet();
+    if (zone.getMapAssetId() != null) {
+      visibleAssetSet.add(zone.getMapAssetId());
+    }
+    if (zone.getBackgroundPaint() instanceof DrawableTexturePaint) {
+      visibleAssetSet.add(((DrawableTexturePaint) zone.getBackgroundPaint()).getAssetId());
+    }
+    if (MapTool.getFrame().getCurrentZoneRenderer() == this) {
+      AssetLoader.setUrgentAssets(visibleAssetSet);
+    }
+
     timer.stop("setup");
 
     // Calculations
@@ -1937,7 +2002,12 @@ protected void renderDrawableOverlay(
     // List<DrawnElement> list = new ArrayList<DrawnElement>();
     // list.addAll(drawnElements);
 
-    renderer.renderDrawables(g, drawnElements, viewport, getScale());
+    if (paintingOnScreen) {
+      renderer.renderDrawables(g, drawnElements, viewport, getScale());
+    } else {
+      // Screenshots and exports can't wait for drawings to be rendered in the background
+      renderer.renderDrawablesAndWait(g, drawnElements, viewport, getScale());
+    }
   }
 
   protected void renderBoard(Graphics2D g, PlayerView view) {
@@ -2699,10 +2769,15 @@ public List<Token> getTokensOnScreen() {
     List<Token> list = new ArrayList<Token>();
 
     // Always assume tokens, for now
-    List<TokenLocation> tokenLocationListCopy = new ArrayList<TokenLocation>();
-    tokenLocationListCopy.addAll(getTokenLocations(Zone.Layer.TOKEN));
-    for (TokenLocation location : tokenLocationListCopy) {
-      list.add(location.token);
+    ZonePoint topLeft = new ScreenPoint(0, 0).convertToZone(this);
+    ZonePoint bottomRight = new ScreenPoint(getSize().width, getSize().height).convertToZone(this);
+    Rectangle viewport =
+        new Rectangle(
+            topLeft.x, topLeft.y, bottomRight.x - topLeft.x + 1, bottomRight.y - topLeft.y + 1);
+    for (Token token : zone.getTokensIntersecting(Zone.Layer.TOKEN, viewport)) {
+      if (isLocatedThisFrame(token)) {
+        list.add(token);
+      }
     }
 
     // Sort by location on screen, top left to bottom right
@@ -2889,6 +2964,8 @@ protected void renderTokens(
       timer.stop("tokenlist-1a");
 
       timer.start("tokenlist-1b");
+      // Before the image is asked for, so that a missing one is loaded as urgent
+      visibleAssetSet.add(token.getImageAssetId());
       // get token image, using image table if present
       BufferedImage image = getTokenImage(token);
       timer.stop("tokenlist-1b");
@@ -3001,6 +3078,8 @@ protected void renderTokens(
       List<TokenLocation> locationList = getTokenLocations(layer);
       if (locationList != null) {
         locationList.add(location);
+        location.frame = locationFrame;
+        location.order = locationCount++;
       }
       timer.stop("renderTokens:Locations");
 
@@ -3837,15 +3916,30 @@ public Rectangle getLabelBounds(Label label) {
    * @return
    */
   public Token getTokenAt(int x, int y) {
-    List<TokenLocation> locationList = new ArrayList<TokenLocation>();
-    locationList.addAll(getTokenLocations(getActiveLayer()));
-    Collections.reverse(locationList);
-    for (TokenLocation location : locationList) {
-      if (location.bounds.contains(x, y)) {
-        return location.token;
+    // Ask the zone's spatial index for the tokens near the point, then hit test their rendered
+    // bounds. The last one rendered is on top.
+    ZonePoint zp = new ScreenPoint(x, y).convertToZone(this);
+    int margin = (int) Math.ceil(1 / getScale()) + 1;
+    Rectangle area = new Rectangle(zp.x - margin, zp.y - margin, margin * 2 + 1, margin * 2 + 1);
+
+    TokenLocation top = null;
+    for (Token token : zone.getTokensIntersecting(getActiveLayer(), area)) {
+      TokenLocation location = tokenLocationCache.get(token);
+      if (location != null
+          && location.frame == locationFrame
+          && location.token.getLayer() == getActiveLayer()
+          && (top == null || location.order > top.order)
+          && location.bounds.contains(x, y)) {
+        top = location;
       }
     }
-    return null;
+    return top != null ? top.token : null;
+  }
+
+  /** @return whether the token was placed on one of the token location lists in the last render */
+  private boolean isLocatedThisFrame(Token token) {
+    TokenLocation location = tokenLocationCache.get(token);
+    return location != null && location.frame == locationFrame;
   }
 
   public Token getMarkerAt(int x, int y) {
@@ -4211,6 +4305,9 @@ private class TokenLocation {
     public double y;
     public int offsetX;
     public int offsetY;
+    // Render pass and position in that pass when this location was added to a location list
+    public int frame = -1;
+    public int order;
 
     /**
      * Construct a TokenLocation object that caches where images are stored and what their size is
@@ -4533,7 +4630,9 @@ public void modelChanged(ModelChangeEvent event) {
 
       if (evt == Zone.Event.TOPOLOGY_CHANGED) {
         flushFog();
-        flushLight();
+        // ZoneView listens for this too and only drops the vision and lights near the change
+        renderedLightMap = null;
+        renderedAuraMap = null;
       }
       if (evt == Zone.Event.TOKEN_CHANGED
           || evt == Zone.Event.TOKEN_REMOVED
@@ -4551,6 +4650,16 @@ public void modelChanged(ModelChangeEvent event) {
       if (evt == Zone.Event.FOG_CHANGED) {
         flushFog = true;
       }
+      if (evt == Zone.Event.DRAWABLE_ADDED || evt == Zone.Event.DRAWABLE_REMOVED) {
+        if (event.getArg() instanceof List<?>) {
+          // A changed pen comes as the drawing before and after, as either may cover more
+          for (Object element : (List<?>) event.getArg()) {
+            flushDrawableRenderer((DrawnElement) element);
+          }
+        } else if (event.getArg() instanceof DrawnElement) {
+          flushDrawableRenderer((DrawnElement) event.getArg());
+        }
+      }
       MapTool.getFrame().updateTokenTree();
       repaint();
     }
@@ -15,6 +15,7 @@
 package net.rptools.maptool.client.ui.zone;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Path2D;
@@ -32,16 +33,21 @@
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.SwingWorker;
 import net.rptools.maptool.client.AppState;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.ui.zone.vbl.AreaTree;
+import net.rptools.maptool.client.ui.zone.vbl.MovementBlockingIndex;
 import net.rptools.maptool.model.AttachedLightSource;
 import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.Direction;
@@ -78,9 +84,22 @@ public class ZoneView implements ModelChangeListener {
   private final SortedMap<Double, Area> allLightAreaMap =
       new ConcurrentSkipListMap<Double, Area>(); // Hold all of our lights combined by lumens
 
+  // Region each cached vision or light was calculated over, including the point it is seen from.
+  // Topology outside that region can't cast a shadow into it, so a topology change only needs to
+  // drop the entries whose region it touches. Light tasks run on other threads, hence the
+  // concurrent map.
+  private final Map<GUID, Rectangle> tokenVisionBounds = new HashMap<GUID, Rectangle>();
+  private final Map<GUID, Rectangle> lightSourceBounds = new ConcurrentHashMap<GUID, Rectangle>();
+  // Token VBL that went into tokenTopolgy, to find what changed when it has to be rebuilt
+  private final Map<GUID, Area> tokenVblMap = new HashMap<GUID, Area>();
+  private final VisionCacheStats visionCacheStats = new VisionCacheStats();
+
   // private AreaData topologyAreaData;
   private AreaTree topologyTree;
+  // Last tree thrown away, so the next one can reuse the parts of the topology that didn't change
+  private AreaTree previousTopologyTree;
   private Area tokenTopolgy;
+  private MovementBlockingIndex movementBlockingIndex;
 
   public ZoneView(Zone zone) {
     this.zone = zone;
@@ -117,18 +136,35 @@ public synchronized AreaTree getTopologyTree(boolean useTokenVBL) {
       List<Token> vblTokens =
           MapTool.getFrame().getCurrentZoneRenderer().getZone().getTokensWithVBL();
 
+      tokenVblMap.clear();
       for (Token vblToken : vblTokens) {
-        tokenTopolgy.add(vblToken.getTransformedVBL());
+        Area vbl = vblToken.getTransformedVBL();
+        tokenTopolgy.add(vbl);
+        tokenVblMap.put(vblToken.getId(), vbl);
       }
 
-      topologyTree = new AreaTree(tokenTopolgy);
+      topologyTree = new AreaTree(tokenTopolgy, previousTopologyTree);
+      previousTopologyTree = null;
     } else if (topologyTree == null) {
-      topologyTree = new AreaTree(zone.getTopology());
+      topologyTree = new AreaTree(zone.getTopology(), previousTopologyTree);
+      previousTopologyTree = null;
     }
 
     return topologyTree;
   }
 
+  /**
+   * Returns the index of the combined VBL (base VBL + TokenVBL) used to check pathfinding moves.
+   * Like the topology tree it is built on first use and discarded when topology or token VBL
+   * changes.
+   */
+  public synchronized MovementBlockingIndex getMovementBlockingIndex() {
+    if (movementBlockingIndex == null) {
+      movementBlockingIndex = new MovementBlockingIndex(getTopologyTree().getArea());
+    }
+    return movementBlockingIndex;
+  }
+
   // Jamz: This function and such "AreaData" never seems to get used...either old or future code?
   // public AreaData getTopologyAreaData() {
   // if (topologyAreaData == null) {
@@ -144,6 +180,7 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
     if (areaBySightMap != null) {
       TreeMap<Double, Area> lightSourceArea = areaBySightMap.get(baseToken.getSightType());
       if (lightSourceArea != null) {
+        visionCacheStats.lightHits.incrementAndGet();
         return lightSourceArea;
       }
     } else {
@@ -152,6 +189,8 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
     }
 
     // Calculate
+    visionCacheStats.lightMisses.incrementAndGet();
+    long start = System.nanoTime();
     TreeMap<Double, Area> lightSourceAreaMap = new TreeMap<Double, Area>();
 
     for (AttachedLightSource attachedLightSource : lightSourceToken.getLightSources()) {
@@ -179,6 +218,7 @@ private TreeMap<Double, Area> getLightSourceArea(Token baseToken, Token lightSou
 
     // Cache
     areaBySightMap.put(baseToken.getSightType(), lightSourceAreaMap);
+    visionCacheStats.lightNanos.addAndGet(System.nanoTime() - start);
     return lightSourceAreaMap;
   }
 
@@ -210,6 +250,8 @@ private Area calculateLightSourceArea(
       lightSourceArea.transform(
           AffineTransform.getScaleInstance(sight.getMultiplier(), sight.getMultiplier()));
     }
+    lightSourceBounds.merge(
+        lightSourceToken.getId(), getDependencyBounds(p, lightSourceArea), Rectangle::union);
     Area visibleArea = FogUtil.calculateVisibility(p.x, p.y, lightSourceArea, getTopologyTree());
 
     if (visibleArea == null) {
@@ -278,7 +320,12 @@ public Area getVisibleArea(Token token) {
     Area tokenVisibleArea = tokenVisionCache.get(token.getId());
     // System.out.println("tokenVisionCache size? " + tokenVisionCache.size());
 
-    if (tokenVisibleArea != null) return tokenVisibleArea;
+    if (tokenVisibleArea != null) {
+      visionCacheStats.visionHits.incrementAndGet();
+      return tokenVisibleArea;
+    }
+    visionCacheStats.visionMisses.incrementAndGet();
+    long start = System.nanoTime();
 
     SightType sight = MapTool.getCampaign().getSightType(token.getSightType());
     // More sanity checks; maybe sight type removed from campaign after token set?
@@ -292,6 +339,7 @@ public Area getVisibleArea(Token token) {
     if (tokenVisibleArea == null) {
       Point p = FogUtil.calculateVisionCenter(token, zone);
       Area visibleArea = sight.getVisionShape(token, zone);
+      tokenVisionBounds.put(token.getId(), getDependencyBounds(p, visibleArea));
       tokenVisibleArea = FogUtil.calculateVisibility(p.x, p.y, visibleArea, getTopologyTree());
 
       tokenVisibleAreaCache.put(token.getId(), tokenVisibleArea);
@@ -379,12 +427,73 @@ public Area getVisibleArea(Token token) {
 
     allLightAreaMap.clear(); // Dispose of object, only needed for the scope of this method
     tokenVisionCache.put(token.getId(), tokenVisibleArea);
+    visionCacheStats.visionNanos.addAndGet(System.nanoTime() - start);
 
     // log.info("getVisibleArea: \t\t" + stopwatch);
 
     return tokenVisibleArea;
   }
 
+  /**
+   * Fills in the topology-clipped vision of each of the given tokens that isn't already cached,
+   * spreading the calls to {@link FogUtil#calculateVisibility(int, int, Area, AreaTree)} over the
+   * common fork/join pool. The results are the same ones {@link #getVisibleArea(Token)} would
+   * calculate one at a time.
+   */
+  private void calculateTokenVisibleAreas(List<Token> tokens) {
+    final List<GUID> ids = new ArrayList<GUID>();
+    final List<Callable<Area>> tasks = new ArrayList<Callable<Area>>();
+    final AreaTree topology = getTopologyTree();
+    for (Token token : tokens) {
+      if (!token.getHasSight()
+          || tokenVisionCache.get(token.getId()) != null
+          || tokenVisibleAreaCache.get(token.getId()) != null) {
+        continue;
+      }
+      SightType sight = MapTool.getCampaign().getSightType(token.getSightType());
+      if (sight == null) {
+        continue;
+      }
+      // Vision shapes are built here; only the topology clipping runs on the pool
+      final Point p = FogUtil.calculateVisionCenter(token, zone);
+      final Area visibleArea = sight.getVisionShape(token, zone);
+      tokenVisionBounds.put(token.getId(), getDependencyBounds(p, visibleArea));
+      ids.add(token.getId());
+      tasks.add(
+          new Callable<Area>() {
+            @Override
+            public Area call() {
+              return FogUtil.calculateVisibility(p.x, p.y, visibleArea, topology);
+            }
+          });
+    }
+    if (tasks.size() < 2) {
+      return; // Nothing to gain, getVisibleArea() will do it
+    }
+    List<Future<Area>> results = ForkJoinPool.commonPool().invokeAll(tasks);
+    for (int i = 0; i < results.size(); i++) {
+      try {
+        tokenVisibleAreaCache.put(ids.get(i), results.get(i).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        // Leave it for getVisibleArea() to calculate and report
+        log.warn("Unable to calculate token vision", e.getCause());
+      }
+    }
+  }
+
+  /** Bounds of a vision or light shape centered on <code>p</code>, grown to include p itself. */
+  private static Rectangle getDependencyBounds(Point p, Area shape) {
+    Rectangle bounds = shape.getBounds();
+    bounds.translate(p.x, p.y);
+    bounds.add(p);
+    // Allow for the stroked segment outlines and float rounding in FogUtil
+    bounds.grow(2, 2);
+    return bounds;
+  }
+
   private class CombineLightsSwingWorker extends SwingWorker<Void, List<Token>> {
     private final Token baseToken;
     private final List<Token> lightSourceTokens;
@@ -562,18 +671,105 @@ public Set<Area> getBrightLights() {
   public void flush() {
     tokenVisibleAreaCache.clear();
     tokenVisionCache.clear();
+    tokenVisionBounds.clear();
     lightSourceCache.clear();
+    lightSourceBounds.clear();
     visibleAreaMap.clear();
     drawableLightCache.clear();
     brightLightCache.clear();
   }
 
+  /** @return hit, miss and timing counters for the vision and light caches */
+  public VisionCacheStats getVisionCacheStats() {
+    return visionCacheStats;
+  }
+
+  /**
+   * Drops the cached vision and lights that could be affected by a topology change within the
+   * given bounds, and any vision that was lit by one of those lights.
+   */
+  private void flush(Rectangle changedBounds) {
+    List<Rectangle> flushedLights = new ArrayList<Rectangle>();
+    Set<GUID> lightIds = new HashSet<GUID>(lightSourceCache.keySet());
+    lightIds.addAll(drawableLightCache.keySet());
+    lightIds.addAll(brightLightCache.keySet());
+    for (GUID id : lightIds) {
+      Rectangle bounds = lightSourceBounds.get(id);
+      if (bounds == null || bounds.intersects(changedBounds)) {
+        lightSourceCache.remove(id);
+        lightSourceBounds.remove(id);
+        drawableLightCache.remove(id);
+        brightLightCache.remove(id);
+        flushedLights.add(bounds);
+      }
+    }
+    Set<GUID> ids = new HashSet<GUID>(tokenVisibleAreaCache.keySet());
+    ids.addAll(tokenVisionCache.keySet());
+    int flushed = 0;
+    for (GUID id : ids) {
+      Rectangle bounds = tokenVisionBounds.get(id);
+      if (bounds == null || bounds.intersects(changedBounds)) {
+        tokenVisibleAreaCache.remove(id);
+        tokenVisionCache.remove(id);
+        tokenVisionBounds.remove(id);
+        flushed++;
+      } else if (tokenVisionCache.containsKey(id)) {
+        for (Rectangle lightBounds : flushedLights) {
+          if (lightBounds == null || lightBounds.intersects(bounds)) {
+            tokenVisionCache.remove(id);
+            break;
+          }
+        }
+      }
+    }
+    visibleAreaMap.clear();
+    visionCacheStats.flushed.addAndGet(flushed);
+    visionCacheStats.kept.addAndGet(ids.size() - flushed);
+  }
+
+  /**
+   * Works out where the combined topology changed, from the area given with the event or by
+   * comparing token VBL against what went into the current topology.
+   *
+   * @return the changed bounds, or <code>null</code> if no token VBL changed
+   */
+  private Rectangle getChangedTopologyBounds(ModelChangeEvent event) {
+    if (event.getArg() instanceof Area) {
+      return ((Area) event.getArg()).getBounds();
+    }
+    Rectangle changed = null;
+    Set<GUID> seen = new HashSet<GUID>();
+    for (Token token : zone.getTokensWithVBL()) {
+      seen.add(token.getId());
+      Area vbl = token.getTransformedVBL();
+      Area old = tokenVblMap.get(token.getId());
+      if (old == null || !old.equals(vbl)) {
+        changed = union(changed, vbl.getBounds());
+        if (old != null) {
+          changed = union(changed, old.getBounds());
+        }
+      }
+    }
+    for (Entry<GUID, Area> entry : tokenVblMap.entrySet()) {
+      if (!seen.contains(entry.getKey())) {
+        changed = union(changed, entry.getValue().getBounds());
+      }
+    }
+    return changed;
+  }
+
+  private static Rectangle union(Rectangle r1, Rectangle r2) {
+    return r1 == null ? r2 : r1.union(r2);
+  }
+
   public void flush(Token token) {
     boolean hadLightSource = lightSourceCache.get(token.getId()) != null;
 
     tokenVisionCache.remove(token.getId());
     tokenVisibleAreaCache.remove(token.getId());
+    tokenVisionBounds.remove(token.getId());
     lightSourceCache.remove(token.getId());
+    lightSourceBounds.remove(token.getId());
     drawableLightCache.remove(token.getId());
     brightLightCache.remove(token.getId());
     visibleAreaMap.clear();
@@ -585,9 +781,14 @@ public void flush(Token token) {
     if (token.getHasSight()) {
       visibleAreaMap.clear();
     }
+    if (token.hasVBL() && !hadLightSource && !token.hasLightSources()) {
+      // A door or similar; the topology change that follows flushes just the vision around it
+      return;
+    }
     // TODO: This fixes a bug with changing vision type, I don't like it though, it needs to be
     // optimized back out
     lightSourceCache.clear();
+    lightSourceBounds.clear();
     // TODO: This fixes a similar bug with turning lights off after moving a different npc token, I
     // don't like it either...
     tokenVisionCache.clear();
@@ -618,6 +819,7 @@ public boolean matchToken(Token t) {
                   }
                 });
 
+    List<Token> visionTokens = new ArrayList<Token>(tokenList.size());
     for (Token token : tokenList) {
       boolean weOwnIt = AppUtil.playerOwns(token);
       // Permission
@@ -635,6 +837,11 @@ public boolean matchToken(Token t) {
       if (token.isVisibleOnlyToOwner() && !weOwnIt) {
         continue;
       }
+      visionTokens.add(token);
+    }
+    calculateTokenVisibleAreas(visionTokens);
+
+    for (Token token : visionTokens) {
       Area tokenVision = getVisibleArea(token);
       if (tokenVision != null) {
         meta.visibleArea.add(tokenVision);
@@ -704,12 +911,28 @@ public void modelChanged(ModelChangeEvent event) {
       // since if a token that has VBL is added/removed/edited (rotated/moved/etc)
       // it should also trip a Topology change
       if (evt == Zone.Event.TOPOLOGY_CHANGED || tokenChangedVBL) {
-        tokenVisionCache.clear();
-        lightSourceCache.clear();
-        visibleAreaMap.clear();
+        Rectangle changedBounds = getChangedTopologyBounds(event);
+        if (changedBounds == null && evt != Zone.Event.TOPOLOGY_CHANGED) {
+          // A token with VBL changed in some other way
+          changedBounds = new Rectangle();
+        }
+        if (changedBounds != null) {
+          flush(changedBounds);
+        } else {
+          tokenVisionCache.clear();
+          lightSourceCache.clear();
+          lightSourceBounds.clear();
+          visibleAreaMap.clear();
+          tokenVisibleAreaCache.clear();
+          tokenVisionBounds.clear();
+          visionCacheStats.fullFlushes.incrementAndGet();
+        }
+        if (topologyTree != null) {
+          previousTopologyTree = topologyTree;
+        }
         topologyTree = null;
         tokenTopolgy = null;
-        tokenVisibleAreaCache.clear();
+        movementBlockingIndex = null;
         // topologyAreaData = null; // Jamz: This isn't used, probably never completed code.
       }
     }
@@ -750,4 +973,91 @@ private boolean processTokenAddChangeEvent(List<Token> tokens) {
   private static class VisibleAreaMeta {
     Area visibleArea;
   }
+
+  /** Running counters for the vision and light caches, for profiling. */
+  public static class VisionCacheStats {
+    private final AtomicLong visionHits = new AtomicLong();
+    private final AtomicLong visionMisses = new AtomicLong();
+    private final AtomicLong visionNanos = new AtomicLong();
+    private final AtomicLong lightHits = new AtomicLong();
+    private final AtomicLong lightMisses = new AtomicLong();
+    private final AtomicLong lightNanos = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong kept = new AtomicLong();
+    private final AtomicLong fullFlushes = new AtomicLong();
+
+    public long getVisionHits() {
+      return visionHits.get();
+    }
+
+    public long getVisionMisses() {
+      return visionMisses.get();
+    }
+
+    /** @return total time spent calculating token vision, lights included, in nanoseconds */
+    public long getVisionRecalculationNanos() {
+      return visionNanos.get();
+    }
+
+    public long getLightHits() {
+      return lightHits.get();
+    }
+
+    public long getLightMisses() {
+      return lightMisses.get();
+    }
+
+    /** @return total time spent calculating light source areas, in nanoseconds */
+    public long getLightRecalculationNanos() {
+      return lightNanos.get();
+    }
+
+    /** @return token visions dropped by topology changes near them */
+    public long getFlushedByTopology() {
+      return flushed.get();
+    }
+
+    /** @return token visions that survived a topology change elsewhere on the map */
+    public long getKeptOnTopologyChange() {
+      return kept.get();
+    }
+
+    /** @return topology changes that couldn't be narrowed down and dropped every token vision */
+    public long getFullFlushes() {
+      return fullFlushes.get();
+    }
+
+    public void reset() {
+      for (AtomicLong counter :
+          new AtomicLong[] {
+            visionHits,
+            visionMisses,
+            visionNanos,
+            lightHits,
+            lightMisses,
+            lightNanos,
+            flushed,
+            kept,
+            fullFlushes
+          }) {
+        counter.set(0);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "vision %d hits/%d misses in %dms, lights %d hits/%d misses in %dms,"
+              + " topology changes flushed %d kept %d (%d full flushes)",
+          getVisionHits(),
+          getVisionMisses(),
+          getVisionRecalculationNanos() / 1000000,
+          getLightHits(),
+          getLightMisses(),
+          getLightRecalculationNanos() / 1000000,
+          getFlushedByTopology(),
+          getKeptOnTopologyChange(),
+          getFullFlushes());
+    }
+  }
 }
@@ -0,0 +1,159 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tiles the bounds of a fixed set of islands or oceans so that the ones near a point or a region
+ * can be found without testing every one. Containers covering too many tiles are kept in a list
+ * that every query scans.
+ */
+class AreaContainerIndex<T> {
+  private static final int MAX_TILES_PER_CONTAINER = 16;
+
+  private final Map<T, Rectangle2D> boundsMap;
+  private final double tileSize;
+  private final Map<Long, List<T>> tiles = new HashMap<Long, List<T>>();
+  private final List<T> large = new ArrayList<T>();
+
+  /** @param boundsMap each container and its bounds */
+  AreaContainerIndex(Map<T, Rectangle2D> boundsMap) {
+    this.boundsMap = boundsMap;
+
+    Rectangle2D extent = null;
+    for (Rectangle2D bounds : boundsMap.values()) {
+      if (extent == null) {
+        extent = new Rectangle2D.Double();
+        extent.setRect(bounds);
+      } else {
+        extent.add(bounds);
+      }
+    }
+    // Aim for roughly one container per tile across the whole extent
+    double side = extent == null ? 1 : Math.max(extent.getWidth(), extent.getHeight());
+    tileSize = Math.max(side / Math.max(1, Math.sqrt(boundsMap.size())), 1);
+
+    for (Map.Entry<T, Rectangle2D> entry : boundsMap.entrySet()) {
+      Rectangle2D bounds = entry.getValue();
+      int x1 = tile(bounds.getMinX());
+      int x2 = tile(bounds.getMaxX());
+      int y1 = tile(bounds.getMinY());
+      int y2 = tile(bounds.getMaxY());
+      if ((long) (x2 - x1 + 1) * (y2 - y1 + 1) > MAX_TILES_PER_CONTAINER) {
+        large.add(entry.getKey());
+        continue;
+      }
+      for (int x = x1; x <= x2; x++) {
+        for (int y = y1; y <= y2; y++) {
+          List<T> list = tiles.get(key(x, y));
+          if (list == null) {
+            list = new ArrayList<T>(2);
+            tiles.put(key(x, y), list);
+          }
+          list.add(entry.getKey());
+        }
+      }
+    }
+  }
+
+  private int tile(double coord) {
+    return (int) Math.floor(coord / tileSize);
+  }
+
+  private static long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xffffffffL);
+  }
+
+  Rectangle2D getBounds(T container) {
+    return boundsMap.get(container);
+  }
+
+  /** Adds the containers whose bounds contain the point, edges included. */
+  void getContaining(Point2D point, Collection<T> result) {
+    List<T> list = tiles.get(key(tile(point.getX()), tile(point.getY())));
+    if (list != null) {
+      for (T container : list) {
+        if (contains(boundsMap.get(container), point)) {
+          result.add(container);
+        }
+      }
+    }
+    for (T container : large) {
+      if (contains(boundsMap.get(container), point)) {
+        result.add(container);
+      }
+    }
+  }
+
+  /** Adds the containers whose bounds touch the region, each once. */
+  void getIntersecting(Rectangle2D region, Collection<T> result) {
+    int x1 = tile(region.getMinX());
+    int x2 = tile(region.getMaxX());
+    int y1 = tile(region.getMinY());
+    int y2 = tile(region.getMaxY());
+    if ((long) (x2 - x1 + 1) * (y2 - y1 + 1) > tiles.size()) {
+      // Cheaper to look at everything
+      for (Map.Entry<T, Rectangle2D> entry : boundsMap.entrySet()) {
+        if (overlaps(entry.getValue(), region)) {
+          result.add(entry.getKey());
+        }
+      }
+      return;
+    }
+    for (int x = x1; x <= x2; x++) {
+      for (int y = y1; y <= y2; y++) {
+        List<T> list = tiles.get(key(x, y));
+        if (list == null) {
+          continue;
+        }
+        for (T container : list) {
+          Rectangle2D bounds = boundsMap.get(container);
+          // Only report a container from the first tile it shares with the region
+          if (Math.max(tile(bounds.getMinX()), x1) == x
+              && Math.max(tile(bounds.getMinY()), y1) == y
+              && overlaps(bounds, region)) {
+            result.add(container);
+          }
+        }
+      }
+    }
+    for (T container : large) {
+      if (overlaps(boundsMap.get(container), region)) {
+        result.add(container);
+      }
+    }
+  }
+
+  private static boolean contains(Rectangle2D bounds, Point2D point) {
+    return point.getX() >= bounds.getMinX()
+        && point.getX() <= bounds.getMaxX()
+        && point.getY() >= bounds.getMinY()
+        && point.getY() <= bounds.getMaxY();
+  }
+
+  private static boolean overlaps(Rectangle2D r1, Rectangle2D r2) {
+    return r1.getMinX() <= r2.getMaxX()
+        && r2.getMinX() <= r1.getMaxX()
+        && r1.getMinY() <= r2.getMaxY()
+        && r2.getMinY() <= r1.getMaxY();
+  }
+}
@@ -16,6 +16,7 @@
 
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -33,6 +34,10 @@ public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin) {
     return meta.getVisibleAreas(origin);
   }
 
+  public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin, Rectangle2D cullBounds) {
+    return meta.getVisibleAreas(origin, cullBounds);
+  }
+
   public AreaOcean getDeepestOceanAt(Point2D point) {
 
     if (!meta.area.contains(point)) {
@@ -64,4 +69,8 @@ public void addOcean(AreaOcean ocean) {
   public Area getBounds() {
     return meta.area;
   }
+
+  Rectangle2D getBounds2D() {
+    return meta.getBounds2D();
+  }
 }
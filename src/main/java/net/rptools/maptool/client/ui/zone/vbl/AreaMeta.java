@@ -17,6 +17,7 @@
 import java.awt.geom.Area;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -25,9 +26,15 @@
 import net.rptools.lib.GeometryUtil.PointNode;
 
 public class AreaMeta {
+  /** Faces are grouped into runs of this many for culling against the area of interest. */
+  private static final int FACE_CHUNK_SIZE = 32;
+
   Area area;
   Point2D centerPoint;
   List<AreaFace> faceList = new ArrayList<AreaFace>();
+  Rectangle2D bounds;
+  // Bounds of each run of FACE_CHUNK_SIZE faces; consecutive faces of an outline lie close together
+  private Rectangle2D[] faceChunkBounds;
 
   // Only used during construction
   boolean isHole;
@@ -48,10 +55,43 @@ public Point2D getCenterPoint() {
   }
 
   public Set<VisibleAreaSegment> getVisibleAreas(Point2D origin) {
+    return getVisibleAreas(origin, null);
+  }
+
+  /**
+   * Returns the runs of faces that face the origin, ignoring faces that don't cross the given
+   * bounds. When the bounds contain the origin a face outside them can't shadow anything inside
+   * them, and dropping it only splits a run in two without changing the area the runs hide.
+   *
+   * @param origin the point being seen from
+   * @param cullBounds the area of interest, containing origin, or <code>null</code> for all faces
+   */
+  public Set<VisibleAreaSegment> getVisibleAreas(Point2D origin, Rectangle2D cullBounds) {
     Set<VisibleAreaSegment> segSet = new HashSet<VisibleAreaSegment>();
 
     VisibleAreaSegment segment = null;
-    for (AreaFace face : faceList) {
+    for (int i = 0; i < faceList.size(); i++) {
+      AreaFace face = faceList.get(i);
+      if (cullBounds != null) {
+        if (i % FACE_CHUNK_SIZE == 0
+            && !overlaps(faceChunkBounds[i / FACE_CHUNK_SIZE], cullBounds)) {
+          if (segment != null) {
+            segSet.add(segment);
+            segment = null;
+          }
+          i += FACE_CHUNK_SIZE - 1;
+          continue;
+        }
+        Point2D p1 = face.getP1();
+        Point2D p2 = face.getP2();
+        if (!cullBounds.intersectsLine(p1.getX(), p1.getY(), p2.getX(), p2.getY())) {
+          if (segment != null) {
+            segSet.add(segment);
+            segment = null;
+          }
+          continue;
+        }
+      }
       double originAngle = GeometryUtil.getAngle(origin, face.getMidPoint());
       double delta = GeometryUtil.getAngleDelta(originAngle, face.getFacing());
 
@@ -81,6 +121,11 @@ public Area getArea() {
     return new Area(area);
   }
 
+  /** @return the bounds of the outline; not to be modified */
+  Rectangle2D getBounds2D() {
+    return bounds;
+  }
+
   public boolean isHole() {
     return isHole;
   }
@@ -139,6 +184,8 @@ public void close() {
     }
     computeIsHole();
     computeFaces();
+    bounds = area.getBounds2D();
+    computeFaceChunkBounds();
 
     // Don't need point list anymore
     pointNodeList = null;
@@ -164,6 +211,28 @@ private void computeIsHole() {
     isHole = angle < 0;
   }
 
+  /** Like {@link Rectangle2D#intersects(Rectangle2D)}, but also true for a flat run of wall. */
+  private static boolean overlaps(Rectangle2D r1, Rectangle2D r2) {
+    return r1.getMinX() <= r2.getMaxX()
+        && r2.getMinX() <= r1.getMaxX()
+        && r1.getMinY() <= r2.getMaxY()
+        && r2.getMinY() <= r1.getMaxY();
+  }
+
+  private void computeFaceChunkBounds() {
+    faceChunkBounds = new Rectangle2D[(faceList.size() + FACE_CHUNK_SIZE - 1) / FACE_CHUNK_SIZE];
+    for (int i = 0; i < faceList.size(); i++) {
+      AreaFace face = faceList.get(i);
+      Rectangle2D chunk = faceChunkBounds[i / FACE_CHUNK_SIZE];
+      if (chunk == null) {
+        chunk = new Rectangle2D.Double(face.getP1().getX(), face.getP1().getY(), 0, 0);
+        faceChunkBounds[i / FACE_CHUNK_SIZE] = chunk;
+      }
+      chunk.add(face.getP1());
+      chunk.add(face.getP2());
+    }
+  }
+
   private void computeFaces() {
     PointNode node = pointNodeList;
     do {
@@ -16,43 +16,94 @@
 
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class AreaOcean implements AreaContainer {
 
   private AreaMeta meta;
   private Set<AreaIsland> islandSet = new HashSet<AreaIsland>();
+  private AreaContainerIndex<AreaIsland> islandIndex;
 
   public AreaOcean(AreaMeta meta) {
     this.meta = meta;
   }
 
   public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin) {
+    return getVisibleAreaSegments(origin, null);
+  }
+
+  /**
+   * Returns the segments that face the origin, considering only islands and faces that touch the
+   * given bounds.
+   *
+   * @param origin the point being seen from
+   * @param cullBounds the area of interest, containing origin, or <code>null</code> for everything
+   * @see AreaMeta#getVisibleAreas(Point2D, Rectangle2D)
+   */
+  public Set<VisibleAreaSegment> getVisibleAreaSegments(Point2D origin, Rectangle2D cullBounds) {
 
     Set<VisibleAreaSegment> segSet = new HashSet<VisibleAreaSegment>();
 
     // If an island contains the point, then we're
     // not in this ocean, short circuit out
-    for (AreaIsland island : islandSet) {
+    for (AreaIsland island : getIslandsContaining(origin)) {
       if (island.getBounds().contains(origin)) {
         return segSet;
       }
     }
 
     // Inside boundaries
-    for (AreaIsland island : islandSet) {
-      segSet.addAll(island.getVisibleAreaSegments(origin));
+    Collection<AreaIsland> islands = islandSet;
+    if (cullBounds != null) {
+      islands = new ArrayList<AreaIsland>();
+      getIslandIndex().getIntersecting(cullBounds, islands);
+    }
+    for (AreaIsland island : islands) {
+      segSet.addAll(island.getVisibleAreaSegments(origin, cullBounds));
     }
 
     // Outside boundary
     if (meta != null) {
-      segSet.addAll(meta.getVisibleAreas(origin));
+      segSet.addAll(meta.getVisibleAreas(origin, cullBounds));
     }
 
     return segSet;
   }
 
+  /** Builds the island lookup for this ocean and all those nested in it ahead of any queries. */
+  void buildIndexes() {
+    getIslandIndex();
+    for (AreaIsland island : islandSet) {
+      for (AreaOcean ocean : island.getOceans()) {
+        ocean.buildIndexes();
+      }
+    }
+  }
+
+  private List<AreaIsland> getIslandsContaining(Point2D point) {
+    List<AreaIsland> islands = new ArrayList<AreaIsland>();
+    getIslandIndex().getContaining(point, islands);
+    return islands;
+  }
+
+  private AreaContainerIndex<AreaIsland> getIslandIndex() {
+    if (islandIndex == null) {
+      Map<AreaIsland, Rectangle2D> boundsMap = new HashMap<AreaIsland, Rectangle2D>();
+      for (AreaIsland island : islandSet) {
+        boundsMap.put(island, island.getBounds2D());
+      }
+      islandIndex = new AreaContainerIndex<AreaIsland>(boundsMap);
+    }
+    return islandIndex;
+  }
+
   public AreaOcean getDeepestOceanAt(Point2D point) {
 
     if (meta != null && !meta.area.contains(point)) {
@@ -60,7 +111,7 @@ public AreaOcean getDeepestOceanAt(Point2D point) {
     }
 
     // If the point is in an island, then let the island figure it out
-    for (AreaIsland island : islandSet) {
+    for (AreaIsland island : getIslandsContaining(point)) {
       if (island.getBounds().contains(point)) {
         return island.getDeepestOceanAt(point);
       }
@@ -75,6 +126,7 @@ public Set<AreaIsland> getIslands() {
 
   public void addIsland(AreaIsland island) {
     islandSet.add(island);
+    islandIndex = null;
   }
 
   ////
@@ -82,4 +134,8 @@ public void addIsland(AreaIsland island) {
   public Area getBounds() {
     return meta != null ? meta.area : null;
   }
+
+  Rectangle2D getBounds2D() {
+    return meta != null ? meta.getBounds2D() : null;
+  }
 }
@@ -14,11 +14,19 @@
  */
 package net.rptools.maptool.client.ui.zone.vbl;
 
+import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import net.rptools.maptool.util.GraphicsUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -27,9 +35,22 @@ public class AreaTree {
   private static final Logger log = LogManager.getLogger(AreaTree.class);
   private AreaOcean theOcean;
   private Area theArea; // in case we want to return the original area undigested
+  // Digested outlines by their points, so that the next tree can reuse the ones that didn't change
+  private Map<Contour, AreaMeta> metaMap = new HashMap<Contour, AreaMeta>();
 
   public AreaTree(Area area) {
-    digest(area);
+    this(area, null);
+  }
+
+  /**
+   * Digests the area, reusing the outlines of <code>previous</code> that are unchanged. Edits to
+   * topology usually touch a handful of outlines, so only those are rebuilt.
+   *
+   * @param area the topology
+   * @param previous a tree built from an earlier version of the topology, or <code>null</code>
+   */
+  public AreaTree(Area area, AreaTree previous) {
+    digest(area, previous != null ? previous.metaMap : null);
   }
 
   public AreaOcean getOceanAt(Point2D point) {
@@ -45,7 +66,37 @@ public Area getArea() {
     return theArea;
   }
 
-  private void digest(Area area) {
+  /** The points of one closed outline, as read from the area's path. */
+  private static class Contour {
+    private final float[] coords;
+    private final int hash;
+
+    Contour(float[] coords, int length) {
+      this.coords = Arrays.copyOf(coords, length);
+      this.hash = Arrays.hashCode(this.coords);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Contour && Arrays.equals(coords, ((Contour) o).coords);
+    }
+
+    AreaMeta createMeta() {
+      AreaMeta areaMeta = new AreaMeta();
+      for (int i = 0; i < coords.length; i += 2) {
+        areaMeta.addPoint(coords[i], coords[i + 1]);
+      }
+      areaMeta.close();
+      return areaMeta;
+    }
+  }
+
+  private void digest(Area area, Map<Contour, AreaMeta> previousMetaMap) {
     if (area == null) {
       return;
     }
@@ -57,12 +108,21 @@ private void digest(Area area) {
 
     // Break the big area into independent areas
     float[] coords = new float[6];
-    AreaMeta areaMeta = new AreaMeta();
+    float[] points = new float[64];
+    int length = 0;
+    int reused = 0;
     for (PathIterator iter = area.getPathIterator(null); !iter.isDone(); iter.next()) {
       int type = iter.currentSegment(coords);
       switch (type) {
         case PathIterator.SEG_CLOSE:
-          areaMeta.close();
+          Contour contour = new Contour(points, length);
+          AreaMeta areaMeta = previousMetaMap != null ? previousMetaMap.get(contour) : null;
+          if (areaMeta != null) {
+            reused++;
+          } else {
+            areaMeta = contour.createMeta();
+          }
+          metaMap.put(contour, areaMeta);
 
           // Holes are oceans, solids are islands
           if (areaMeta.isHole()) {
@@ -71,21 +131,28 @@ private void digest(Area area) {
             islandList.add(new AreaIsland(areaMeta));
           }
           break;
-        case PathIterator.SEG_LINETO:
-          areaMeta.addPoint(coords[0], coords[1]);
-          break;
         case PathIterator.SEG_MOVETO:
-          areaMeta = new AreaMeta();
-          areaMeta.addPoint(coords[0], coords[1]);
+          length = 0;
+          // fall through
+        case PathIterator.SEG_LINETO:
+          if (length + 2 > points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+          }
+          points[length++] = coords[0];
+          points[length++] = coords[1];
           break;
       }
     }
+    log.debug(
+        "AreaTree: " + metaMap.size() + " outlines, " + reused + " reused from previous tree");
+
     // Create the hierarchy
     // Start by putting each ocean into the containing island
     // Every ocean should have a containing island. There is only one ocean that doesn't
     // have an explicit island and that's the global scope ocean container
+    AreaContainerIndex<AreaIsland> islandIndex = createIndex(islandList);
     for (AreaOcean ocean : oceanList) {
-      AreaIsland island = findSmallestContainer(ocean, islandList);
+      AreaIsland island = findSmallestContainer(ocean, ocean.getBounds2D(), islandIndex);
       if (island == null) {
         log.warn("Weird, I couldn't find an island for an ocean.  Bad/overlapping VBL?");
         continue;
@@ -93,9 +160,10 @@ private void digest(Area area) {
       island.addOcean(ocean);
     }
     // Now put each island into the containing ocean
+    AreaContainerIndex<AreaOcean> oceanIndex = createIndex(oceanList);
     List<AreaIsland> globalIslandList = new ArrayList<AreaIsland>();
     for (AreaIsland island : islandList) {
-      AreaOcean ocean = findSmallestContainer(island, oceanList);
+      AreaOcean ocean = findSmallestContainer(island, island.getBounds2D(), oceanIndex);
       if (ocean == null) {
         globalIslandList.add(island);
         continue;
@@ -108,33 +176,52 @@ private void digest(Area area) {
     for (AreaIsland island : globalIslandList) {
       theOcean.addIsland(island);
     }
+    // Queries may come from several threads at once, so don't leave the lookups to be built lazily
+    theOcean.buildIndexes();
   }
 
-  private <T extends AreaContainer> T findSmallestContainer(AreaContainer item, List<T> list) {
-    T smallest = null;
+  private static <T extends AreaContainer> AreaContainerIndex<T> createIndex(List<T> list) {
+    Map<T, Rectangle2D> boundsMap = new HashMap<T, Rectangle2D>();
     for (T container : list) {
-      if (!GraphicsUtil.contains(container.getBounds(), item.getBounds())) {
-        continue;
-      }
-      smallest = getSmallest(smallest, container);
+      boundsMap.put(container, container.getBounds().getBounds2D());
     }
-    return smallest;
+    return new AreaContainerIndex<T>(boundsMap);
   }
 
-  private <T extends AreaContainer> T getSmallest(T left, T right) {
-    // Something is smaller than nothing, for our purposes
-    if (left == null) {
-      return right;
+  /**
+   * Finds the smallest container holding the item. Only containers whose bounds hold the item's
+   * bounds can hold the item, so those are tried smallest first and the exact (and costly) area
+   * test stops at the first match.
+   */
+  private <T extends AreaContainer> T findSmallestContainer(
+      AreaContainer item, Rectangle2D itemBounds, AreaContainerIndex<T> index) {
+    List<T> candidates = new ArrayList<T>();
+    index.getContaining(new Point2D.Double(itemBounds.getMinX(), itemBounds.getMinY()), candidates);
+    for (Iterator<T> iter = candidates.iterator(); iter.hasNext(); ) {
+      Rectangle2D bounds = index.getBounds(iter.next());
+      if (bounds.getMaxX() < itemBounds.getMaxX() || bounds.getMaxY() < itemBounds.getMaxY()) {
+        iter.remove();
+      }
     }
-    if (right == null) {
-      return left;
+    Collections.sort(
+        candidates,
+        new Comparator<T>() {
+          @Override
+          public int compare(T left, T right) {
+            return Double.compare(getSize(left), getSize(right));
+          }
+        });
+    for (T container : candidates) {
+      if (GraphicsUtil.contains(container.getBounds(), item.getBounds())) {
+        return container;
+      }
     }
-    // Presumably the container with the smaller area will be the contained area
-    double leftSize =
-        left.getBounds().getBounds().getWidth() * left.getBounds().getBounds().getHeight();
-    double rightSize =
-        right.getBounds().getBounds().getWidth() * right.getBounds().getBounds().getHeight();
+    return null;
+  }
 
-    return leftSize < rightSize ? left : right;
+  // Presumably the container with the smaller area will be the contained area
+  private static double getSize(AreaContainer container) {
+    Rectangle bounds = container.getBounds().getBounds();
+    return bounds.getWidth() * bounds.getHeight();
   }
 }
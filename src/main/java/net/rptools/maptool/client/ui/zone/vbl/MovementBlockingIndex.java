@@ -0,0 +1,148 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.ui.zone.vbl;
+
+import java.awt.geom.Area;
+import java.awt.geom.PathIterator;
+import java.util.List;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.LineSegment;
+import org.locationtech.jts.index.strtree.STRtree;
+
+/**
+ * Spatial index of the VBL boundary segments of a zone, used to answer "does VBL block moving from
+ * here to there?" for the pathfinding walkers. The index is immutable once built; {@link
+ * net.rptools.maptool.client.ui.zone.ZoneView} builds one from the combined topology and discards
+ * it when the topology or token VBL changes.
+ *
+ * <p>A move is blocked when the straight line between the two points comes within the clearance
+ * distance of a VBL edge, or when either end lies inside VBL. This matches intersecting the line
+ * with the VBL geometry buffered by the clearance, but only the segments near the line are tested.
+ */
+public class MovementBlockingIndex {
+  private static final double FLATNESS = 0.5;
+
+  private final STRtree tree = new STRtree();
+  private final double clearance;
+  private Envelope bounds = new Envelope();
+  private int segmentCount;
+
+  public MovementBlockingIndex(Area vbl) {
+    this(vbl, 1);
+  }
+
+  /**
+   * @param vbl the combined VBL of the zone, may be <code>null</code>
+   * @param clearance how close a move may come to a VBL edge before it is blocked
+   */
+  public MovementBlockingIndex(Area vbl, double clearance) {
+    this.clearance = clearance;
+    if (vbl != null && !vbl.isEmpty()) {
+      addSegments(vbl);
+    }
+    tree.build();
+  }
+
+  private void addSegments(Area vbl) {
+    double[] coords = new double[6];
+    double startX = 0, startY = 0, lastX = 0, lastY = 0;
+    for (PathIterator iter = vbl.getPathIterator(null, FLATNESS); !iter.isDone(); iter.next()) {
+      switch (iter.currentSegment(coords)) {
+        case PathIterator.SEG_MOVETO:
+          startX = lastX = coords[0];
+          startY = lastY = coords[1];
+          break;
+        case PathIterator.SEG_LINETO:
+          addSegment(lastX, lastY, coords[0], coords[1]);
+          lastX = coords[0];
+          lastY = coords[1];
+          break;
+        case PathIterator.SEG_CLOSE:
+          addSegment(lastX, lastY, startX, startY);
+          lastX = startX;
+          lastY = startY;
+          break;
+      }
+    }
+  }
+
+  private void addSegment(double x1, double y1, double x2, double y2) {
+    if (x1 == x2 && y1 == y2) {
+      return;
+    }
+    LineSegment segment = new LineSegment(x1, y1, x2, y2);
+    Envelope envelope = new Envelope(segment.p0, segment.p1);
+    tree.insert(envelope, segment);
+    bounds.expandToInclude(envelope);
+    segmentCount++;
+  }
+
+  public boolean isEmpty() {
+    return segmentCount == 0;
+  }
+
+  public int getSegmentCount() {
+    return segmentCount;
+  }
+
+  /**
+   * Checks whether VBL blocks a straight move between two points.
+   *
+   * @return <code>true</code> if the move passes within the clearance of a VBL edge or starts or
+   *     ends inside VBL
+   */
+  public boolean blocksMovement(double x1, double y1, double x2, double y2) {
+    if (segmentCount == 0) {
+      return false;
+    }
+    Envelope search = new Envelope(x1, x2, y1, y2);
+    search.expandBy(clearance);
+    if (!bounds.intersects(search)) {
+      return false;
+    }
+    LineSegment ray = new LineSegment(x1, y1, x2, y2);
+    for (Object candidate : tree.query(search)) {
+      if (((LineSegment) candidate).distance(ray) <= clearance) {
+        return true;
+      }
+    }
+    // No edge near the line, so it is either entirely inside or entirely outside VBL
+    return contains(x1, y1);
+  }
+
+  /**
+   * Even-odd point in polygon test against the indexed edges. Only the edges to the left of the
+   * point on its horizontal line are visited.
+   */
+  public boolean contains(double x, double y) {
+    if (segmentCount == 0 || !bounds.contains(x, y)) {
+      return false;
+    }
+    boolean inside = false;
+    List<?> candidates = tree.query(new Envelope(bounds.getMinX(), x, y, y));
+    for (Object candidate : candidates) {
+      LineSegment segment = (LineSegment) candidate;
+      if ((segment.p0.y > y) != (segment.p1.y > y)) {
+        double crossX =
+            segment.p0.x
+                + (y - segment.p0.y) * (segment.p1.x - segment.p0.x) / (segment.p1.y - segment.p0.y);
+        if (crossX < x) {
+          inside = !inside;
+        }
+      }
+    }
+    return inside;
+  }
+}
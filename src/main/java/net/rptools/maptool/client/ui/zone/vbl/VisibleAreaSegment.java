@@ -30,6 +30,7 @@ public class VisibleAreaSegment implements Comparable<VisibleAreaSegment> {
 
   private Point2D centerPoint;
   private Area pathArea;
+  private GeneralPath shadowPath;
 
   public VisibleAreaSegment(Point2D origin) {
     this.origin = origin;
@@ -90,6 +91,19 @@ public Area getArea() {
     if (faceList.isEmpty()) {
       return new Area();
     }
+    return new Area(getShadowPath());
+  }
+
+  /**
+   * Returns the outline of the area hidden by this segment, the faces plus their projection away
+   * from the origin. Cheap to test against a rectangle, unlike the {@link Area} built from it.
+   *
+   * @return the outline, or <code>null</code> if there are no faces
+   */
+  public GeneralPath getShadowPath() {
+    if (shadowPath != null || faceList.isEmpty()) {
+      return shadowPath;
+    }
     List<Point2D> pathPoints = new LinkedList<Point2D>();
 
     for (AreaFace face : faceList) {
@@ -115,7 +129,8 @@ public Area getArea() {
       }
       path.lineTo((float) p.getX(), (float) p.getY());
     }
-    return new Area(path);
+    shadowPath = path;
+    return shadowPath;
   }
 
   ////
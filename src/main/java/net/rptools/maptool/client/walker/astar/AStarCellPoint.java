@@ -30,9 +30,11 @@ public class AStarCellPoint extends CellPoint implements Comparable<AStarCellPoi
   double h;
   double f;
   double terrainModifier;
+  int heapIndex = -1; // Position in the AStarOpenList heap, -1 when not open
 
-  // Store if it's valid to move from Point2D to this cell.
-  HashMap<Point2D, Boolean> validMoves = new HashMap<Point2D, Boolean>();
+  // Store if it's valid to move from Point2D to this cell. Created on first use since most nodes
+  // never have a VBL check recorded against them.
+  HashMap<Point2D, Boolean> validMoves;
 
   public AStarCellPoint() {
     super(0, 0);
@@ -67,23 +69,25 @@ public Point2D toCenterPoint(Zone zone) {
   // To store as a map of valid moves, true if you can move into this cellpoint from another
   // cellpoint
   public void setValidMove(Point2D key, boolean value) {
+    if (validMoves == null) validMoves = new HashMap<Point2D, Boolean>();
     validMoves.put(key, value);
   }
 
   public Boolean isValidMove(Point2D key) {
-    return validMoves.get(key);
+    return validMoves == null ? null : validMoves.get(key);
   }
 
   public void setValidMove(AStarCellPoint key, boolean value) {
-    validMoves.put(key.toPoint(), value);
+    setValidMove(key.toPoint(), value);
   }
 
   public Boolean isValidMove(AStarCellPoint key) {
-    return validMoves.get(key.toPoint());
+    return validMoves == null ? null : validMoves.get(key.toPoint());
   }
 
   public Set<Point2D> getValidMoves() {
     Set<Point2D> validMovePoints = new HashSet<Point2D>();
+    if (validMoves == null) return validMovePoints;
 
     for (Entry<Point2D, Boolean> entry : validMoves.entrySet()) {
       if (entry.getValue()) {
@@ -103,6 +107,8 @@ public Shape getValidMoveShape(Zone zone) {
     double x1 = cellBounds.getCenterX();
     double y1 = cellBounds.getCenterY();
 
+    if (validMoves == null) return validMoveShape;
+
     for (Entry<Point2D, Boolean> entry : validMoves.entrySet()) {
       validMoveShape.moveTo(x1, y1);
 
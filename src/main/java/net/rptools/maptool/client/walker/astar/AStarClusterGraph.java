@@ -0,0 +1,333 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import net.rptools.maptool.client.ui.zone.vbl.MovementBlockingIndex;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+
+/**
+ * Cluster abstraction of a zone's grid for hierarchical (HPA*-style) pathfinding.
+ *
+ * <p>The grid is cut into square clusters of {@link #CLUSTER_SIZE} cells. Inside each cluster the
+ * cells are flood filled into regions that can reach each other without crossing VBL, and regions
+ * of neighboring clusters are linked wherever a single move crosses the cluster border. A search
+ * over this much smaller region graph yields a corridor of clusters which the cell level A* is then
+ * confined to.
+ *
+ * <p>Zones are unbounded, so clusters are built the first time a search touches them, and the
+ * whole set is dropped once it grows past {@link #MAX_CLUSTERS}. A graph is only valid for the VBL
+ * index, grid geometry, terrain and move set it was built with; see {@link #isValidFor}.
+ */
+class AStarClusterGraph {
+  static final int CLUSTER_SIZE = 16;
+
+  /** How many clusters beyond the start/goal bounding box the abstract search may wander. */
+  private static final int SEARCH_MARGIN = 4;
+
+  /**
+   * Clusters link to the regions of their neighbors, so single clusters can't be evicted. Once this
+   * many have been built they are all thrown away and rebuilt on demand.
+   */
+  static final int MAX_CLUSTERS = 4096;
+
+  private final MovementBlockingIndex vblIndex;
+  private final int gridSize;
+  private final int gridOffsetX;
+  private final int gridOffsetY;
+  private final CellPointMap terrainCells;
+  private final long terrainSignature;
+  private final int[][] moves;
+  private final boolean diagonals;
+
+  private final Map<Long, Cluster> clusters = new HashMap<Long, Cluster>();
+
+  AStarClusterGraph(
+      MovementBlockingIndex vblIndex,
+      Grid grid,
+      CellPointMap terrainCells,
+      long terrainSignature,
+      int[][] moves) {
+    this.vblIndex = vblIndex;
+    this.gridSize = grid.getSize();
+    this.gridOffsetX = grid.getOffsetX();
+    this.gridOffsetY = grid.getOffsetY();
+    this.terrainCells = terrainCells;
+    this.terrainSignature = terrainSignature;
+    this.moves = moves;
+    boolean hasDiagonal = false;
+    for (int[] move : moves) hasDiagonal |= move[0] != 0 && move[1] != 0;
+    this.diagonals = hasDiagonal;
+  }
+
+  /**
+   * The regions and links depend on where the grid puts each cell, so a change to the grid's size
+   * or offset invalidates the graph just like a change to the VBL or terrain does.
+   */
+  boolean isValidFor(MovementBlockingIndex index, Grid grid, long signature, int[][] neighborMap) {
+    return index == vblIndex
+        && grid.getSize() == gridSize
+        && grid.getOffsetX() == gridOffsetX
+        && grid.getOffsetY() == gridOffsetY
+        && signature == terrainSignature
+        && Arrays.deepEquals(neighborMap, moves);
+  }
+
+  /** @return how many clusters have been built so far */
+  synchronized int getClusterCount() {
+    return clusters.size();
+  }
+
+  static int clusterCoord(int cell) {
+    return Math.floorDiv(cell, CLUSTER_SIZE);
+  }
+
+  /**
+   * Finds the clusters a path from <code>start</code> to <code>goal</code> should pass through.
+   *
+   * @return the packed coordinates of the corridor clusters, or <code>null</code> if the abstract
+   *     search could not connect the two cells
+   */
+  synchronized CellKeySet findCorridor(Grid grid, CellPoint start, CellPoint goal) {
+    if (clusters.size() > MAX_CLUSTERS) {
+      clusters.clear();
+    }
+    Region startRegion = getRegion(grid, start.x, start.y);
+    Region goalRegion = getRegion(grid, goal.x, goal.y);
+
+    int minCx = Math.min(startRegion.cluster.cx, goalRegion.cluster.cx) - SEARCH_MARGIN;
+    int maxCx = Math.max(startRegion.cluster.cx, goalRegion.cluster.cx) + SEARCH_MARGIN;
+    int minCy = Math.min(startRegion.cluster.cy, goalRegion.cluster.cy) - SEARCH_MARGIN;
+    int maxCy = Math.max(startRegion.cluster.cy, goalRegion.cluster.cy) + SEARCH_MARGIN;
+
+    Map<Region, SearchNode> nodes = new HashMap<Region, SearchNode>();
+    PriorityQueue<SearchNode> open = new PriorityQueue<SearchNode>();
+    SearchNode first = new SearchNode(startRegion, null, 0, distance(startRegion, goal.x, goal.y));
+    nodes.put(startRegion, first);
+    open.add(first);
+
+    SearchNode found = null;
+    while (!open.isEmpty()) {
+      SearchNode current = open.poll();
+      if (current.closed) continue;
+      if (current.region == goalRegion) {
+        found = current;
+        break;
+      }
+      current.closed = true;
+
+      for (Region next : getLinks(grid, current.region)) {
+        Cluster c = next.cluster;
+        if (c.cx < minCx || c.cx > maxCx || c.cy < minCy || c.cy > maxCy) continue;
+
+        double g =
+            current.g
+                + distance(current.region, next.x, next.y) * (current.region.cost + next.cost) / 2;
+        SearchNode node = nodes.get(next);
+        if (node != null) {
+          if (node.closed || g >= node.g) continue;
+          // PriorityQueue can't re-key, so queue a fresh node and let the stale one be skipped
+          node.closed = true;
+        }
+        node = new SearchNode(next, current, g, distance(next, goal.x, goal.y));
+        nodes.put(next, node);
+        open.add(node);
+      }
+    }
+    if (found == null) return null;
+
+    // Region centroids only approximate where a path crosses a cluster, so widen the corridor by a
+    // cluster on every side to leave the cell search room to find the same path as a full search
+    CellKeySet corridor = new CellKeySet();
+    for (SearchNode node = found; node != null; node = node.parent) {
+      for (int dx = -1; dx <= 1; dx++) {
+        for (int dy = -1; dy <= 1; dy++) {
+          corridor.add(node.region.cluster.cx + dx, node.region.cluster.cy + dy);
+        }
+      }
+    }
+    return corridor;
+  }
+
+  private double distance(Region from, double x, double y) {
+    double dx = Math.abs(from.x - x);
+    double dy = Math.abs(from.y - y);
+    return diagonals ? Math.max(dx, dy) : dx + dy;
+  }
+
+  private Region getRegion(Grid grid, int x, int y) {
+    Cluster cluster = getCluster(grid, clusterCoord(x), clusterCoord(y));
+    return cluster.regions[cluster.regionOf(x, y)];
+  }
+
+  private Cluster getCluster(Grid grid, int cx, int cy) {
+    Long key = CellPointMap.key(cx, cy);
+    Cluster cluster = clusters.get(key);
+    if (cluster == null) {
+      cluster = new Cluster(cx, cy);
+      cluster.build(grid);
+      clusters.put(key, cluster);
+    }
+    return cluster;
+  }
+
+  /** Links are found on first use since they need the neighboring clusters built as well. */
+  private List<Region> getLinks(Grid grid, Region region) {
+    Cluster cluster = region.cluster;
+    if (!cluster.linked) {
+      linkCluster(grid, cluster);
+    }
+    return region.links;
+  }
+
+  private void linkCluster(Grid grid, Cluster cluster) {
+    int x0 = cluster.cx * CLUSTER_SIZE;
+    int y0 = cluster.cy * CLUSTER_SIZE;
+    for (int i = 0; i < CLUSTER_SIZE; i++) {
+      for (int j = 0; j < CLUSTER_SIZE; j++) {
+        // Only the border cells can leave the cluster
+        if (i != 0 && j != 0 && i != CLUSTER_SIZE - 1 && j != CLUSTER_SIZE - 1) continue;
+        int x = x0 + i;
+        int y = y0 + j;
+        Region from = cluster.regions[cluster.regionOf(x, y)];
+        for (int[] move : moves) {
+          int nx = x + move[0];
+          int ny = y + move[1];
+          int ncx = clusterCoord(nx);
+          int ncy = clusterCoord(ny);
+          if (ncx == cluster.cx && ncy == cluster.cy) continue;
+          Region to = getRegion(grid, nx, ny);
+          if (from.links.contains(to) || !canMove(grid, x, y, nx, ny)) continue;
+          from.links.add(to);
+        }
+      }
+    }
+    cluster.linked = true;
+  }
+
+  private boolean canMove(Grid grid, int x1, int y1, int x2, int y2) {
+    if (vblIndex == null || vblIndex.isEmpty()) return true;
+    Rectangle b1 = grid.getBounds(new CellPoint(x1, y1));
+    Rectangle b2 = grid.getBounds(new CellPoint(x2, y2));
+    return !vblIndex.blocksMovement(
+        b1.getCenterX(), b1.getCenterY(), b2.getCenterX(), b2.getCenterY());
+  }
+
+  private double terrainModifier(int x, int y) {
+    AStarCellPoint cell = terrainCells.get(x, y);
+    if (cell == null || cell.terrainModifier == 0) return 1;
+    return cell.terrainModifier;
+  }
+
+  private class Cluster {
+    final int cx;
+    final int cy;
+    final int[] regionIds = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+    Region[] regions;
+    boolean linked;
+
+    Cluster(int cx, int cy) {
+      this.cx = cx;
+      this.cy = cy;
+    }
+
+    int regionOf(int x, int y) {
+      return regionIds[(x - cx * CLUSTER_SIZE) * CLUSTER_SIZE + (y - cy * CLUSTER_SIZE)];
+    }
+
+    /** Flood fills the cells into regions that are mutually reachable inside the cluster. */
+    void build(Grid grid) {
+      int x0 = cx * CLUSTER_SIZE;
+      int y0 = cy * CLUSTER_SIZE;
+      Arrays.fill(regionIds, -1);
+      List<Region> found = new ArrayList<Region>();
+      ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+
+      for (int seed = 0; seed < regionIds.length; seed++) {
+        if (regionIds[seed] >= 0) continue;
+        Region region = new Region(this);
+        int id = found.size();
+        found.add(region);
+        regionIds[seed] = id;
+        queue.add(new int[] {seed / CLUSTER_SIZE, seed % CLUSTER_SIZE});
+
+        double sumX = 0, sumY = 0, sumCost = 0;
+        int count = 0;
+        while (!queue.isEmpty()) {
+          int[] cell = queue.poll();
+          int x = x0 + cell[0];
+          int y = y0 + cell[1];
+          sumX += x;
+          sumY += y;
+          sumCost += terrainModifier(x, y);
+          count++;
+          for (int[] move : moves) {
+            int i = cell[0] + move[0];
+            int j = cell[1] + move[1];
+            if (i < 0 || j < 0 || i >= CLUSTER_SIZE || j >= CLUSTER_SIZE) continue;
+            int index = i * CLUSTER_SIZE + j;
+            if (regionIds[index] >= 0 || !canMove(grid, x, y, x0 + i, y0 + j)) continue;
+            regionIds[index] = id;
+            queue.add(new int[] {i, j});
+          }
+        }
+        region.x = sumX / count;
+        region.y = sumY / count;
+        region.cost = sumCost / count;
+      }
+      regions = found.toArray(new Region[found.size()]);
+    }
+  }
+
+  private static class Region {
+    final Cluster cluster;
+    final List<Region> links = new ArrayList<Region>();
+    double x;
+    double y;
+    double cost;
+
+    Region(Cluster cluster) {
+      this.cluster = cluster;
+    }
+  }
+
+  private static class SearchNode implements Comparable<SearchNode> {
+    final Region region;
+    final SearchNode parent;
+    final double g;
+    final double f;
+    boolean closed;
+
+    SearchNode(Region region, SearchNode parent, double g, double h) {
+      this.region = region;
+      this.parent = parent;
+      this.g = g;
+      this.f = g + h;
+    }
+
+    @Override
+    public int compareTo(SearchNode other) {
+      return Double.compare(f, other.f);
+    }
+  }
+}
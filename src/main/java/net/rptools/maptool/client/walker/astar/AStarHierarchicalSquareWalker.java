@@ -0,0 +1,100 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import net.rptools.maptool.client.ui.zone.vbl.MovementBlockingIndex;
+import net.rptools.maptool.client.walker.WalkerMetric;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.Grid;
+import net.rptools.maptool.model.Zone;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Square grid walker for very large maps. Long paths are first planned over a per-zone {@link
+ * AStarClusterGraph}, and the cell level A* of {@link AStarSquareEuclideanWalker} is then confined
+ * to the clusters along that plan. Short paths, and paths the cluster plan cannot be refined into,
+ * fall back to the plain search.
+ *
+ * <p>The cluster graph is shared by every walker on the same zone and is thrown away when the VBL,
+ * the grid size or offset, the terrain modifier tokens or the movement metric change.
+ */
+public class AStarHierarchicalSquareWalker extends AStarSquareEuclideanWalker {
+  private static final Logger log = LogManager.getLogger(AStarHierarchicalSquareWalker.class);
+
+  /** Paths shorter than this many clusters are cheap enough for the plain search. */
+  private static final int MIN_CLUSTER_DISTANCE = 2;
+
+  private static final Map<Zone, AStarClusterGraph> clusterGraphs =
+      new WeakHashMap<Zone, AStarClusterGraph>();
+
+  private CellKeySet corridor;
+
+  public AStarHierarchicalSquareWalker(Zone zone, WalkerMetric metric) {
+    super(zone, metric);
+  }
+
+  @Override
+  protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
+    corridor = null;
+
+    // Without movement restrictions there is no VBL or terrain for the clusters to route around
+    if (restrictMovement && isLongPath(start, goal)) {
+      AStarClusterGraph graph = getClusterGraph(updateVblIndex());
+      corridor = graph.findCorridor(zone.getGrid(), start, goal);
+      if (corridor != null) {
+        List<CellPoint> path = super.calculatePath(start, goal);
+        corridor = null;
+        // A search abandoned for a newer request or timed out would fare no better on the full map
+        if (isPathFound() || !isSearchCompleted()) {
+          return path;
+        }
+        log.debug("Corridor search failed, falling back to full A*");
+      }
+    }
+    return super.calculatePath(start, goal);
+  }
+
+  @Override
+  protected boolean isSearchable(int x, int y) {
+    return corridor == null
+        || corridor.contains(AStarClusterGraph.clusterCoord(x), AStarClusterGraph.clusterCoord(y));
+  }
+
+  private boolean isLongPath(CellPoint start, CellPoint goal) {
+    int dx =
+        Math.abs(AStarClusterGraph.clusterCoord(start.x) - AStarClusterGraph.clusterCoord(goal.x));
+    int dy =
+        Math.abs(AStarClusterGraph.clusterCoord(start.y) - AStarClusterGraph.clusterCoord(goal.y));
+    return Math.max(dx, dy) >= MIN_CLUSTER_DISTANCE;
+  }
+
+  private AStarClusterGraph getClusterGraph(MovementBlockingIndex vblIndex) {
+    Grid grid = zone.getGrid();
+    int[][] moves = getNeighborMap(0, 0);
+    synchronized (clusterGraphs) {
+      AStarClusterGraph graph = clusterGraphs.get(zone);
+      if (graph == null || !graph.isValidFor(vblIndex, grid, getTerrainSignature(), moves)) {
+        graph =
+            new AStarClusterGraph(vblIndex, grid, getTerrainCells(), getTerrainSignature(), moves);
+        clusterGraphs.put(zone, graph);
+      }
+      return graph;
+    }
+  }
+}
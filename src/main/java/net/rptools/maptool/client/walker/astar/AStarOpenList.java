@@ -0,0 +1,142 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min-heap used as the A* open list. Nodes are ordered by F cost, ties going to the
+ * node with the lower H cost (the one closer to the goal). Each node records its own position in
+ * the heap, and the heap keeps a {@link CellPointMap} of its members, so both "is this cell open?"
+ * and "this node just got cheaper" are cheap operations.
+ */
+class AStarOpenList {
+  private AStarCellPoint[] heap;
+  private int size;
+  private final CellPointMap index = new CellPointMap(1024);
+
+  AStarOpenList() {
+    heap = new AStarCellPoint[256];
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the open node for the cell at (x, y), or <code>null</code> if that cell has never been
+   * opened or has already been polled.
+   *
+   * @param x the cell x coordinate
+   * @param y the cell y coordinate
+   * @return the open node or <code>null</code>
+   */
+  AStarCellPoint get(int x, int y) {
+    AStarCellPoint node = index.get(x, y);
+    return node != null && node.heapIndex >= 0 ? node : null;
+  }
+
+  void add(AStarCellPoint node) {
+    if (size == heap.length) heap = Arrays.copyOf(heap, size << 1);
+    heap[size] = node;
+    node.heapIndex = size;
+    size++;
+    index.put(node);
+    siftUp(node.heapIndex);
+  }
+
+  /**
+   * Removes and returns the node with the lowest F cost.
+   *
+   * @return the cheapest open node, or <code>null</code> if the list is empty
+   */
+  AStarCellPoint poll() {
+    if (size == 0) return null;
+    AStarCellPoint top = heap[0];
+    size--;
+    if (size > 0) {
+      heap[0] = heap[size];
+      heap[0].heapIndex = 0;
+      siftDown(0);
+    }
+    heap[size] = null;
+    top.heapIndex = -1;
+    return top;
+  }
+
+  /**
+   * Restores heap order after the G cost of an open node has been lowered.
+   *
+   * @param node a node currently in this list
+   */
+  void decreased(AStarCellPoint node) {
+    siftUp(node.heapIndex);
+  }
+
+  /** Empties the list, keeping its storage for the next search. */
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      heap[i].heapIndex = -1;
+      heap[i] = null;
+    }
+    size = 0;
+    index.clear();
+  }
+
+  private static boolean less(AStarCellPoint a, AStarCellPoint b) {
+    double fa = a.fCost();
+    double fb = b.fCost();
+    if (fa != fb) return fa < fb;
+    return a.h < b.h;
+  }
+
+  private void siftUp(int i) {
+    AStarCellPoint node = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      AStarCellPoint p = heap[parent];
+      if (!less(node, p)) break;
+      heap[i] = p;
+      p.heapIndex = i;
+      i = parent;
+    }
+    heap[i] = node;
+    node.heapIndex = i;
+  }
+
+  private void siftDown(int i) {
+    AStarCellPoint node = heap[i];
+    int half = size >>> 1;
+    while (i < half) {
+      int child = (i << 1) + 1;
+      AStarCellPoint c = heap[child];
+      int right = child + 1;
+      if (right < size && less(heap[right], c)) {
+        child = right;
+        c = heap[child];
+      }
+      if (!less(c, node)) break;
+      heap[i] = c;
+      c.heapIndex = i;
+      i = child;
+    }
+    heap[i] = node;
+    node.heapIndex = i;
+  }
+}
@@ -16,20 +16,17 @@
 
 import java.awt.Color;
 import java.awt.Rectangle;
-import java.awt.geom.Area;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.client.ui.zone.vbl.MovementBlockingIndex;
 import net.rptools.maptool.client.walker.AbstractZoneWalker;
 import net.rptools.maptool.model.CellPoint;
 import net.rptools.maptool.model.GUID;
@@ -39,11 +36,6 @@
 import net.rptools.maptool.model.Zone;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.locationtech.jts.awt.ShapeReader;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.LineString;
 
 public abstract class AbstractAStarWalker extends AbstractZoneWalker {
   private static final Logger log = LogManager.getLogger(AbstractAStarWalker.class);
@@ -51,13 +43,10 @@ public abstract class AbstractAStarWalker extends AbstractZoneWalker {
   private boolean debugCosts = false; // Manually set this to view H, G & F costs as rendered labels
   private List<GUID> debugLabels;
 
-  private Area vbl = new Area();
   private double normal_cost = 1; // zone.getUnitsPerCell();
   private double distance = -1;
 
-  private final GeometryFactory geometryFactory = new GeometryFactory();
-  private ShapeReader shapeReader = new ShapeReader(geometryFactory);
-  private Geometry vblGeometry = null;
+  private MovementBlockingIndex vblIndex = null;
   private TokenFootprint footprint = new TokenFootprint();
 
   private Map<AStarCellPoint, AStarCellPoint> checkedList =
@@ -70,7 +59,17 @@ public abstract class AbstractAStarWalker extends AbstractZoneWalker {
   protected int crossX = 0;
   protected int crossY = 0;
 
-  private List<AStarCellPoint> terrainCells = new ArrayList<AStarCellPoint>();
+  // Search scratch buffers, reused across calls to calculatePath()
+  private final AStarOpenList openList = new AStarOpenList();
+  private final CellKeySet closedSet = new CellKeySet(1024);
+  private final List<AStarCellPoint> neighbors = new ArrayList<AStarCellPoint>(8);
+
+  // Summed terrain modifier per cell, keyed by packed cell coordinates
+  private final CellPointMap terrainCells = new CellPointMap();
+  private long terrainSignature;
+
+  private boolean pathFound;
+  private boolean searchCompleted;
 
   public AbstractAStarWalker(Zone zone) {
     super(zone);
@@ -79,8 +78,18 @@ public AbstractAStarWalker(Zone zone) {
     for (Token token : zone.getTokensWithTerrainModifiers()) {
       // log.info("Token: " + token.getName() + ", " + token.getTerrainModifier());
       Set<CellPoint> cells = token.getOccupiedCells(zone.getGrid());
-      for (CellPoint cell : cells)
-        terrainCells.add(new AStarCellPoint(cell, token.getTerrainModifier()));
+      for (CellPoint cell : cells) {
+        AStarCellPoint terrainCell = terrainCells.get(cell.x, cell.y);
+        if (terrainCell == null)
+          terrainCells.put(new AStarCellPoint(cell, token.getTerrainModifier()));
+        else terrainCell.terrainModifier += token.getTerrainModifier();
+
+        // Order independent fingerprint of the terrain, used to tell when cached data is stale
+        long h =
+            CellPointMap.key(cell.x, cell.y) * 31
+                + Double.doubleToLongBits(token.getTerrainModifier());
+        terrainSignature += h * 0x9E3779B97F4A7C15L ^ (h >>> 29);
+      }
     }
   }
 
@@ -105,6 +114,64 @@ public double getDistance() {
     else return distance;
   }
 
+  /** @return whether the last call to calculatePath() reached the goal */
+  protected boolean isPathFound() {
+    return pathFound;
+  }
+
+  /**
+   * @return whether the last call to calculatePath() ran to the end, rather than being interrupted
+   *     or timing out
+   */
+  protected boolean isSearchCompleted() {
+    return searchCompleted;
+  }
+
+  /**
+   * Hook for walkers that limit the search to part of the map. Cells for which this returns <code>
+   * false</code> are never opened. The default allows every cell.
+   */
+  protected boolean isSearchable(int x, int y) {
+    return true;
+  }
+
+  CellPointMap getTerrainCells() {
+    return terrainCells;
+  }
+
+  long getTerrainSignature() {
+    return terrainSignature;
+  }
+
+  /**
+   * Picks up the current VBL index for the map from the zone view.
+   *
+   * @return the index now in use, or <code>null</code> if none is available
+   */
+  protected MovementBlockingIndex updateVblIndex() {
+    MovementBlockingIndex currentIndex = getCurrentVblIndex();
+    if (currentIndex != null && currentIndex != vblIndex) {
+      // VBL has changed, previously checked moves are no longer valid
+      checkedList.clear();
+      vblIndex = currentIndex;
+    }
+    return vblIndex;
+  }
+
+  /**
+   * @return the VBL index of the map on screen, or <code>null</code> if there is no renderer to
+   *     take it from
+   */
+  protected MovementBlockingIndex getCurrentVblIndex() {
+    // ZoneView keeps a spatial index of the VBL edges that is only rebuilt when topology or token
+    // VBL changes, so each neighbor check only looks at the edges near that move.
+    // Note: zoneRenderer will be null if map is not visible to players.
+    if (MapTool.getFrame() == null || MapTool.getFrame().getCurrentZoneRenderer() == null) {
+      return null;
+    }
+    return MapTool.getFrame().getCurrentZoneRenderer().getZoneView().getMovementBlockingIndex();
+  }
+
   public Collection<AStarCellPoint> getCheckedPoints() {
     return checkedList.values();
   }
@@ -119,47 +186,26 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     crossX = start.x - goal.x;
     crossY = start.y - goal.y;
 
-    List<AStarCellPoint> openList = new ArrayList<AStarCellPoint>();
-    Map<AStarCellPoint, AStarCellPoint> openSet =
-        new HashMap<AStarCellPoint, AStarCellPoint>(); // For faster lookups
-    Set<AStarCellPoint> closedSet = new HashSet<AStarCellPoint>();
+    // The open and closed sets are per-walker scratch structures; clear them rather than
+    // reallocating so repeated drags don't churn the heap.
+    openList.clear();
+    closedSet.clear();
 
     // Current fail safe... bail out after 10 seconds of searching just in case, shouldn't hang UI
     // as this is off the AWT thread
     long timeOut = System.currentTimeMillis();
     double estimatedTimeoutNeeded = 10000;
+    int expandedNodes = 0;
 
     // if (start.equals(end))
     // log.info("NO WORK!");
 
     openList.add(new AStarCellPoint(start));
-    openSet.put(openList.get(0), openList.get(0));
 
     AStarCellPoint currentNode = null;
 
     // Get current VBL for map...
-    // Using JTS because AWT Area can only intersect with Area and we want to use simple lines here.
-    // Render VBL to Geometry class once and store.
-    // Note: zoneRenderer will be null if map is not visible to players.
-    if (MapTool.getFrame().getCurrentZoneRenderer() != null)
-      vbl = MapTool.getFrame().getCurrentZoneRenderer().getZoneView().getTopologyTree().getArea();
-
-    if (!vbl.isEmpty()) {
-      try {
-        vblGeometry =
-            shapeReader
-                .read(vbl.getPathIterator(null))
-                .buffer(1); // .buffer helps creating valid geometry and prevent self-intersecting
-        // polygons
-        if (!vblGeometry.isValid())
-          log.info(
-              "vblGeometry is invalid! May cause issues. Check for self-intersecting polygons.");
-      } catch (Exception e) {
-        log.info("vblGeometry oh oh: ", e);
-      }
-
-      // log.info("vblGeometry bounds: " + vblGeometry.toString());
-    }
+    updateVblIndex();
 
     // Erase previous debug labels, this actually erases ALL labels! Use only when debugging!
     if (!zone.getLabels().isEmpty() && debugCosts) {
@@ -169,42 +215,44 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     }
 
     // Timeout quicker for GM cause reasons
-    if (MapTool.getPlayer().isGM()) estimatedTimeoutNeeded = estimatedTimeoutNeeded / 2;
+    if (MapTool.getPlayer() != null && MapTool.getPlayer().isGM())
+      estimatedTimeoutNeeded = estimatedTimeoutNeeded / 2;
 
     // log.info("A* Path timeout estimate: " + estimatedTimeoutNeeded);
 
+    searchCompleted = true;
     while (!openList.isEmpty()) {
       if (System.currentTimeMillis() > timeOut + estimatedTimeoutNeeded) {
         log.info("Timing out after " + estimatedTimeoutNeeded);
+        searchCompleted = false;
         break;
       }
 
-      currentNode = openList.remove(0);
-      openSet.remove(currentNode);
+      currentNode = openList.poll();
       if (currentNode.equals(goal)) {
         break;
       }
+      expandedNodes++;
 
-      for (AStarCellPoint currentNeighbor : getNeighbors(currentNode, closedSet)) {
+      for (AStarCellPoint currentNeighbor : getNeighbors(currentNode)) {
         currentNeighbor.h = hScore(currentNeighbor, goal);
         showDebugInfo(currentNeighbor);
 
-        if (openSet.containsKey(currentNeighbor)) {
+        AStarCellPoint oldNode = openList.get(currentNeighbor.x, currentNeighbor.y);
+        if (oldNode != null) {
           // check if it is cheaper to get here the way that we just came, versus the previous path
-          AStarCellPoint oldNode = openSet.get(currentNeighbor);
           if (currentNeighbor.gCost() < oldNode.gCost()) {
             oldNode.replaceG(currentNeighbor);
-            currentNeighbor = oldNode;
-            currentNeighbor.parent = currentNode;
+            oldNode.parent = currentNode;
+            openList.decreased(oldNode);
           }
           continue;
         }
 
-        pushNode(openList, currentNeighbor);
-        openSet.put(currentNeighbor, currentNeighbor);
+        openList.add(currentNeighbor);
       }
 
-      closedSet.add(currentNode);
+      closedSet.add(currentNode.x, currentNode.y);
       currentNode = null;
 
       // We now calculate paths off the main UI thread but only one at a time. If the token moves we
@@ -215,6 +263,7 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
       if (Thread.interrupted()) {
         // log.info("Thread interrupted!");
         openList.clear();
+        searchCompleted = false;
       }
     }
 
@@ -223,6 +272,7 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
       ret.add(currentNode);
       currentNode = currentNode.parent;
     }
+    pathFound = !ret.isEmpty();
 
     // Jamz We don't need to "calculate" distance after the fact as it's already stored as the G
     // cost...
@@ -239,9 +289,22 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
       ret.add(startCell);
     }
 
+    // Drop references to this search's nodes so they can be collected while the walker idles
+    openList.clear();
+    closedSet.clear();
+
     Collections.reverse(ret);
     timeOut = (System.currentTimeMillis() - timeOut);
     if (timeOut > 500) log.debug("Time to calculate A* path warning: " + timeOut + "ms");
+    if (log.isDebugEnabled())
+      log.debug(
+          "A* expanded "
+              + expandedNodes
+              + " nodes in "
+              + timeOut
+              + "ms ("
+              + (timeOut > 0 ? expandedNodes / timeOut : expandedNodes)
+              + " nodes/ms)");
 
     // if (retrievalCount > 0)
     // log.info("avgRetrieveTime: " + Math.floor(avgRetrieveTime / retrievalCount)/1000 + " micro");
@@ -251,43 +314,25 @@ protected List<CellPoint> calculatePath(CellPoint start, CellPoint goal) {
     return ret;
   }
 
-  void pushNode(List<AStarCellPoint> list, AStarCellPoint node) {
-    if (list.isEmpty()) {
-      list.add(node);
-      return;
-    }
-    if (node.fCost() < list.get(0).fCost()) {
-      list.add(0, node);
-      return;
-    }
-    if (node.fCost() > list.get(list.size() - 1).fCost()) {
-      list.add(node);
-      return;
-    }
-    for (ListIterator<AStarCellPoint> iter = list.listIterator(); iter.hasNext(); ) {
-      AStarCellPoint listNode = iter.next();
-      if (listNode.fCost() >= node.fCost()) {
-        iter.previous();
-        iter.add(node);
-        return;
-      }
-    }
-  }
-
-  protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPoint> closedSet) {
-    List<AStarCellPoint> neighbors = new ArrayList<AStarCellPoint>();
+  /**
+   * Returns the reachable, not yet closed neighbors of <code>node</code>. The returned list is a
+   * scratch buffer owned by this walker and is only valid until the next call.
+   */
+  protected List<AStarCellPoint> getNeighbors(AStarCellPoint node) {
+    neighbors.clear();
     int[][] neighborMap = getNeighborMap(node.x, node.y);
+    Set<CellPoint> occupiedCells = restrictMovement ? footprint.getOccupiedCells(node) : null;
 
     // Find all the neighbors.
     for (int[] neighborArray : neighborMap) {
       double terrainModifier = 0;
       boolean blockNode = false;
 
-      AStarCellPoint neighbor =
-          new AStarCellPoint(node.x + neighborArray[0], node.y + neighborArray[1]);
-      Set<CellPoint> occupiedCells = footprint.getOccupiedCells(node);
+      int nx = node.x + neighborArray[0];
+      int ny = node.y + neighborArray[1];
+      if (closedSet.contains(nx, ny) || !isSearchable(nx, ny)) continue;
 
-      if (closedSet.contains(neighbor)) continue;
+      AStarCellPoint neighbor = new AStarCellPoint(nx, ny);
 
       // Add the cell we're coming from
       neighbor.parent = node;
@@ -299,7 +344,7 @@ protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPo
 
           // VBL Check FIXME: Add to closed set?
           if (vblBlocksMovement(occupiedNode, neighbor)) {
-            closedSet.add(occupiedNode);
+            closedSet.add(occupiedNode.x, occupiedNode.y);
             blockNode = true;
             break;
           }
@@ -308,12 +353,8 @@ protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPo
         if (blockNode) continue;
 
         // Check for terrain modifiers
-        for (AStarCellPoint cell : terrainCells) {
-          if (cell.equals(neighbor)) {
-            terrainModifier += cell.terrainModifier;
-            // log.info("terrainModifier for " + cell + " = " + cell.terrainModifier);
-          }
-        }
+        AStarCellPoint terrainCell = terrainCells.get(nx, ny);
+        if (terrainCell != null) terrainModifier = terrainCell.terrainModifier;
       }
 
       // Tokens with no terrainModifier set would be a zero so multiplier is set to 1 in that case
@@ -333,7 +374,7 @@ protected List<AStarCellPoint> getNeighbors(AStarCellPoint node, Set<AStarCellPo
   }
 
   private boolean vblBlocksMovement(AStarCellPoint start, AStarCellPoint goal) {
-    if (vblGeometry == null) return false;
+    if (vblIndex == null || vblIndex.isEmpty()) return false;
 
     // Stopwatch stopwatch = Stopwatch.createStarted();
     AStarCellPoint checkNode = checkedList.get(goal);
@@ -358,29 +399,17 @@ private boolean vblBlocksMovement(AStarCellPoint start, AStarCellPoint goal) {
 
     if (goalBounds.isEmpty() || startBounds.isEmpty()) return false;
 
-    // If there is no vbl within the footprints, we're good!
-    if (!vbl.intersects(startBounds) && !vbl.intersects(goalBounds)) return false;
-
-    // If the goal center point is in vbl, allow to maintain path through vbl (should be GM only?)
-    if (vbl.contains(goal.toPoint())) {
-      // Allow GM to move through VBL
-      // return !MapTool.getPlayer().isGM();
-    }
-
-    // NEW WAY - use polygon test
+    // NEW WAY - test the center ray against the VBL edges around it
     double x1 = startBounds.getCenterX();
     double y1 = startBounds.getCenterY();
     double x2 = goalBounds.getCenterX();
     double y2 = goalBounds.getCenterY();
-    LineString centerRay =
-        geometryFactory.createLineString(
-            new Coordinate[] {new Coordinate(x1, y1), new Coordinate(x2, y2)});
 
     boolean blocksMovement;
     try {
-      blocksMovement = vblGeometry.intersects(centerRay);
+      blocksMovement = vblIndex.blocksMovement(x1, y1, x2, y2);
     } catch (Exception e) {
-      log.info("clipped.intersects oh oh: ", e);
+      log.info("vblIndex.blocksMovement oh oh: ", e);
       return true;
     }
 
@@ -0,0 +1,97 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of packed cell keys (see {@link CellPointMap#key(int, int)}). This is
+ * the closed set of the A* search; like {@link CellPointMap} it is cleared rather than reallocated
+ * between searches.
+ */
+class CellKeySet {
+  private static final long EMPTY = Long.MIN_VALUE;
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private long[] keys;
+  private int mask;
+  private int size;
+  private int resizeAt;
+
+  CellKeySet() {
+    this(256);
+  }
+
+  CellKeySet(int expectedSize) {
+    allocate(CellPointMap.tableSizeFor(expectedSize));
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    mask = capacity - 1;
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+  }
+
+  boolean contains(int x, int y) {
+    long key = CellPointMap.key(x, y);
+    for (int i = CellPointMap.hash(key) & mask; ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) return true;
+      if (k == EMPTY) return false;
+    }
+  }
+
+  /**
+   * Adds the cell at (x, y) to the set.
+   *
+   * @param x the cell x coordinate
+   * @param y the cell y coordinate
+   * @return <code>true</code> if the cell was not already present
+   */
+  boolean add(int x, int y) {
+    long key = CellPointMap.key(x, y);
+    int i = CellPointMap.hash(key) & mask;
+    for (; ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) return false;
+      if (k == EMPTY) break;
+    }
+    keys[i] = key;
+    if (++size >= resizeAt) rehash(keys.length << 1);
+    return true;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    allocate(capacity);
+    for (long key : oldKeys) {
+      if (key == EMPTY) continue;
+      int i = CellPointMap.hash(key) & mask;
+      while (keys[i] != EMPTY) i = (i + 1) & mask;
+      keys[i] = key;
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    if (size == 0) return;
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+  }
+}
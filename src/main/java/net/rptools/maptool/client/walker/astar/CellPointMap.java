@@ -0,0 +1,134 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table from packed cell keys (see {@link #key(int, int)}) to {@link
+ * AStarCellPoint}s. Used by the A* walkers in place of a boxed {@code HashMap<AStarCellPoint, ?>}
+ * so that lookups in the inner loop neither allocate nor hash strings.
+ *
+ * <p>Clearing keeps the backing arrays, so one instance can be reused for every path calculation a
+ * walker performs.
+ */
+class CellPointMap {
+  private static final long EMPTY = Long.MIN_VALUE;
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private long[] keys;
+  private AStarCellPoint[] values;
+  private int mask;
+  private int size;
+  private int resizeAt;
+
+  CellPointMap() {
+    this(256);
+  }
+
+  CellPointMap(int expectedSize) {
+    allocate(tableSizeFor(expectedSize));
+  }
+
+  /**
+   * Packs grid coordinates into a single long key.
+   *
+   * @param x the cell x coordinate
+   * @param y the cell y coordinate
+   * @return the packed key
+   */
+  static long key(int x, int y) {
+    return ((long) x << 32) | (y & 0xFFFFFFFFL);
+  }
+
+  static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  static int tableSizeFor(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedSize) capacity <<= 1;
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new AStarCellPoint[capacity];
+    mask = capacity - 1;
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+  }
+
+  AStarCellPoint get(int x, int y) {
+    long key = key(x, y);
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) return values[i];
+      if (k == EMPTY) return null;
+    }
+  }
+
+  /**
+   * Maps the cell of <code>value</code> to <code>value</code>, replacing any previous mapping.
+   *
+   * @param value the cell to store
+   */
+  void put(AStarCellPoint value) {
+    long key = key(value.x, value.y);
+    int i = hash(key) & mask;
+    for (; ; i = (i + 1) & mask) {
+      long k = keys[i];
+      if (k == key) {
+        values[i] = value;
+        return;
+      }
+      if (k == EMPTY) break;
+    }
+    keys[i] = key;
+    values[i] = value;
+    if (++size >= resizeAt) rehash(keys.length << 1);
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    AStarCellPoint[] oldValues = values;
+    allocate(capacity);
+    for (int j = 0; j < oldKeys.length; j++) {
+      long key = oldKeys[j];
+      if (key == EMPTY) continue;
+      int i = hash(key) & mask;
+      while (keys[i] != EMPTY) i = (i + 1) & mask;
+      keys[i] = key;
+      values[i] = oldValues[j];
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Removes every mapping but keeps the allocated table for reuse. */
+  void clear() {
+    if (size == 0) return;
+    Arrays.fill(keys, EMPTY);
+    Arrays.fill(values, null);
+    size = 0;
+  }
+}
@@ -24,6 +24,7 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -59,6 +60,9 @@ public enum RepoState {
       new HashMap<String, Map<String, String>>();
   private final Map<String, RepoState> repositoryStateMap = new HashMap<String, RepoState>();
 
+  /** Assets on screen in the current zone, which are asked of the server ahead of the others. */
+  private static volatile Set<MD5Key> urgentAssets = Collections.emptySet();
+
   public synchronized void addRepository(String repository) {
     // Assume active, unless we find otherwise during setup
     repositoryStateMap.put(repository, RepoState.ACTIVE);
@@ -200,6 +204,14 @@ protected File getRepoIndexFile(String repository) {
     return new File(REPO_CACHE_DIR.getAbsolutePath() + "/" + new MD5Key(repository.getBytes()));
   }
 
+  /**
+   * Sets the assets on screen in the current zone. Called by its renderer on the EDT with a set
+   * that it goes on adding to as it draws, so the set must be safe to read from other threads.
+   */
+  public static void setUrgentAssets(Set<MD5Key> assets) {
+    urgentAssets = assets;
+  }
+
   public synchronized void requestAsset(MD5Key id) {
     retrievalThreadPool.submit(new ImageRetrievalRequest(id, createRequestQueue(id)));
     requestedIdSet.add(id);
@@ -296,7 +308,7 @@ public void run() {
       // We can drop off the end of this runnable because it'll background load the
       // image from the server
       // System.out.println("Got " + id + " from MT");
-      MapTool.serverCommand().getAsset(id);
+      MapTool.serverCommand().getAsset(id, urgentAssets.contains(id));
     }
   }
 }
@@ -37,6 +37,7 @@
 import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.AppUtil;
 import net.rptools.maptool.client.MapTool;
+import net.rptools.maptool.util.MemoryBoundedCache;
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -50,8 +51,23 @@
 public class AssetManager {
   private static final Logger log = LogManager.getLogger(AssetManager.class);
 
-  /** Assets are associated with the MD5 sum of their raw data */
-  private static Map<MD5Key, Asset> assetMap = new ConcurrentHashMap<MD5Key, Asset>();
+  /** Share of the maximum heap that asset data may hold on to before the oldest are evicted. */
+  private static final double ASSET_CACHE_HEAP_FRACTION = 0.125;
+
+  /**
+   * Assets are associated with the MD5 sum of their raw data. The cache is bounded by the bytes of
+   * asset data it holds; an evicted asset is read back from the persistent cache when next needed,
+   * so only assets already written there are ever evicted.
+   */
+  private static final MemoryBoundedCache<MD5Key, Asset> assetMap =
+      new MemoryBoundedCache<MD5Key, Asset>(
+          "Asset cache",
+          (long) (Runtime.getRuntime().maxMemory() * ASSET_CACHE_HEAP_FRACTION),
+          asset -> asset.getImage() != null ? asset.getImage().length : 0,
+          (id, asset) -> canReloadFromPersistentCache(asset));
+
+  /** Every asset that has been put in the cache this session, whether still in memory or not */
+  private static Set<MD5Key> knownAssets = ConcurrentHashMap.newKeySet();
 
   /** Location of the cache on the filesystem */
   private static File cacheDir;
@@ -211,6 +227,7 @@ public static void putAsset(Asset asset) {
     }
 
     assetMap.put(asset.getId(), asset);
+    knownAssets.add(asset.getId());
 
     // Invalid images are represented by empty assets.
     // Don't persist those
@@ -318,6 +335,12 @@ public static Asset getAsset(MD5Key id) {
    */
   public static void removeAsset(MD5Key id) {
     assetMap.remove(id);
+    knownAssets.remove(id);
+  }
+
+  /** @return hit rate and resident size of the in-memory asset cache */
+  public static MemoryBoundedCache.Stats getCacheStats() {
+    return assetMap.getStats();
   }
 
   /**
@@ -393,6 +416,7 @@ private static Asset getFromPersistentCache(MD5Key id) {
       }
 
       assetMap.put(id, asset);
+      knownAssets.add(id);
 
       return asset;
     } catch (IOException ioe) {
@@ -401,6 +425,21 @@ private static Asset getFromPersistentCache(MD5Key id) {
     }
   }
 
+  /**
+   * Determine whether the asset's data has been completely written to the persistent cache, so
+   * that it can be dropped from memory and read back later.
+   *
+   * @param asset Asset to check
+   * @return True if the persistent cache holds all of the asset's data
+   */
+  private static boolean canReloadFromPersistentCache(Asset asset) {
+    if (!usePersistentCache || asset.getImage() == null || asset.getImage().length == 0) {
+      return false;
+    }
+    // The data is written on a background thread, so the file may still be partial
+    return getAssetCacheFile(asset).length() == asset.getImage().length;
+  }
+
   /**
    * Create an asset from a file.
    *
@@ -753,17 +792,22 @@ public static Map<MD5Key, Asset> findAllAssetsNotInRepositories(List<String> rep
     }
 
     /*
-     * The 'aggregate' now holds the sum total of all asset keys that are in repositories. Now we go through the 'assetMap' and copy over <K,V> pairs that are NOT in 'aggregate' to our 'missing'
+     * The 'aggregate' now holds the sum total of all asset keys that are in repositories. Now we go through the 'knownAssets' and copy over <K,V> pairs that are NOT in 'aggregate' to our 'missing'
      * Map.
      *
      * Unfortunately, the repository is a Map<String, String> while the return value is going to be a Map<MD5Key, Asset>, which means each individual entry needs to be checked and references
      * copied. If both were the same data type, converting both to Set<String> would allow for an addAll() and removeAll() and be done with it!
      */
     Map<MD5Key, Asset> missing =
-        new HashMap<MD5Key, Asset>(Math.min(assetMap.size(), aggregate.size()));
-    for (MD5Key key : assetMap.keySet()) {
-      if (aggregate.contains(key) == false) // Not in any repository so add it.
-      missing.put(key, assetMap.get(key));
+        new HashMap<MD5Key, Asset>(Math.min(knownAssets.size(), aggregate.size()));
+    for (MD5Key key : knownAssets) {
+      if (aggregate.contains(key) == false) { // Not in any repository so add it.
+        // May have been evicted from memory, in which case this reads it back in
+        Asset asset = getAsset(key);
+        if (asset != null) {
+          missing.put(key, asset);
+        }
+      }
     }
     return missing;
   }
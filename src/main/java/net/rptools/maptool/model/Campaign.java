@@ -141,15 +141,28 @@ public List<String> getRemoteRepositoryList() {
    * @param campaign The campaign to copy from.
    */
   public Campaign(Campaign campaign) {
+    this(campaign, true);
+  }
+
+  /**
+   * Create a new campaign with an old campaign's properties.
+   *
+   * @param campaign The campaign to copy from.
+   * @param copyZones false to leave the zones out, for a caller that copies them in itself with
+   *     {@link #putZone(Zone)}
+   */
+  public Campaign(Campaign campaign, boolean copyZones) {
     zones = Collections.synchronizedMap(new LinkedHashMap<GUID, Zone>());
 
     /*
      * JFJ 2010-10-27 Don't forget that since these are new zones AND new tokens created here from the old one, if you have any data that needs to transfer over you will need to manually copy it
      * as is done below for the campaign properties and macro buttons.
      */
-    for (Entry<GUID, Zone> entry : campaign.zones.entrySet()) {
-      Zone copy = new Zone(entry.getValue(), true);
-      zones.put(copy.getId(), copy);
+    if (copyZones) {
+      for (Entry<GUID, Zone> entry : campaign.zones.entrySet()) {
+        Zone copy = new Zone(entry.getValue(), true);
+        zones.put(copy.getId(), copy);
+      }
     }
     campaignProperties = new CampaignProperties(campaign.campaignProperties);
     macroButtonProperties =
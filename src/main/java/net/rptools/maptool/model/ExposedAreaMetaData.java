@@ -18,6 +18,8 @@
 
 public class ExposedAreaMetaData {
   private Area exposedAreaHistory;
+  /** Used instead of {@link #exposedAreaHistory} when the zone keeps its fog as a raster. */
+  private FogRaster exposedAreaRaster;
 
   public ExposedAreaMetaData() {
     exposedAreaHistory = new Area();
@@ -27,26 +29,81 @@ public ExposedAreaMetaData(Area area) {
     exposedAreaHistory = new Area(area);
   }
 
+  /** Creates an empty history held as a raster with the given cell size. */
+  public ExposedAreaMetaData(int fogCellSize) {
+    exposedAreaRaster = new FogRaster(fogCellSize);
+  }
+
+  /**
+   * Returns the exposed area. For a raster history this is built from the raster and shared, so it
+   * must not be modified; use the methods here instead.
+   */
   public Area getExposedAreaHistory() {
     // if (exposedAreaHistory == null) {
     // exposedAreaHistory = new Area();
     // }
+    if (exposedAreaRaster != null) {
+      return exposedAreaRaster.toArea();
+    }
     return exposedAreaHistory;
   }
 
+  /** @return the raster holding the history, or null if it is held as an area */
+  public FogRaster getExposedAreaRaster() {
+    return exposedAreaRaster;
+  }
+
+  /** @return true if the point has been exposed */
+  public boolean contains(double x, double y) {
+    if (exposedAreaRaster != null) {
+      return exposedAreaRaster.contains(x, y);
+    }
+    return exposedAreaHistory.contains(x, y);
+  }
+
   public void addToExposedAreaHistory(Area newArea) {
     if (newArea != null && !newArea.isEmpty()) {
-      exposedAreaHistory.add(newArea);
+      if (exposedAreaRaster != null) {
+        exposedAreaRaster.add(newArea);
+      } else {
+        exposedAreaHistory.add(newArea);
+      }
     }
   }
 
   public void removeExposedAreaHistory(Area newArea) {
     if (newArea != null && !newArea.isEmpty()) {
-      exposedAreaHistory.subtract(newArea);
+      if (exposedAreaRaster != null) {
+        exposedAreaRaster.subtract(newArea);
+      } else {
+        exposedAreaHistory.subtract(newArea);
+      }
     }
   }
 
   public void clearExposedAreaHistory() {
-    exposedAreaHistory = new Area();
+    if (exposedAreaRaster != null) {
+      exposedAreaRaster.clear();
+    } else {
+      exposedAreaHistory = new Area();
+    }
+  }
+
+  /**
+   * Converts the history between the two representations. Converting to a raster rounds the area
+   * to whole cells.
+   *
+   * @param fogCellSize the raster cell size, or 0 to hold the history as an area
+   */
+  void setFogCellSize(int fogCellSize) {
+    Area area = getExposedAreaHistory();
+    if (fogCellSize <= 0) {
+      exposedAreaHistory = new Area(area);
+      exposedAreaRaster = null;
+    } else if (exposedAreaRaster == null || exposedAreaRaster.getCellSize() != fogCellSize) {
+      exposedAreaRaster = new FogRaster(fogCellSize);
+      exposedAreaRaster.add(area);
+      exposedAreaHistory = null;
+    }
   }
 }
@@ -0,0 +1,491 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An exposed fog area held as a grid of square cells rather than as an {@link Area}. Each row of
+ * the grid is a sorted list of runs of exposed cells, so adding or hiding an area costs time in
+ * proportion to the number of runs, however many times the area has been added to before. A cell
+ * is exposed when its center is inside an exposed area.
+ *
+ * <p>Only the compact encoding from {@link #toBytes()} is saved and sent over the network; the
+ * runs and the {@link Area} built from them are recreated from it when first needed.
+ */
+public class FogRaster {
+  private static final int ENCODING_VERSION = 1;
+
+  /** Rows rasterized at a time, to bound the size of the scratch image. */
+  private static final int STRIP_ROWS = 256;
+
+  private static final int[] EMPTY_ROW = new int[0];
+  private static final int[][] NO_ROWS = new int[0][];
+
+  private int cellSize;
+
+  /** The encoding of {@link #rows}, or null until it is next needed after a change. */
+  private byte[] data;
+
+  /** The grid row of the first entry in {@link #rows}. */
+  private transient int top;
+
+  /** Each row holds start and end (exclusive) cell columns of its runs, in order. */
+  private transient int[][] rows;
+
+  private transient Area area;
+
+  /** For serialization. */
+  protected FogRaster() {}
+
+  /** @param cellSize the width and height of a grid cell, in zone units */
+  public FogRaster(int cellSize) {
+    if (cellSize < 1) {
+      throw new IllegalArgumentException("Fog cell size must be positive: " + cellSize);
+    }
+    this.cellSize = cellSize;
+    setRows(0, NO_ROWS);
+  }
+
+  public FogRaster(FogRaster raster) {
+    cellSize = raster.cellSize;
+    data = raster.getData();
+  }
+
+  /**
+   * Recreates a raster from {@link #toBytes()}.
+   *
+   * @throws IllegalArgumentException if the data is not a fog raster encoding
+   */
+  public static FogRaster fromBytes(byte[] bytes) {
+    FogRaster raster = new FogRaster();
+    raster.data = bytes.clone();
+    raster.decode();
+    return raster;
+  }
+
+  public int getCellSize() {
+    return cellSize;
+  }
+
+  /** @return the compressed encoding of the exposed cells */
+  public byte[] toBytes() {
+    return getData().clone();
+  }
+
+  public boolean isEmpty() {
+    return getRows().length == 0;
+  }
+
+  public void clear() {
+    setRows(0, NO_ROWS);
+  }
+
+  public void add(Shape shape) {
+    if (shape != null) {
+      FogRaster other = rasterize(shape);
+      union(other.top, other.rows);
+    }
+  }
+
+  public void add(FogRaster raster) {
+    if (raster.cellSize == cellSize) {
+      union(raster.top, raster.getRows());
+    } else {
+      add(raster.toArea());
+    }
+  }
+
+  public void subtract(Shape shape) {
+    if (shape == null || isEmpty()) {
+      return;
+    }
+    FogRaster other = rasterize(shape);
+    int[][] current = getRows();
+    int[][] result = new int[current.length][];
+    for (int i = 0; i < current.length; i++) {
+      result[i] = difference(current[i], other.getRow(top + i));
+    }
+    setRows(top, result);
+  }
+
+  /** @return true if the cell holding the point is exposed */
+  public boolean contains(double x, double y) {
+    int[] row = getRow((int) Math.floor(y / cellSize));
+    int col = (int) Math.floor(x / cellSize);
+    // Find the last run starting at or before the column
+    int low = 0;
+    int high = row.length / 2 - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (row[mid * 2] <= col) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high >= 0 && col < row[high * 2 + 1];
+  }
+
+  /** @return the bounds of the exposed cells, in zone units */
+  public Rectangle getBounds() {
+    int[][] current = getRows();
+    int left = Integer.MAX_VALUE;
+    int right = Integer.MIN_VALUE;
+    for (int[] row : current) {
+      if (row.length > 0) {
+        left = Math.min(left, row[0]);
+        right = Math.max(right, row[row.length - 1]);
+      }
+    }
+    if (current.length == 0) {
+      return new Rectangle();
+    }
+    return new Rectangle(
+        left * cellSize, top * cellSize, (right - left) * cellSize, current.length * cellSize);
+  }
+
+  /**
+   * Returns the exposed cells as an area. The area is built once per change and shared, so it
+   * must not be modified.
+   */
+  public Area toArea() {
+    if (area == null) {
+      int[][] current = getRows();
+      GeneralPath path = new GeneralPath();
+      // Runs repeated on consecutive rows become one rectangle
+      Map<Long, Integer> open = new HashMap<Long, Integer>();
+      for (int i = 0; i <= current.length; i++) {
+        int[] row = i < current.length ? current[i] : EMPTY_ROW;
+        Map<Long, Integer> next = new HashMap<Long, Integer>();
+        for (int j = 0; j < row.length; j += 2) {
+          long key = ((long) row[j] << 32) | (row[j + 1] & 0xffffffffL);
+          Integer first = open.remove(key);
+          next.put(key, first != null ? first : i);
+        }
+        // Whatever is left open has ended on the previous row
+        for (Map.Entry<Long, Integer> entry : open.entrySet()) {
+          int start = (int) (entry.getKey() >> 32);
+          int end = (int) (long) entry.getKey();
+          int first = entry.getValue();
+          path.append(
+              new Rectangle(
+                  start * cellSize,
+                  (top + first) * cellSize,
+                  (end - start) * cellSize,
+                  (i - first) * cellSize),
+              false);
+        }
+        open = next;
+      }
+      area = new Area(path);
+    }
+    return area;
+  }
+
+  private byte[] getData() {
+    if (data == null) {
+      data = encode();
+    }
+    return data;
+  }
+
+  /** Makes sure the encoding is there to be saved or sent. */
+  private Object writeReplace() {
+    getData();
+    return this;
+  }
+
+  private int[][] getRows() {
+    if (rows == null) {
+      decode();
+    }
+    return rows;
+  }
+
+  private int[] getRow(int row) {
+    int[][] current = getRows();
+    int index = row - top;
+    return index >= 0 && index < current.length ? current[index] : EMPTY_ROW;
+  }
+
+  private void union(int otherTop, int[][] otherRows) {
+    if (otherRows.length == 0) {
+      return;
+    }
+    int[][] current = getRows();
+    if (current.length == 0) {
+      setRows(otherTop, otherRows.clone());
+      return;
+    }
+    int newTop = Math.min(top, otherTop);
+    int newBottom = Math.max(top + current.length, otherTop + otherRows.length);
+    int[][] result = new int[newBottom - newTop][];
+    for (int i = 0; i < result.length; i++) {
+      int row = newTop + i;
+      int index = row - otherTop;
+      int[] other = index >= 0 && index < otherRows.length ? otherRows[index] : EMPTY_ROW;
+      result[i] = union(getRow(row), other);
+    }
+    setRows(newTop, result);
+  }
+
+  /** Trims empty rows from either end, then re-encodes. */
+  private void setRows(int newTop, int[][] newRows) {
+    int first = 0;
+    int last = newRows.length;
+    while (first < last && newRows[first].length == 0) {
+      first++;
+    }
+    while (last > first && newRows[last - 1].length == 0) {
+      last--;
+    }
+    if (first == last) {
+      top = 0;
+      rows = NO_ROWS;
+    } else {
+      top = newTop + first;
+      rows =
+          first == 0 && last == newRows.length
+              ? newRows
+              : Arrays.copyOfRange(newRows, first, last);
+    }
+    area = null;
+    data = null;
+  }
+
+  private static int[] union(int[] a, int[] b) {
+    if (b.length == 0) {
+      return a;
+    }
+    if (a.length == 0) {
+      return b;
+    }
+    int[] result = new int[a.length + b.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length || j < b.length) {
+      int start;
+      int end;
+      if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+        start = a[i];
+        end = a[i + 1];
+        i += 2;
+      } else {
+        start = b[j];
+        end = b[j + 1];
+        j += 2;
+      }
+      if (count > 0 && start <= result[count - 1]) {
+        // Overlaps or touches the previous run
+        result[count - 1] = Math.max(result[count - 1], end);
+      } else {
+        result[count++] = start;
+        result[count++] = end;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  private static int[] difference(int[] a, int[] b) {
+    if (a.length == 0 || b.length == 0) {
+      return a;
+    }
+    // Each run of b can split at most one run of a in two
+    int[] result = new int[a.length + b.length];
+    int count = 0;
+    int j = 0;
+    for (int i = 0; i < a.length; i += 2) {
+      int start = a[i];
+      int end = a[i + 1];
+      // Skip runs of b that end before this run starts
+      while (j < b.length && b[j + 1] <= start) {
+        j += 2;
+      }
+      int k = j;
+      while (k < b.length && b[k] < end) {
+        if (b[k] > start) {
+          result[count++] = start;
+          result[count++] = b[k];
+        }
+        start = Math.max(start, b[k + 1]);
+        k += 2;
+      }
+      if (start < end) {
+        result[count++] = start;
+        result[count++] = end;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /** Rasterizes the shape into a new raster with the same cell size. */
+  private FogRaster rasterize(Shape shape) {
+    FogRaster raster = new FogRaster();
+    raster.cellSize = cellSize;
+    raster.rows = NO_ROWS;
+    Rectangle2D bounds = shape.getBounds2D();
+    if (bounds.isEmpty()) {
+      return raster;
+    }
+    int left = (int) Math.floor(bounds.getMinX() / cellSize);
+    int right = (int) Math.ceil(bounds.getMaxX() / cellSize);
+    int rasterTop = (int) Math.floor(bounds.getMinY() / cellSize);
+    int rasterBottom = (int) Math.ceil(bounds.getMaxY() / cellSize);
+    int width = right - left;
+    int[][] result = new int[rasterBottom - rasterTop][];
+
+    BufferedImage strip =
+        new BufferedImage(
+            width, Math.min(STRIP_ROWS, result.length), BufferedImage.TYPE_BYTE_GRAY);
+    byte[] pixels = ((DataBufferByte) strip.getRaster().getDataBuffer()).getData();
+    int[] runs = new int[16];
+    for (int stripTop = rasterTop; stripTop < rasterBottom; stripTop += STRIP_ROWS) {
+      Arrays.fill(pixels, (byte) 0);
+      Graphics2D g = strip.createGraphics();
+      // Without antialiasing a pixel, here a cell, is filled when its center is inside
+      g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+      g.setColor(Color.WHITE);
+      g.scale(1.0 / cellSize, 1.0 / cellSize);
+      g.translate(-(double) left * cellSize, -(double) stripTop * cellSize);
+      g.fill(shape);
+      g.dispose();
+
+      int stripRows = Math.min(STRIP_ROWS, rasterBottom - stripTop);
+      for (int y = 0; y < stripRows; y++) {
+        int count = 0;
+        int offset = y * width;
+        for (int x = 0; x < width; x++) {
+          if (pixels[offset + x] == 0) {
+            continue;
+          }
+          int start = x;
+          while (x < width && pixels[offset + x] != 0) {
+            x++;
+          }
+          if (count + 2 > runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+          }
+          runs[count++] = left + start;
+          runs[count++] = left + x;
+        }
+        result[stripTop - rasterTop + y] = count == 0 ? EMPTY_ROW : Arrays.copyOf(runs, count);
+      }
+    }
+    raster.top = rasterTop;
+    raster.rows = result;
+    return raster;
+  }
+
+  /**
+   * Encodes the version, cell size, first row and row count, then each row as its run count
+   * followed by the first column and the gaps between successive run boundaries, all as variable
+   * length integers, and deflates the lot.
+   */
+  private byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream out = new DeflaterOutputStream(bytes)) {
+      writeVarInt(out, ENCODING_VERSION);
+      writeVarInt(out, cellSize);
+      writeVarInt(out, zigZag(top));
+      writeVarInt(out, rows.length);
+      for (int[] row : rows) {
+        writeVarInt(out, row.length / 2);
+        for (int i = 0; i < row.length; i++) {
+          writeVarInt(out, i == 0 ? zigZag(row[0]) : row[i] - row[i - 1]);
+        }
+      }
+    } catch (IOException e) {
+      // Can't happen writing to memory
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void decode() {
+    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+      int version = readVarInt(in);
+      if (version != ENCODING_VERSION) {
+        throw new IllegalArgumentException("Unknown fog raster encoding version " + version);
+      }
+      cellSize = readVarInt(in);
+      int decodedTop = unZigZag(readVarInt(in));
+      int[][] decodedRows = new int[readVarInt(in)][];
+      for (int r = 0; r < decodedRows.length; r++) {
+        int[] row = new int[readVarInt(in) * 2];
+        for (int i = 0; i < row.length; i++) {
+          row[i] = i == 0 ? unZigZag(readVarInt(in)) : row[i - 1] + readVarInt(in);
+        }
+        decodedRows[r] = row;
+      }
+      top = decodedTop;
+      rows = decodedRows;
+      area = null;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupt fog raster data", e);
+    }
+  }
+
+  static int zigZag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  static int unZigZag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  static void writeVarInt(OutputStream out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  static int readVarInt(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Unexpected end of fog data");
+      }
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed fog data");
+  }
+}
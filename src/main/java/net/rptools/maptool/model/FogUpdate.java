@@ -0,0 +1,273 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * One numbered change to the fog of a zone, as sent by the server to its clients. The server
+ * numbers the changes to each zone in order with {@link Zone#nextFogVersion()}; a client that
+ * finds a number missing asks for a {@link Type#SNAPSHOT} of the whole fog instead.
+ *
+ * <p>Areas are carried in a compact encoding: as a {@link FogRaster} when the zone keeps its fog
+ * as a raster, and otherwise as a deflated path with coordinates rounded to 1/64 of a zone unit.
+ */
+public class FogUpdate {
+  public enum Type {
+    /** Adds the area to the global exposed area or that of the tokens. */
+    EXPOSE,
+    /** Removes the area from the global exposed area or that of the tokens. */
+    HIDE,
+    /** Replaces the global exposed area or that of the tokens with the area. */
+    SET,
+    /** Replaces the exposed area history held under one exposed area GUID. */
+    TOKEN_HISTORY,
+    /** Replaces all exposed areas of the zone. */
+    SNAPSHOT
+  }
+
+  /** What {@link #applyInOrder(Zone)} did with an update. */
+  public enum Outcome {
+    /** The zone is now at the update's version. */
+    APPLIED,
+    /** The zone was already at or past the update's version, so it was left alone. */
+    ALREADY_APPLIED,
+    /** An earlier update is missing, so the zone was left alone and needs a snapshot. */
+    MISSED_UPDATE
+  }
+
+  private static final int COORDINATE_SCALE = 64;
+
+  private Type type;
+  private int version;
+  private int cellSize;
+  private byte[] area;
+  private Set<GUID> tokens;
+  private GUID exposedAreaGUID;
+  private Map<GUID, byte[]> histories;
+
+  /** For serialization. */
+  protected FogUpdate() {}
+
+  private FogUpdate(Type type, int version, int cellSize) {
+    this.type = type;
+    this.version = version;
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Creates an update that exposes, hides or sets an area.
+   *
+   * @param tokens the tokens whose exposed areas change, or null for the global exposed area
+   */
+  public static FogUpdate create(Type type, Zone zone, int version, Area area, Set<GUID> tokens) {
+    if (type == Type.TOKEN_HISTORY || type == Type.SNAPSHOT) {
+      throw new IllegalArgumentException("Not an area update: " + type);
+    }
+    FogUpdate update = new FogUpdate(type, version, zone.getFogCellSize());
+    update.area = update.encode(area);
+    update.tokens = tokens != null ? new HashSet<GUID>(tokens) : null;
+    return update;
+  }
+
+  /** Creates an update that replaces the exposed area history held under one exposed area GUID. */
+  public static FogUpdate createTokenHistory(
+      Zone zone, int version, GUID exposedAreaGUID, Area history) {
+    FogUpdate update = new FogUpdate(Type.TOKEN_HISTORY, version, zone.getFogCellSize());
+    update.exposedAreaGUID = exposedAreaGUID;
+    update.area = update.encode(history);
+    return update;
+  }
+
+  /** Creates an update that carries all the exposed areas of the zone as of its current version. */
+  public static FogUpdate createSnapshot(Zone zone) {
+    FogUpdate update = new FogUpdate(Type.SNAPSHOT, zone.getFogVersion(), zone.getFogCellSize());
+    update.area = update.encode(zone.getExposedArea());
+    update.histories = new HashMap<GUID, byte[]>();
+    for (Map.Entry<GUID, ExposedAreaMetaData> entry : zone.getExposedAreaMetaData().entrySet()) {
+      if (entry.getValue() != null) {
+        update.histories.put(
+            entry.getKey(), update.encode(entry.getValue().getExposedAreaHistory()));
+      }
+    }
+    return update;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  /**
+   * Applies the update to the zone and moves the zone to its version. The zone must be at the
+   * version before this one, unless this is a snapshot.
+   */
+  public void apply(Zone zone) {
+    switch (type) {
+      case EXPOSE:
+        zone.exposeArea(decode(area), tokens);
+        break;
+      case HIDE:
+        zone.hideArea(decode(area), tokens);
+        break;
+      case SET:
+        zone.setFogArea(decode(area), tokens);
+        break;
+      case TOKEN_HISTORY:
+        zone.setExposedAreaMetaData(exposedAreaGUID, new ExposedAreaMetaData(decode(area)));
+        break;
+      case SNAPSHOT:
+        zone.clearExposedArea();
+        zone.setFogArea(decode(area), null);
+        for (Map.Entry<GUID, byte[]> entry : histories.entrySet()) {
+          zone.setExposedAreaMetaData(
+              entry.getKey(), new ExposedAreaMetaData(decode(entry.getValue())));
+        }
+        break;
+    }
+    zone.setFogVersion(version);
+  }
+
+  /**
+   * Applies the update if it is the next one for the zone, or a snapshot. Updates arrive in order,
+   * so one numbered past the next means an update was lost.
+   */
+  public Outcome applyInOrder(Zone zone) {
+    if (type == Type.SNAPSHOT || version == zone.getFogVersion() + 1) {
+      apply(zone);
+      return Outcome.APPLIED;
+    }
+    // An older version means it's already applied, as when hosting and sharing the server's zone
+    return version > zone.getFogVersion() ? Outcome.MISSED_UPDATE : Outcome.ALREADY_APPLIED;
+  }
+
+  private byte[] encode(Area shape) {
+    if (cellSize > 0) {
+      FogRaster raster = new FogRaster(cellSize);
+      raster.add(shape);
+      return raster.toBytes();
+    }
+    return encodePath(shape);
+  }
+
+  private Area decode(byte[] bytes) {
+    if (cellSize > 0) {
+      return new Area(FogRaster.fromBytes(bytes).toArea());
+    }
+    return new Area(decodePath(bytes));
+  }
+
+  /**
+   * Encodes the winding rule and each segment type followed by its points, each point as the
+   * difference from the one before in 1/64ths of a zone unit, as variable length integers, and
+   * deflates the lot.
+   */
+  static byte[] encodePath(Shape shape) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream out = new DeflaterOutputStream(bytes)) {
+      PathIterator iter = shape.getPathIterator(null);
+      FogRaster.writeVarInt(out, iter.getWindingRule());
+      double[] coords = new double[6];
+      int lastX = 0;
+      int lastY = 0;
+      for (; !iter.isDone(); iter.next()) {
+        int segment = iter.currentSegment(coords);
+        out.write(segment);
+        for (int i = 0; i < pointCount(segment) * 2; i += 2) {
+          int x = (int) Math.round(coords[i] * COORDINATE_SCALE);
+          int y = (int) Math.round(coords[i + 1] * COORDINATE_SCALE);
+          FogRaster.writeVarInt(out, FogRaster.zigZag(x - lastX));
+          FogRaster.writeVarInt(out, FogRaster.zigZag(y - lastY));
+          lastX = x;
+          lastY = y;
+        }
+      }
+    } catch (IOException e) {
+      // Can't happen writing to memory
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static Path2D decodePath(byte[] bytes) {
+    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+      Path2D path = new Path2D.Double(FogRaster.readVarInt(in));
+      double[] coords = new double[6];
+      int lastX = 0;
+      int lastY = 0;
+      for (int segment = in.read(); segment >= 0; segment = in.read()) {
+        for (int i = 0; i < pointCount(segment) * 2; i += 2) {
+          lastX += FogRaster.unZigZag(FogRaster.readVarInt(in));
+          lastY += FogRaster.unZigZag(FogRaster.readVarInt(in));
+          coords[i] = (double) lastX / COORDINATE_SCALE;
+          coords[i + 1] = (double) lastY / COORDINATE_SCALE;
+        }
+        switch (segment) {
+          case PathIterator.SEG_MOVETO:
+            path.moveTo(coords[0], coords[1]);
+            break;
+          case PathIterator.SEG_LINETO:
+            path.lineTo(coords[0], coords[1]);
+            break;
+          case PathIterator.SEG_QUADTO:
+            path.quadTo(coords[0], coords[1], coords[2], coords[3]);
+            break;
+          case PathIterator.SEG_CUBICTO:
+            path.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+            break;
+          case PathIterator.SEG_CLOSE:
+            path.closePath();
+            break;
+        }
+      }
+      return path;
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupt fog path data", e);
+    }
+  }
+
+  private static int pointCount(int segment) {
+    switch (segment) {
+      case PathIterator.SEG_MOVETO:
+      case PathIterator.SEG_LINETO:
+        return 1;
+      case PathIterator.SEG_QUADTO:
+        return 2;
+      case PathIterator.SEG_CUBICTO:
+        return 3;
+      case PathIterator.SEG_CLOSE:
+        return 0;
+      default:
+        throw new IllegalArgumentException("Unknown path segment " + segment);
+    }
+  }
+}
@@ -517,6 +517,7 @@ private Area createHex(double x, double y, double radius, double rotation) {
   private void fireGridChanged() {
     if (zone != null) {
       gridShapeCache.clear();
+      zone.invalidateTokenIndex();
       zone.fireModelChangeEvent(new ModelChangeEvent(this, Event.GRID_CHANGED));
     }
   }
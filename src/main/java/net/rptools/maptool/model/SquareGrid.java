@@ -40,6 +40,7 @@
 import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.client.walker.WalkerMetric;
 import net.rptools.maptool.client.walker.ZoneWalker;
+import net.rptools.maptool.client.walker.astar.AStarHierarchicalSquareWalker;
 import net.rptools.maptool.client.walker.astar.AStarSquareEuclideanWalker;
 
 public class SquareGrid extends Grid {
@@ -286,6 +287,9 @@ public ZoneWalker createZoneWalker() {
         MapTool.isPersonalServer()
             ? AppPreferences.getMovementMetric()
             : MapTool.getServerPolicy().getMovementMetric();
+    if (AppPreferences.isUsingHierarchicalPathfinding()) {
+      return new AStarHierarchicalSquareWalker(getZone(), metric);
+    }
     return new AStarSquareEuclideanWalker(getZone(), metric);
   }
 
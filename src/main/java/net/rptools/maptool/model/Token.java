@@ -35,6 +35,7 @@
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
@@ -245,6 +246,15 @@ public enum ChangeEvent {
 
   private HeroLabData heroLabData;
 
+  /** Fingerprints of the fields as last sent or received, see {@link TokenDelta}. */
+  private transient Map<String, Object> syncBaseline;
+
+  /** The number of the last {@link TokenDelta} applied to this token. */
+  private transient int version;
+
+  /** The name index of the zone the token is on, if it has been filed in one. */
+  private transient TokenNameIndex nameIndex;
+
   public Token(Token token) {
     this(token.name, token.getImageAssetId());
     currentImageAsset = token.currentImageAsset;
@@ -488,7 +498,33 @@ public String getGMName() {
   }
 
   public void setGMName(String name) {
+    boolean changed = !Objects.equals(gmName, name);
     gmName = name;
+    if (changed) {
+      namesChanged();
+    }
+  }
+
+  /** The GM name whatever the player, as the zone's name index files it. */
+  String getIndexedGMName() {
+    return gmName;
+  }
+
+  /** Refiles the token in its zone's name index, after its names were changed in place. */
+  void namesChanged() {
+    if (nameIndex != null) {
+      nameIndex.renamed(this);
+    }
+  }
+
+  void setNameIndex(TokenNameIndex nameIndex) {
+    this.nameIndex = nameIndex;
+  }
+
+  void clearNameIndex(TokenNameIndex nameIndex) {
+    if (this.nameIndex == nameIndex) {
+      this.nameIndex = null;
+    }
   }
 
   public boolean hasHalo() {
@@ -900,17 +936,16 @@ public void setName(String name) throws IllegalArgumentException {
     // Let's see if there is another Token with that name (only if Player is not GM)
     if (!MapTool.getPlayer().isGM() && !MapTool.getParser().isMacroTrusted()) {
       Zone curZone = MapTool.getFrame().getCurrentZoneRenderer().getZone();
-      List<Token> tokensList = curZone.getTokens();
-
-      for (int i = 0; i < tokensList.size(); i++) {
-        String curTokenName = tokensList.get(i).getName();
-        if (curTokenName.equalsIgnoreCase(name)) {
-          MapTool.showError(I18N.getText("Token.error.unableToRename", name));
-          throw new IllegalArgumentException("Player dropped token with duplicate name");
-        }
+      if (curZone.getNonStampTokenByName(name) != null) {
+        MapTool.showError(I18N.getText("Token.error.unableToRename", name));
+        throw new IllegalArgumentException("Player dropped token with duplicate name");
       }
     }
+    boolean changed = !Objects.equals(this.name, name);
     this.name = name;
+    if (changed) {
+      namesChanged();
+    }
     fireModelChangeEvent(new ModelChangeEvent(this, ChangeEvent.name, name));
   }
 
@@ -2072,6 +2107,31 @@ public void updateProperty(Zone zone, String methodName, Object[] parameters) {
         setSightType((String) parameters[0]);
         break;
     }
+    syncBaseline = null; // the change isn't known to TokenDelta, so the next put sends it all
     zone.tokenChanged(this); // fireModelChangeEvent Event.TOKEN_CHANGED
   }
+
+  Map<String, Object> getSyncBaseline() {
+    return syncBaseline;
+  }
+
+  void setSyncBaseline(Map<String, Object> syncBaseline) {
+    this.syncBaseline = syncBaseline;
+  }
+
+  /** @return the number of the last {@link TokenDelta} applied to this token */
+  public int getVersion() {
+    return version;
+  }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
+
+  /** Forgets values worked out from fields that a {@link TokenDelta} may have changed. */
+  void clearCachedValues() {
+    actualLayer = null;
+    haloColor = null;
+    visionOverlayColor = null;
+  }
 }
@@ -0,0 +1,86 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Whole {@link Token}s and {@link TokenDelta}s for one zone, sent as a single compressed message
+ * so that a macro changing many tokens is applied, and repainted for, once.
+ */
+public class TokenBatch {
+  private byte[] data;
+
+  private transient List<Object> items;
+
+  /** For serialization. */
+  protected TokenBatch() {}
+
+  /** @param items the tokens and token deltas, in the order they are to be applied */
+  public TokenBatch(List<?> items) {
+    for (Object item : items) {
+      if (!(item instanceof Token) && !(item instanceof TokenDelta)) {
+        throw new IllegalArgumentException("Not a token or token delta: " + item);
+      }
+    }
+    this.items = Collections.unmodifiableList(new ArrayList<Object>(items));
+    data = encode(this.items);
+  }
+
+  /** @return the {@link Token}s and {@link TokenDelta}s, in order */
+  public List<Object> getItems() {
+    if (items == null) {
+      items = Collections.unmodifiableList(decode(data));
+    }
+    return items;
+  }
+
+  public int size() {
+    return getItems().size();
+  }
+
+  private static byte[] encode(List<Object> items) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (OutputStream out = new DeflaterOutputStream(bytes)) {
+      HessianOutput hessian = new HessianOutput(out);
+      hessian.getSerializerFactory().setAllowNonSerializable(true);
+      hessian.writeObject(items);
+    } catch (IOException e) {
+      // Can't happen writing to memory
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> decode(byte[] data) {
+    try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+      return (List<Object>) new HessianInput(in).readObject();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Corrupt token batch", e);
+    }
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.SerializerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The fields of a {@link Token} that changed since it was last sent or received, so that an edit
+ * can be sent without the whole token. Map fields such as the properties, states and macros are
+ * compared entry by entry, so that changing one property sends only that property.
+ *
+ * <p>Changes are found by comparing a fingerprint of each field with the one taken when the token
+ * was last synchronized, its baseline. A token without a baseline has to be sent whole. Anything
+ * that changes a token without going through here, such as {@link Token#updateProperty(Zone,
+ * String, Object[])}, drops the baseline.
+ */
+public class TokenDelta {
+  /** The fields sent over the wire, that is all but the id and the transient and static ones. */
+  private static final List<Field> FIELDS = findFields();
+
+  /** The fields the zones index tokens by. */
+  private static final Set<String> NAME_FIELDS =
+      Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("name", "gmName")));
+
+  private GUID tokenId;
+  private int version;
+  private Map<String, Object> values;
+  private Map<String, Map<Object, Object>> putEntries;
+  private Map<String, Set<Object>> removedKeys;
+
+  /** For serialization. */
+  protected TokenDelta() {}
+
+  private TokenDelta(GUID tokenId) {
+    this.tokenId = tokenId;
+    values = new HashMap<String, Object>();
+    putEntries = new HashMap<String, Map<Object, Object>>();
+    removedKeys = new HashMap<String, Set<Object>>();
+  }
+
+  /**
+   * Finds what changed in the token since its baseline and makes its current state the new
+   * baseline.
+   *
+   * @return the changes, which may be empty, or null if the token has no baseline and must be sent
+   *     whole
+   */
+  public static TokenDelta create(Token token) {
+    Map<String, Object> baseline = token.getSyncBaseline();
+    Map<String, Object> current = fingerprint(token);
+    token.setSyncBaseline(current);
+    if (baseline == null) {
+      return null;
+    }
+    TokenDelta delta = new TokenDelta(token.getId());
+    for (Field field : FIELDS) {
+      String name = field.getName();
+      Object before = baseline.get(name);
+      Object after = current.get(name);
+      if (before instanceof Map && after instanceof Map) {
+        delta.addEntryChanges(name, (Map<?, ?>) before, (Map<?, ?>) after, get(field, token));
+      } else if (before == null ? after != null : !before.equals(after)) {
+        delta.values.put(name, get(field, token));
+      }
+    }
+    return delta;
+  }
+
+  /** Makes the current state of the token its baseline, as when it was sent or received whole. */
+  public static void resetBaseline(Token token) {
+    token.setSyncBaseline(fingerprint(token));
+  }
+
+  /**
+   * Drops the token's baseline so that it is next sent whole, as when it is put on a zone that has
+   * never had it.
+   */
+  public static void clearBaseline(Token token) {
+    token.setSyncBaseline(null);
+  }
+
+  /**
+   * Calls {@link Token#updateProperty(Zone, String, Object[])} but keeps the baseline, for when the
+   * change is to go out with the token's next delta rather than as the method call.
+   */
+  public static void updateProperty(
+      Token token, Zone zone, String methodName, Object[] parameters) {
+    Map<String, Object> baseline = token.getSyncBaseline();
+    token.updateProperty(zone, methodName, parameters);
+    token.setSyncBaseline(baseline);
+  }
+
+  public GUID getTokenId() {
+    return tokenId;
+  }
+
+  /** @return the number the server gave this change to the token, or 0 if not yet sent */
+  public int getVersion() {
+    return version;
+  }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
+
+  public boolean isEmpty() {
+    return values.isEmpty() && putEntries.isEmpty() && removedKeys.isEmpty();
+  }
+
+  /**
+   * Applies the changes to the token in place. The changed fields become part of the token's
+   * baseline, if it has one; the caller should then put the token back into its zone so that the
+   * zone sees the change.
+   */
+  @SuppressWarnings("unchecked")
+  public void apply(Token token) {
+    Map<String, Object> baseline = token.getSyncBaseline();
+    SerializerFactory factory = newSerializerFactory();
+    for (Field field : FIELDS) {
+      String name = field.getName();
+      if (values.containsKey(name)) {
+        set(field, token, values.get(name));
+        if (NAME_FIELDS.contains(name)) {
+          // Set past the setters, so tell the name index
+          token.namesChanged();
+        }
+      } else if (putEntries.containsKey(name) || removedKeys.containsKey(name)) {
+        Map<Object, Object> map = (Map<Object, Object>) get(field, token);
+        if (map == null) {
+          // Out of step with the sender; the next whole token will put it right
+          baseline = null;
+          continue;
+        }
+        if (removedKeys.containsKey(name)) {
+          // One at a time, as the property map matches keys ignoring case
+          for (Object key : removedKeys.get(name)) {
+            map.remove(key);
+          }
+        }
+        if (putEntries.containsKey(name)) {
+          map.putAll(putEntries.get(name));
+        }
+      } else {
+        continue;
+      }
+      if (baseline != null) {
+        baseline.put(name, fingerprint(get(field, token), factory));
+      }
+    }
+    token.setSyncBaseline(baseline);
+    token.clearCachedValues();
+  }
+
+  private void addEntryChanges(String name, Map<?, ?> before, Map<?, ?> after, Object map) {
+    Map<?, ?> entries = (Map<?, ?>) map;
+    Map<Object, Object> puts = new HashMap<Object, Object>();
+    for (Map.Entry<?, ?> entry : after.entrySet()) {
+      if (!entry.getValue().equals(before.get(entry.getKey()))) {
+        puts.put(entry.getKey(), entries.get(entry.getKey()));
+      }
+    }
+    Set<Object> removed = new HashSet<Object>();
+    for (Object key : before.keySet()) {
+      if (!after.containsKey(key)) {
+        removed.add(key);
+      }
+    }
+    if (!puts.isEmpty()) {
+      putEntries.put(name, puts);
+    }
+    if (!removed.isEmpty()) {
+      removedKeys.put(name, removed);
+    }
+  }
+
+  /**
+   * Takes the fingerprint of each field, or for map fields a map from each key to the fingerprint
+   * of its value.
+   */
+  private static Map<String, Object> fingerprint(Token token) {
+    SerializerFactory factory = newSerializerFactory();
+    Map<String, Object> fingerprints = new HashMap<String, Object>();
+    for (Field field : FIELDS) {
+      fingerprints.put(field.getName(), fingerprint(get(field, token), factory));
+    }
+    return fingerprints;
+  }
+
+  private static Object fingerprint(Object value, SerializerFactory factory) {
+    if (value instanceof Map) {
+      Map<Object, Long> entries = new HashMap<Object, Long>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        entries.put(entry.getKey(), hash(entry.getValue(), factory));
+      }
+      return entries;
+    }
+    return value != null ? hash(value, factory) : null;
+  }
+
+  /** Hashes the value as it would be sent, with 64-bit FNV-1a. */
+  private static long hash(Object value, SerializerFactory factory) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HessianOutput out = new HessianOutput(bytes);
+    out.setSerializerFactory(factory);
+    try {
+      out.writeObject(value);
+    } catch (IOException e) {
+      // Can't happen writing to memory
+      throw new IllegalStateException(e);
+    }
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : bytes.toByteArray()) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static SerializerFactory newSerializerFactory() {
+    SerializerFactory factory = new SerializerFactory();
+    factory.setAllowNonSerializable(true);
+    return factory;
+  }
+
+  private static List<Field> findFields() {
+    List<Field> fields = new ArrayList<Field>();
+    for (Field field : Token.class.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (Modifier.isStatic(modifiers)
+          || Modifier.isTransient(modifiers)
+          || field.getName().equals("id")) {
+        continue;
+      }
+      field.setAccessible(true);
+      fields.add(field);
+    }
+    return Collections.unmodifiableList(fields);
+  }
+
+  private static Object get(Field field, Token token) {
+    try {
+      return field.get(token);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void set(Field field, Token token, Object value) {
+    // Floats come back from the wire as doubles
+    if ((field.getType() == float.class || field.getType() == Float.class)
+        && value instanceof Number) {
+      value = ((Number) value).floatValue();
+    }
+    try {
+      field.set(token, value);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.rptools.maptool.util.StringUtil;
+
+/**
+ * Case-insensitive lookup of a zone's tokens by name and by GM name.
+ *
+ * <p>Each token filed here keeps a reference back to the index, so that {@link
+ * Token#setName(String)} and {@link Token#setGMName(String)} can refile it under its new names. The
+ * index remembers the names it filed each token under, as by then the token only has the new ones.
+ */
+class TokenNameIndex {
+  /** A filed token and the names it was filed under. */
+  private static class Entry {
+    final Token token;
+    final String name;
+    final String gmName;
+
+    Entry(Token token) {
+      this.token = token;
+      this.name = token.getName();
+      this.gmName = token.getIndexedGMName();
+    }
+  }
+
+  private final Map<String, List<Token>> byName = new HashMap<String, List<Token>>();
+  private final Map<String, List<Token>> byGMName = new HashMap<String, List<Token>>();
+  private final Map<GUID, Entry> filed = new HashMap<GUID, Entry>();
+
+  TokenNameIndex(Collection<Token> tokens) {
+    for (Token token : tokens) {
+      put(token);
+    }
+  }
+
+  /**
+   * Folds a name so that two names have the same key exactly when {@link
+   * String#equalsIgnoreCase(String)} considers them equal.
+   */
+  static String key(String name) {
+    char[] chars = name.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+    }
+    return new String(chars);
+  }
+
+  void put(Token token) {
+    remove(token);
+    Entry entry = new Entry(token);
+    filed.put(token.getId(), entry);
+    add(byName, entry.name, token);
+    add(byGMName, entry.gmName, token);
+    token.setNameIndex(this);
+  }
+
+  void remove(Token token) {
+    Entry old = filed.remove(token.getId());
+    if (old != null) {
+      remove(byName, old.name, old.token);
+      remove(byGMName, old.gmName, old.token);
+      old.token.clearNameIndex(this);
+    }
+  }
+
+  /** Refiles a token filed here under its new names, after it was renamed in place. */
+  void renamed(Token token) {
+    Entry entry = filed.get(token.getId());
+    // Not a copy that shares the id, such as a clone
+    if (entry != null && entry.token == token) {
+      put(token);
+    }
+  }
+
+  Token getByName(String name) {
+    return first(byName, name, true);
+  }
+
+  /** Like {@link #getByName(String)}, but leaves out stamps. */
+  Token getNonStampByName(String name) {
+    return first(byName, name, false);
+  }
+
+  Token getByGMName(String name) {
+    return first(byGMName, name, true);
+  }
+  private static void add(Map<String, List<Token>> map, String name, Token token) {
+    if (StringUtil.isEmpty(name)) {
+      return;
+    }
+    String key = key(name);
+    List<Token> list = map.get(key);
+    if (list == null) {
+      list = new ArrayList<Token>(1);
+      map.put(key, list);
+    }
+    list.add(token);
+  }
+
+  private static void remove(Map<String, List<Token>> map, String name, Token token) {
+    if (StringUtil.isEmpty(name)) {
+      return;
+    }
+    String key = key(name);
+    List<Token> list = map.get(key);
+    if (list != null) {
+      list.remove(token);
+      if (list.isEmpty()) {
+        map.remove(key);
+      }
+    }
+  }
+
+  /** Several tokens may share a name; the first in z-order wins, as with a scan of the zone. */
+  private static Token first(Map<String, List<Token>> map, String name, boolean stamps) {
+    if (name == null) {
+      return null;
+    }
+    List<Token> list = map.get(key(name));
+    if (list == null) {
+      return null;
+    }
+    Token first = null;
+    for (Token token : list) {
+      if (!stamps && token.isStamp()) {
+        continue;
+      }
+      if (first == null || Zone.TOKEN_Z_ORDER_COMPARATOR.compare(token, first) < 0) {
+        first = token;
+      }
+    }
+    return first;
+  }
+}
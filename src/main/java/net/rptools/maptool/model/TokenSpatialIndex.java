@@ -0,0 +1,237 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid bucket index of token bounds, one set of buckets per {@link Zone.Layer}. Maintained
+ * by {@link Zone} as tokens are put and removed so that viewport and hit-test queries only have to
+ * look at the tokens near the area in question.
+ *
+ * <p>The bounds stored for a token are whatever the zone gives to {@link #put(Token, Rectangle)};
+ * queries only test against those stored bounds, so callers that need an exact answer (rotated
+ * tokens, for example) should treat the results as candidates.
+ */
+class TokenSpatialIndex {
+  /** Size of a bucket in zone pixels. */
+  static final int BUCKET_SIZE = 512;
+
+  /** Tokens spanning more buckets than this are kept in a per-layer list that is always scanned. */
+  private static final int MAX_BUCKETS_PER_TOKEN = 64;
+
+  private final Map<GUID, Entry> entries = new HashMap<GUID, Entry>();
+  private final Map<Zone.Layer, Map<Long, List<Entry>>> buckets =
+      new EnumMap<Zone.Layer, Map<Long, List<Entry>>>(Zone.Layer.class);
+  private final Map<Zone.Layer, List<Entry>> oversized =
+      new EnumMap<Zone.Layer, List<Entry>>(Zone.Layer.class);
+
+  private static class Entry {
+    final Token token;
+    final Zone.Layer layer;
+    final Rectangle bounds;
+    final boolean oversized;
+
+    Entry(Token token, Zone.Layer layer, Rectangle bounds, boolean oversized) {
+      this.token = token;
+      this.layer = layer;
+      this.bounds = bounds;
+      this.oversized = oversized;
+    }
+  }
+
+  private static int bucket(int coord) {
+    return Math.floorDiv(coord, BUCKET_SIZE);
+  }
+
+  private static long key(int bx, int by) {
+    return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Adds the token, or moves it if it is already indexed.
+   *
+   * @param token the token
+   * @param bounds its bounds in zone coordinates, not copied
+   */
+  void put(Token token, Rectangle bounds) {
+    Entry old = entries.get(token.getId());
+    Zone.Layer layer = token.getLayer();
+    if (old != null && old.token == token && old.layer == layer && old.bounds.equals(bounds)) {
+      return;
+    }
+    if (old != null) {
+      removeEntry(old);
+    }
+    int minX = bucket(bounds.x);
+    int minY = bucket(bounds.y);
+    int maxX = bucket(bounds.x + Math.max(bounds.width - 1, 0));
+    int maxY = bucket(bounds.y + Math.max(bounds.height - 1, 0));
+    boolean isOversized = (long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_BUCKETS_PER_TOKEN;
+
+    Entry entry = new Entry(token, layer, bounds, isOversized);
+    entries.put(token.getId(), entry);
+    if (isOversized) {
+      getOversized(layer).add(entry);
+      return;
+    }
+    Map<Long, List<Entry>> layerBuckets = getBuckets(layer);
+    for (int bx = minX; bx <= maxX; bx++) {
+      for (int by = minY; by <= maxY; by++) {
+        Long k = key(bx, by);
+        List<Entry> list = layerBuckets.get(k);
+        if (list == null) {
+          list = new ArrayList<Entry>(4);
+          layerBuckets.put(k, list);
+        }
+        list.add(entry);
+      }
+    }
+  }
+
+  void remove(Token token) {
+    Entry old = entries.get(token.getId());
+    if (old != null) {
+      removeEntry(old);
+    }
+  }
+
+  private void removeEntry(Entry entry) {
+    entries.remove(entry.token.getId());
+    if (entry.oversized) {
+      getOversized(entry.layer).remove(entry);
+      return;
+    }
+    Map<Long, List<Entry>> layerBuckets = getBuckets(entry.layer);
+    Rectangle bounds = entry.bounds;
+    int maxX = bucket(bounds.x + Math.max(bounds.width - 1, 0));
+    int maxY = bucket(bounds.y + Math.max(bounds.height - 1, 0));
+    for (int bx = bucket(bounds.x); bx <= maxX; bx++) {
+      for (int by = bucket(bounds.y); by <= maxY; by++) {
+        Long k = key(bx, by);
+        List<Entry> list = layerBuckets.get(k);
+        if (list != null) {
+          list.remove(entry);
+          if (list.isEmpty()) {
+            layerBuckets.remove(k);
+          }
+        }
+      }
+    }
+  }
+
+  void clear() {
+    entries.clear();
+    buckets.clear();
+    oversized.clear();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Finds the tokens whose bounds intersect the given area. The result is in no particular order
+   * and contains each token once.
+   *
+   * @param layer the layer to search, or <code>null</code> for all layers
+   * @param area the area in zone coordinates
+   * @param result the list the tokens are added to
+   */
+  void getTokensIntersecting(Zone.Layer layer, Rectangle area, List<Token> result) {
+    if (layer == null) {
+      for (Zone.Layer l : Zone.Layer.values()) {
+        getTokensIntersecting(l, area, result);
+      }
+      return;
+    }
+    List<Entry> big = oversized.get(layer);
+    if (big != null) {
+      for (Entry entry : big) {
+        if (entry.bounds.intersects(area)) {
+          result.add(entry.token);
+        }
+      }
+    }
+    Map<Long, List<Entry>> layerBuckets = buckets.get(layer);
+    if (layerBuckets == null || layerBuckets.isEmpty()) {
+      return;
+    }
+    int minX = bucket(area.x);
+    int minY = bucket(area.y);
+    int maxX = bucket(area.x + Math.max(area.width - 1, 0));
+    int maxY = bucket(area.y + Math.max(area.height - 1, 0));
+    if ((long) (maxX - minX + 1) * (maxY - minY + 1) > layerBuckets.size()) {
+      // Query covers more buckets than exist, walk the populated ones instead
+      for (Map.Entry<Long, List<Entry>> e : layerBuckets.entrySet()) {
+        long k = e.getKey();
+        int bx = (int) (k >> 32);
+        int by = (int) k;
+        if (bx >= minX && bx <= maxX && by >= minY && by <= maxY) {
+          collect(e.getValue(), bx, by, area, result);
+        }
+      }
+      return;
+    }
+    for (int bx = minX; bx <= maxX; bx++) {
+      for (int by = minY; by <= maxY; by++) {
+        List<Entry> list = layerBuckets.get(key(bx, by));
+        if (list != null) {
+          collect(list, bx, by, area, result);
+        }
+      }
+    }
+  }
+
+  /**
+   * A token spanning several buckets is only reported from the bucket holding the top left corner
+   * of its overlap with the query, so no duplicate check is needed.
+   */
+  private static void collect(
+      List<Entry> list, int bx, int by, Rectangle area, List<Token> result) {
+    for (Entry entry : list) {
+      Rectangle b = entry.bounds;
+      if (!b.intersects(area)) {
+        continue;
+      }
+      if (bucket(Math.max(b.x, area.x)) == bx && bucket(Math.max(b.y, area.y)) == by) {
+        result.add(entry.token);
+      }
+    }
+  }
+
+  private Map<Long, List<Entry>> getBuckets(Zone.Layer layer) {
+    Map<Long, List<Entry>> map = buckets.get(layer);
+    if (map == null) {
+      map = new HashMap<Long, List<Entry>>();
+      buckets.put(layer, map);
+    }
+    return map;
+  }
+
+  private List<Entry> getOversized(Zone.Layer layer) {
+    List<Entry> list = oversized.get(layer);
+    if (list == null) {
+      list = new ArrayList<Entry>();
+      oversized.put(layer, list);
+    }
+    return list;
+  }
+}
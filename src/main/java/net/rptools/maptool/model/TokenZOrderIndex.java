@@ -0,0 +1,159 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the zone's token list sorted by (zOrder, id) as tokens are put, moved and removed, using
+ * binary search rather than re-sorting the whole list on every change.
+ *
+ * <p>The sort key each token was filed under is remembered, since callers change a token's zOrder
+ * before handing it back to the zone; the old key is what is needed to find it in the list again.
+ * The list itself is the one the zone persists, so it is always in a state that can be saved.
+ */
+class TokenZOrderIndex {
+  private final List<Token> tokens;
+  private final Map<GUID, Integer> filedZOrder = new HashMap<GUID, Integer>();
+  private List<Token> snapshot;
+
+  /**
+   * @param tokens the list to maintain; it is sorted here and should support fast random access
+   */
+  TokenZOrderIndex(List<Token> tokens) {
+    this.tokens = tokens;
+    Collections.sort(
+        tokens,
+        new Comparator<Token>() {
+          @Override
+          public int compare(Token o1, Token o2) {
+            return compareKeys(o1.getZOrder(), o1.getId(), o2.getZOrder(), o2.getId());
+          }
+        });
+    for (Token token : tokens) {
+      filedZOrder.put(token.getId(), token.getZOrder());
+    }
+  }
+
+  private static int compareKeys(int z1, GUID id1, int z2, GUID id2) {
+    if (z1 != z2) {
+      return z1 < z2 ? -1 : 1;
+    }
+    return id1.compareTo(id2);
+  }
+
+  /**
+   * Binary search for the given key against the keys the listed tokens were filed under.
+   *
+   * @return the index of the key, or <code>-(insertion point) - 1</code> if it is not present
+   */
+  private int search(int z, GUID id) {
+    int low = 0;
+    int high = tokens.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      Token token = tokens.get(mid);
+      int cmp = compareKeys(filedZOrder.get(token.getId()), token.getId(), z, id);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /** Removes the token with the same id as the given one, wherever it was filed. */
+  boolean remove(Token token) {
+    Integer z = filedZOrder.get(token.getId());
+    if (z == null) {
+      return false;
+    }
+    int index = search(z, token.getId());
+    filedZOrder.remove(token.getId());
+    if (index >= 0) {
+      tokens.remove(index);
+    } else {
+      // Should not happen, but don't leave a stale entry behind if it does
+      tokens.remove(token);
+    }
+    snapshot = null;
+    return true;
+  }
+
+  /**
+   * Adds the token at the position given by its current zOrder, replacing any token with the same
+   * id. A token already filed under its current zOrder is swapped in place.
+   */
+  void put(Token token) {
+    Integer z = filedZOrder.get(token.getId());
+    if (z != null && z == token.getZOrder()) {
+      int index = search(z, token.getId());
+      if (index >= 0) {
+        tokens.set(index, token);
+        snapshot = null;
+        return;
+      }
+    }
+    remove(token);
+    int index = search(token.getZOrder(), token.getId());
+    tokens.add(-(index + 1), token);
+    filedZOrder.put(token.getId(), token.getZOrder());
+    snapshot = null;
+  }
+
+  /** Moves any tokens whose zOrder has changed since they were filed. */
+  void refresh() {
+    List<Token> moved = new ArrayList<Token>();
+    for (Token token : tokens) {
+      if (filedZOrder.get(token.getId()) != token.getZOrder()) {
+        moved.add(token);
+      }
+    }
+    for (Token token : moved) {
+      put(token);
+    }
+  }
+
+  int getSmallestZOrder() {
+    return tokens.isEmpty() ? 0 : filedZOrder.get(tokens.get(0).getId());
+  }
+
+  int getLargestZOrder() {
+    return tokens.isEmpty() ? 0 : filedZOrder.get(tokens.get(tokens.size() - 1).getId());
+  }
+
+  int size() {
+    return tokens.size();
+  }
+
+  /**
+   * Returns an unmodifiable copy of the ordered tokens. The copy is shared between callers until
+   * the order next changes.
+   */
+  List<Token> getSnapshot() {
+    if (snapshot == null) {
+      snapshot = Collections.unmodifiableList(new ArrayList<Token>(tokens));
+    }
+    return snapshot;
+  }
+}
@@ -19,6 +19,7 @@
 import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -39,7 +40,6 @@
 import net.rptools.maptool.client.ui.zone.PlayerView;
 import net.rptools.maptool.client.ui.zone.ZoneRenderer;
 import net.rptools.maptool.client.ui.zone.ZoneView;
-import net.rptools.maptool.language.I18N;
 import net.rptools.maptool.model.InitiativeList.TokenInitiative;
 import net.rptools.maptool.model.drawing.Drawable;
 import net.rptools.maptool.model.drawing.DrawableColorPaint;
@@ -48,7 +48,6 @@
 import net.rptools.maptool.model.drawing.DrawablesGroup;
 import net.rptools.maptool.model.drawing.DrawnElement;
 import net.rptools.maptool.model.drawing.Pen;
-import net.rptools.maptool.util.StringUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -153,11 +152,15 @@ public enum TokenSelection {
   private final Map<GUID, Label> labels = new LinkedHashMap<GUID, Label>();
   private final Map<GUID, Token> tokenMap = new HashMap<GUID, Token>();
   private Map<GUID, ExposedAreaMetaData> exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
-  private final List<Token> tokenOrderedList = new LinkedList<Token>();
+  private List<Token> tokenOrderedList = new ArrayList<Token>();
 
   private InitiativeList initiativeList = new InitiativeList(this);
 
   private Area exposedArea = new Area();
+  /** Holds the global exposed area instead of {@link #exposedArea} when fog is kept as a raster. */
+  private FogRaster exposedRaster;
+  /** The number of the last {@link FogUpdate} the server has made to this zone. */
+  private int fogVersion;
   private boolean hasFog;
   private DrawablePaint fogPaint;
   private transient UndoPerZone undo;
@@ -191,6 +194,13 @@ public enum TokenSelection {
 
   private transient HashMap<String, Integer> tokenNumberCache;
 
+  // Built on first spatial query and kept up to date by putToken()/removeToken() afterwards
+  private transient TokenSpatialIndex tokenIndex;
+  /** Keeps tokenOrderedList sorted; built lazily since deserialization skips initializers. */
+  private transient TokenZOrderIndex zOrderIndex;
+  /** Name and GM name lookup, built lazily; renamed tokens refile themselves. */
+  private transient TokenNameIndex nameIndex;
+
   /**
    * Note: When adding new fields to this class, make sure to update all constructors, {@link
    * #imported()}, {@link #readResolve()}, and potentially {@link #optimize()}.
@@ -357,6 +367,10 @@ public Zone(Zone zone, boolean keepIds) {
       }
     }
     exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>(zone.exposedAreaMeta.size() * 4 / 3);
+    // Before the tokens, so that their exposed areas are stored the same way
+    if (zone.exposedRaster != null) {
+      exposedRaster = new FogRaster(zone.exposedRaster);
+    }
 
     // Copy the tokens, save a map between old and new for the initiative list.
     if (zone.initiativeList == null) zone.initiativeList = new InitiativeList(zone);
@@ -452,6 +466,7 @@ public void setVisible(boolean isVisible) {
   public void setGrid(Grid grid) {
     this.grid = grid;
     grid.setZone(this);
+    invalidateTokenIndex();
     // tokenVisionDistance = DEFAULT_TOKEN_VISION_DISTANCE * grid.getSize() / unitsPerCell;
     fireModelChangeEvent(new ModelChangeEvent(this, Event.GRID_CHANGED));
   }
@@ -569,17 +584,22 @@ public boolean isPointVisible(ZonePoint point, PlayerView view) {
       return true;
     }
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
-      Area combined = new Area(exposedArea);
+      // Test each exposed area in turn rather than building their union
+      if (isExposed(point.x, point.y)) {
+        return true;
+      }
       List<Token> toks = view.getTokens(); // only owned and HasSight tokens are returned
       if (toks != null && !toks.isEmpty()) {
         for (Token tok : toks) {
           ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
-          if (meta != null) combined.add(meta.getExposedAreaHistory());
+          if (meta != null && meta.contains(point.x, point.y)) {
+            return true;
+          }
         }
       }
-      return combined.contains(point.x, point.y);
+      return false;
     } else {
-      return exposedArea.contains(point.x, point.y);
+      return isExposed(point.x, point.y);
     }
   }
 
@@ -631,7 +651,7 @@ public boolean isTokenVisible(Token token) {
 
     // Token is visible, and there is fog
     Rectangle tokenSize = token.getBounds(this);
-    Area combined = new Area(exposedArea);
+    Area combined = new Area(getExposedArea());
     PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
       List<Token> toks = view.getTokens();
@@ -669,7 +689,7 @@ public boolean isTokenFootprintVisible(Token token) {
     // Token is visible, and there is fog
     Rectangle tokenSize = token.getBounds(this);
     Area tokenFootprint = getGrid().getTokenCellArea(tokenSize);
-    Area combined = new Area(exposedArea);
+    Area combined = new Area(getExposedArea());
     PlayerView view = MapTool.getFrame().getZoneRenderer(this).getPlayerView();
     if (MapTool.getServerPolicy().isUseIndividualFOW() && getVisionType() != VisionType.OFF) {
       List<Token> toks = view.getTokens();
@@ -697,12 +717,12 @@ public void clearTopology() {
 
   public void addTopology(Area area) {
     topology.add(area);
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
   }
 
   public void removeTopology(Area area) {
     topology.subtract(area);
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED));
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.TOPOLOGY_CHANGED, area));
   }
 
   public void tokenTopologyChanged() {
@@ -719,7 +739,11 @@ public void tokenChanged(Token token) {
 
   // Clears FoW for ALL tokens, including NPC's
   public void clearExposedArea() {
-    exposedArea = new Area();
+    if (exposedRaster != null) {
+      exposedRaster.clear();
+    } else {
+      exposedArea = new Area();
+    }
     // There used to be a foreach loop here that iterated over getTokens() and called .clear() --
     // why?!
     exposedAreaMeta.clear();
@@ -756,7 +780,7 @@ public void exposeArea(Area area, Token tok) {
         GUID tea = tok.getExposedAreaGUID();
         ExposedAreaMetaData meta = exposedAreaMeta.get(tea);
         if (meta == null) {
-          meta = new ExposedAreaMetaData();
+          meta = newExposedAreaMetaData();
           exposedAreaMeta.put(tea, meta);
         }
         meta.addToExposedAreaHistory(area);
@@ -770,7 +794,7 @@ public void exposeArea(Area area, Token tok) {
         return; // FJE Added so that TEA isn't added to the GEA, below.
       }
     }
-    exposedArea.add(area);
+    addExposedArea(area);
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
 
@@ -790,7 +814,7 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
       // Why is this done here and then again below???
       // And just because Vision==Off doesn't mean we aren't doing IF...
       // Jamz: if this exposedArea isn't done then it breaks getExposedTokens when vision is off...
-      exposedArea.add(area);
+      addExposedArea(area);
     }
     if (selectedToks != null
         && !selectedToks.isEmpty()
@@ -812,7 +836,7 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
           GUID tea = tok.getExposedAreaGUID();
           meta = exposedAreaMeta.get(tea);
           if (meta == null) {
-            meta = new ExposedAreaMetaData();
+            meta = newExposedAreaMetaData();
             exposedAreaMeta.put(tea, meta);
           }
           meta.addToExposedAreaHistory(area);
@@ -823,11 +847,51 @@ public void exposeArea(Area area, Set<GUID> selectedToks) {
       if (meta != null) zoneView.flush();
     } else {
       // Not using IF so add the EA to the GEA instead of a TEA.
-      exposedArea.add(area);
+      addExposedArea(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
 
+  /**
+   * Returns the part of the area that {@link #exposeArea(Area, Set)} would add, leaving out what is
+   * already in the global exposed area and, when the area goes only to the tokens' own exposed
+   * areas, what all of the tokens have already seen.
+   *
+   * @param area
+   * @param selectedToks
+   */
+  public Area getUnexposedArea(Area area, Set<GUID> selectedToks) {
+    Area unexposed = new Area(area);
+    unexposed.subtract(getExposedArea());
+    if (unexposed.isEmpty()
+        || selectedToks == null
+        || selectedToks.isEmpty()
+        || getVisionType() == VisionType.OFF
+        || !(MapTool.getServerPolicy().isUseIndividualFOW() || MapTool.isPersonalServer())) {
+      return unexposed;
+    }
+    Area seenByAll = null;
+    for (GUID guid : selectedToks) {
+      Token tok = getToken(guid);
+      if (tok == null) {
+        continue;
+      }
+      ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
+      if (meta == null) {
+        return unexposed;
+      }
+      if (seenByAll == null) {
+        seenByAll = new Area(meta.getExposedAreaHistory());
+      } else {
+        seenByAll.intersect(meta.getExposedAreaHistory());
+      }
+    }
+    if (seenByAll != null) {
+      unexposed.subtract(seenByAll);
+    }
+    return unexposed;
+  }
+
   /**
    * Modifies the global exposed area (GEA) or token exposed by resetting it and then setting it to
    * the contents of the passed in Area and firing a ModelChangeEvent.
@@ -850,7 +914,7 @@ public void setFogArea(Area area, Set<GUID> selectedToks) {
           continue;
         }
         ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
-        if (meta == null) meta = new ExposedAreaMetaData();
+        if (meta == null) meta = newExposedAreaMetaData();
         meta.clearExposedAreaHistory();
         meta.addToExposedAreaHistory(area);
         exposedAreaMeta.put(tok.getExposedAreaGUID(), meta);
@@ -858,8 +922,8 @@ public void setFogArea(Area area, Set<GUID> selectedToks) {
         putToken(tok);
       }
     } else {
-      exposedArea.reset();
-      exposedArea.add(area);
+      resetExposedArea();
+      addExposedArea(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -869,7 +933,7 @@ public void hideArea(Area area, Set<GUID> selectedToks) {
       return;
     }
     if (getVisionType() == VisionType.OFF) {
-      exposedArea.subtract(area);
+      subtractExposedArea(area);
     }
     if (selectedToks != null
         && !selectedToks.isEmpty()
@@ -887,14 +951,14 @@ public void hideArea(Area area, Set<GUID> selectedToks) {
           continue;
         }
         ExposedAreaMetaData meta = exposedAreaMeta.get(tok.getExposedAreaGUID());
-        if (meta == null) meta = new ExposedAreaMetaData();
+        if (meta == null) meta = newExposedAreaMetaData();
         meta.removeExposedAreaHistory(area);
         exposedAreaMeta.put(tok.getExposedAreaGUID(), meta);
         MapTool.getFrame().getZoneRenderer(this.getId()).getZoneView().flush(tok);
         putToken(tok);
       }
     } else {
-      exposedArea.subtract(area);
+      subtractExposedArea(area);
     }
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -917,7 +981,7 @@ public ZonePoint getNearestVertex(ZonePoint point) {
    * @return
    */
   public Area getExposedArea(PlayerView view) {
-    Area combined = new Area(exposedArea);
+    Area combined = new Area(getExposedArea());
 
     List<Token> toks = view.getTokens();
     // Don't need to worry about StrictTokenOwnership since the PlayerView only contains tokens we
@@ -944,9 +1008,101 @@ public Area getExposedArea(PlayerView view) {
    * @return Area object representing exposed fog area visible to all tokens
    */
   public Area getExposedArea() {
+    if (exposedRaster != null) {
+      return exposedRaster.toArea();
+    }
     return exposedArea;
   }
 
+  private boolean isExposed(double x, double y) {
+    if (exposedRaster != null) {
+      return exposedRaster.contains(x, y);
+    }
+    return exposedArea.contains(x, y);
+  }
+
+  private void addExposedArea(Area area) {
+    if (exposedRaster != null) {
+      exposedRaster.add(area);
+    } else {
+      exposedArea.add(area);
+    }
+  }
+
+  private void subtractExposedArea(Area area) {
+    if (exposedRaster != null) {
+      exposedRaster.subtract(area);
+    } else {
+      exposedArea.subtract(area);
+    }
+  }
+
+  private void resetExposedArea() {
+    if (exposedRaster != null) {
+      exposedRaster.clear();
+    } else {
+      exposedArea.reset();
+    }
+  }
+
+  /** @return the number of the last {@link FogUpdate} applied to this zone */
+  public int getFogVersion() {
+    return fogVersion;
+  }
+
+  public void setFogVersion(int fogVersion) {
+    this.fogVersion = fogVersion;
+  }
+
+  /**
+   * Numbers a change to the fog. Only the server does this, for the changes it sends out as {@link
+   * FogUpdate}s.
+   *
+   * @return the number of the change
+   */
+  public int nextFogVersion() {
+    return ++fogVersion;
+  }
+
+  /** @return the raster cell size used for exposed areas, or 0 if they are kept as areas */
+  public int getFogCellSize() {
+    return exposedRaster != null ? exposedRaster.getCellSize() : 0;
+  }
+
+  /**
+   * Sets how exposed areas are stored, converting the global and token exposed areas already on
+   * the map. As {@link FogRaster}s they stay cheap to expose, hide and test however long the
+   * session runs, at the cost of being rounded to whole cells.
+   *
+   * @param cellSize the raster cell size in zone units, or 0 to keep exposed areas as areas
+   */
+  public void setFogCellSize(int cellSize) {
+    cellSize = Math.max(cellSize, 0);
+    if (cellSize == getFogCellSize()) {
+      return;
+    }
+    Area area = getExposedArea();
+    if (cellSize == 0) {
+      exposedArea = new Area(area);
+      exposedRaster = null;
+    } else {
+      exposedRaster = new FogRaster(cellSize);
+      exposedRaster.add(area);
+      exposedArea = new Area();
+    }
+    for (ExposedAreaMetaData meta : getExposedAreaMetaData().values()) {
+      meta.setFogCellSize(cellSize);
+    }
+    fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
+  }
+
+  private ExposedAreaMetaData newExposedAreaMetaData() {
+    if (exposedRaster != null) {
+      return new ExposedAreaMetaData(exposedRaster.getCellSize());
+    }
+    return new ExposedAreaMetaData();
+  }
+
   public double getUnitsPerCell() {
     return Math.max(unitsPerCell, 0);
   }
@@ -956,18 +1112,27 @@ public void setUnitsPerCell(double unitsPerCell) {
   }
 
   public int getLargestZOrder() {
-    return tokenOrderedList.size() > 0
-        ? tokenOrderedList.get(tokenOrderedList.size() - 1).getZOrder()
-        : 0;
+    return getZOrderIndex().getLargestZOrder();
   }
 
   public int getSmallestZOrder() {
-    return tokenOrderedList.size() > 0 ? tokenOrderedList.get(0).getZOrder() : 0;
+    return getZOrderIndex().getSmallestZOrder();
   }
 
-  /** Sort the tokens by their ZOrder */
+  /** Sort the tokens by their ZOrder, moving only those whose ZOrder has changed */
   public void sortZOrder() {
-    Collections.sort(tokenOrderedList, TOKEN_Z_ORDER_COMPARATOR);
+    getZOrderIndex().refresh();
+  }
+
+  private TokenZOrderIndex getZOrderIndex() {
+    if (zOrderIndex == null) {
+      // Campaigns saved by older versions hold a LinkedList here
+      if (!(tokenOrderedList instanceof ArrayList)) {
+        tokenOrderedList = new ArrayList<Token>(tokenOrderedList);
+      }
+      zOrderIndex = new TokenZOrderIndex(tokenOrderedList);
+    }
+    return zOrderIndex;
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -1017,25 +1182,36 @@ public void addDrawable(DrawnElement drawnElement) {
   }
 
   public void updateDrawable(DrawnElement drawnElement, Pen pen) {
+    DrawnElement before;
     if (drawnElement.getDrawable().getLayer() == Layer.OBJECT) {
-      updatePen(objectDrawables, drawnElement, pen);
+      before = updatePen(objectDrawables, drawnElement, pen);
     } else if (drawnElement.getDrawable().getLayer() == Layer.BACKGROUND) {
-      updatePen(backgroundDrawables, drawnElement, pen);
+      before = updatePen(backgroundDrawables, drawnElement, pen);
     } else if (drawnElement.getDrawable().getLayer() == Layer.GM) {
-      updatePen(gmDrawables, drawnElement, pen);
+      before = updatePen(gmDrawables, drawnElement, pen);
     } else {
-      updatePen(drawables, drawnElement, pen);
+      before = updatePen(drawables, drawnElement, pen);
     }
-    fireModelChangeEvent(new ModelChangeEvent(this, Event.DRAWABLE_ADDED, drawnElement));
+    DrawnElement after = new DrawnElement(drawnElement.getDrawable(), pen);
+    // The old pen may have been the wider one, so listeners get the drawing before and after
+    fireModelChangeEvent(
+        new ModelChangeEvent(
+            this,
+            Event.DRAWABLE_ADDED,
+            before != null ? Arrays.asList(before, after) : Arrays.asList(after)));
   }
 
-  private void updatePen(List<DrawnElement> elementList, DrawnElement drawnElement, Pen pen) {
+  /** @return the drawing as it was before the change, or null if it isn't in the list */
+  private DrawnElement updatePen(
+      List<DrawnElement> elementList, DrawnElement drawnElement, Pen pen) {
     for (DrawnElement de : elementList) {
       if (de.getDrawable().getId().equals(drawnElement.getDrawable().getId())) {
+        DrawnElement before = new DrawnElement(de.getDrawable(), de.getPen());
         de.setPen(new Pen(pen));
-        break;
+        return before;
       }
     }
+    return null;
   }
 
   public void addDrawableRear(DrawnElement drawnElement) {
@@ -1157,10 +1333,11 @@ public void putToken(Token token) {
 
     tokenMap.put(token.getId(), token);
 
-    // LATER: optimize this
-    tokenOrderedList.remove(token);
-    tokenOrderedList.add(token);
-    Collections.sort(tokenOrderedList, TOKEN_Z_ORDER_COMPARATOR);
+    getZOrderIndex().put(token);
+    updateNameIndex(token, false);
+    if (tokenIndex != null) {
+      tokenIndex.put(token, getIndexBounds(token));
+    }
 
     if (newToken) {
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, token));
@@ -1194,10 +1371,12 @@ public void putTokens(List<Token> tokens) {
 
     for (Token t : tokens) {
       tokenMap.put(t.getId(), t);
+      getZOrderIndex().put(t);
+      updateNameIndex(t, false);
+      if (tokenIndex != null) {
+        tokenIndex.put(t, getIndexBounds(t));
+      }
     }
-    tokenOrderedList.removeAll(tokens);
-    tokenOrderedList.addAll(tokens);
-    Collections.sort(tokenOrderedList, TOKEN_Z_ORDER_COMPARATOR);
 
     if (!addedTokens.isEmpty())
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_ADDED, addedTokens));
@@ -1208,7 +1387,13 @@ public void putTokens(List<Token> tokens) {
   public void removeToken(GUID id) {
     Token token = tokenMap.remove(id);
     if (token != null) {
-      tokenOrderedList.remove(token);
+      // Should it come back, the server won't have it to apply changes to
+      token.setSyncBaseline(null);
+      getZOrderIndex().remove(token);
+      updateNameIndex(token, true);
+      if (tokenIndex != null) {
+        tokenIndex.remove(token);
+      }
       fireModelChangeEvent(new ModelChangeEvent(this, Event.TOKEN_REMOVED, token));
     }
   }
@@ -1219,15 +1404,15 @@ public Token getToken(GUID id) {
 
   /** Returns the first token with a given name. The name is matched case-insensitively. */
   public Token getTokenByName(String name) {
-    for (Token token : getAllTokens()) {
-      if (StringUtil.isEmpty(token.getName())) {
-        continue;
-      }
-      if (token.getName().equalsIgnoreCase(name)) {
-        return token;
-      }
-    }
-    return null;
+    return getNameIndex().getByName(name);
+  }
+
+  /**
+   * Returns the first token with a given name that isn't a stamp, that is the first on the token
+   * layer. The name is matched case-insensitively.
+   */
+  public Token getNonStampTokenByName(String name) {
+    return getNameIndex().getNonStampByName(name);
   }
 
   /**
@@ -1253,15 +1438,29 @@ public Token resolveToken(String identifier) {
 
   /** Returns the first token with a given GM name. The name is matched case-insensitively. */
   public Token getTokenByGMName(String name) {
-    for (Token token : getAllTokens()) {
-      if (StringUtil.isEmpty(token.getGMName())) {
-        continue;
-      }
-      if (token.getGMName().equalsIgnoreCase(name)) {
-        return token;
-      }
+    if (!MapTool.getPlayer().isGM()) {
+      // Players don't see GM names
+      return null;
+    }
+    return getNameIndex().getByGMName(name);
+  }
+
+  private TokenNameIndex getNameIndex() {
+    if (nameIndex == null) {
+      nameIndex = new TokenNameIndex(getAllTokens());
+    }
+    return nameIndex;
+  }
+
+  private void updateNameIndex(Token token, boolean removed) {
+    if (nameIndex == null) {
+      return;
+    }
+    if (removed) {
+      nameIndex.remove(token);
+    } else {
+      nameIndex.put(token);
     }
-    return null;
   }
 
   public List<DrawnElement> getAllDrawnElements() {
@@ -1293,11 +1492,15 @@ private DrawnElement findDrawnElement(List<DrawnElement> list, GUID id) {
   }
 
   public int getTokenCount() {
-    return tokenOrderedList.size();
+    return getZOrderIndex().size();
   }
 
+  /**
+   * Returns the tokens on this zone in ZOrder. The list is an unmodifiable snapshot that is shared
+   * until the tokens next change, so callers must not rely on getting a distinct copy.
+   */
   public List<Token> getAllTokens() {
-    return Collections.unmodifiableList(new ArrayList<Token>(tokenOrderedList));
+    return getZOrderIndex().getSnapshot();
   }
 
   public Set<MD5Key> getAllAssetIds() {
@@ -1334,10 +1537,78 @@ public Set<MD5Key> getAllAssetIds() {
     return idSet;
   }
 
+  /**
+   * Returns the tokens on a layer whose bounds intersect an area, ordered by z-order. Rotated
+   * tokens are matched against the square their rotated footprint can sweep, so callers wanting an
+   * exact hit should test the returned tokens' rendered shape.
+   *
+   * @param layer the layer to search, or <code>null</code> for every layer
+   * @param area the area in zone coordinates
+   * @return the tokens, bottom-most first
+   */
+  public List<Token> getTokensIntersecting(Layer layer, Rectangle area) {
+    List<Token> result = new ArrayList<Token>();
+    getTokenIndex().getTokensIntersecting(layer, area, result);
+    Collections.sort(result, TOKEN_Z_ORDER_COMPARATOR);
+    return result;
+  }
+
+  /**
+   * Returns the tokens on a layer whose bounds contain a zone point, ordered by z-order. See {@link
+   * #getTokensIntersecting(Layer, Rectangle)}.
+   *
+   * @param layer the layer to search, or <code>null</code> for every layer
+   * @param x zone x coordinate
+   * @param y zone y coordinate
+   * @return the tokens, bottom-most first
+   */
+  public List<Token> getTokensAt(Layer layer, int x, int y) {
+    return getTokensIntersecting(layer, new Rectangle(x, y, 1, 1));
+  }
+
+  private TokenSpatialIndex getTokenIndex() {
+    if (tokenIndex == null) {
+      tokenIndex = new TokenSpatialIndex();
+      if (grid != null) {
+        for (Token token : tokenOrderedList) {
+          tokenIndex.put(token, getIndexBounds(token));
+        }
+      }
+    }
+    return tokenIndex;
+  }
+
+  /**
+   * Drops the token spatial index so it is rebuilt on the next query. Called when the grid changes
+   * since every token's footprint bounds depend on it.
+   */
+  void invalidateTokenIndex() {
+    tokenIndex = null;
+  }
+
+  /** Footprint bounds of a token, grown to cover any rotation when the token has a facing. */
+  private Rectangle getIndexBounds(Token token) {
+    if (grid == null) {
+      return new Rectangle();
+    }
+    Rectangle bounds = token.getBounds(this);
+    if (token.hasFacing() && token.getShape() == Token.TokenShape.TOP_DOWN) {
+      Point anchor = token.getAnchor();
+      int radius =
+          (int) Math.ceil(Math.hypot(bounds.width, bounds.height) / 2)
+              + Math.abs(anchor.x)
+              + Math.abs(anchor.y);
+      int cx = (int) bounds.getCenterX();
+      int cy = (int) bounds.getCenterY();
+      bounds = new Rectangle(cx - radius, cy - radius, radius * 2 + 1, radius * 2 + 1);
+    }
+    return bounds;
+  }
+
   public List<Token> getTokensFiltered(Filter filter) {
     ArrayList<Token> copy = new ArrayList<Token>(getTokenCount());
 
-    for (Token token : tokenOrderedList) {
+    for (Token token : getZOrderIndex().getSnapshot()) {
       if (filter.matchToken(token)) {
         copy.add(token);
       }
@@ -1680,7 +1951,6 @@ public void setInitiativeList(InitiativeList initiativeList) {
 
   public void optimize() {
     log.debug("Optimizing Map " + getName());
-    MapTool.getFrame().setStatusMessage(I18N.getText("Zone.status.optimizing", getName()));
     collapseDrawables();
   }
 
@@ -1798,6 +2068,7 @@ public boolean matchToken(Token token) {
       for (Token token : tokenOrderedList) {
         token.setZOrder(z++);
       }
+      zOrderIndex = null;
     }
     // Transient "undo" field added in 1.3.b88
     // This will be true; it's just in case we decide to make it persistent in the future
@@ -1825,7 +2096,7 @@ public ExposedAreaMetaData getExposedAreaMetaData(GUID tokenExposedAreaGUID) {
     if (meta != null) {
       return meta;
     }
-    meta = new ExposedAreaMetaData();
+    meta = newExposedAreaMetaData();
     exposedAreaMeta.put(tokenExposedAreaGUID, meta);
     return meta;
   }
@@ -1834,6 +2105,10 @@ public void setExposedAreaMetaData(GUID tokenExposedAreaGUID, ExposedAreaMetaDat
     if (exposedAreaMeta == null) {
       exposedAreaMeta = new HashMap<GUID, ExposedAreaMetaData>();
     }
+    if (meta != null) {
+      // The sender may keep exposed areas differently
+      meta.setFogCellSize(getFogCellSize());
+    }
     exposedAreaMeta.put(tokenExposedAreaGUID, meta);
     fireModelChangeEvent(new ModelChangeEvent(this, Event.FOG_CHANGED));
   }
@@ -0,0 +1,70 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.rptools.maptool.model.GUID;
+
+/**
+ * Keeps the last fog version each client has acknowledged for each zone, so that the server can
+ * send a client that has fallen too far behind a snapshot of the fog instead of yet another
+ * update.
+ */
+public class FogVersionTracker {
+  /** How many unacknowledged updates a client may have before it is sent a snapshot instead. */
+  static final int MAX_LAG = 32;
+
+  private final Map<String, Map<GUID, Integer>> ackedVersions =
+      new ConcurrentHashMap<String, Map<GUID, Integer>>();
+
+  /** Records that the client has applied the fog of the zone up to the version. */
+  public void acknowledge(String connectionId, GUID zoneGUID, int version) {
+    Map<GUID, Integer> zones =
+        ackedVersions.computeIfAbsent(connectionId, id -> new HashMap<GUID, Integer>());
+    synchronized (zones) {
+      Integer acked = zones.get(zoneGUID);
+      if (acked == null || acked < version) {
+        zones.put(zoneGUID, version);
+      }
+    }
+  }
+
+  /**
+   * Returns the clients that are more than {@link #MAX_LAG} updates behind the version of the
+   * zone. Clients that have not acknowledged any update to the zone are taken to be up to date, as
+   * they got the fog with the zone itself.
+   */
+  public List<String> getLaggingClients(GUID zoneGUID, int version) {
+    List<String> lagging = new ArrayList<String>();
+    for (Map.Entry<String, Map<GUID, Integer>> entry : ackedVersions.entrySet()) {
+      Integer acked;
+      synchronized (entry.getValue()) {
+        acked = entry.getValue().get(zoneGUID);
+      }
+      if (acked != null && version - acked > MAX_LAG) {
+        lagging.add(entry.getKey());
+      }
+    }
+    return lagging;
+  }
+
+  public void removeClient(String connectionId) {
+    ackedVersions.remove(connectionId);
+  }
+}
@@ -15,14 +15,17 @@
 package net.rptools.maptool.server;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import javax.swing.SwingUtilities;
 import net.rptools.clientserver.simple.client.ClientConnection;
 import net.rptools.clientserver.simple.server.ServerObserver;
+import net.rptools.lib.MD5Key;
 import net.rptools.maptool.client.ClientCommand;
 import net.rptools.maptool.client.MapTool;
 import net.rptools.maptool.client.MapToolRegistry;
@@ -40,7 +43,6 @@
 /** @author drice */
 public class MapToolServer {
   private static final Logger log = LogManager.getLogger(MapToolServer.class);
-  private static final int ASSET_CHUNK_SIZE = 5 * 1024;
 
   private final MapToolServerConnection conn;
   private final ServerMethodHandler handler;
@@ -51,6 +53,7 @@ public class MapToolServer {
   private final Map<String, ClientConnection> connectionMap =
       Collections.synchronizedMap(new HashMap<String, ClientConnection>());
   private final AssetProducerThread assetProducerThread;
+  private final FogVersionTracker fogVersionTracker = new FogVersionTracker();
 
   private Campaign campaign;
   private ServerPolicy policy;
@@ -104,13 +107,47 @@ public void releaseClientConnection(String id) {
         log.error("Could not release connection: " + id, e);
       }
     }
-    assetManagerMap.remove(id);
+    AssetTransferManager manager = assetManagerMap.remove(id);
+    if (manager != null) {
+      manager.flush();
+    }
     connectionMap.remove(id);
+    fogVersionTracker.removeClient(id);
+  }
+
+  /**
+   * Queues an asset to be sent to a client.
+   *
+   * @param urgent true if the client needs it for what it is showing now, so it goes first
+   */
+  public void addAssetProducer(String connectionId, AssetProducer producer, boolean urgent) {
+    AssetTransferManager manager = assetManagerMap.get(connectionId);
+    manager.addProducer(producer, urgent);
+    assetProducerThread.wakeUp();
+  }
+
+  /**
+   * Checks whether an asset is already queued for a client, making it urgent if asked.
+   *
+   * @return true if it is queued, so needn't be queued again
+   */
+  public boolean prioritizeAssetTransfer(String connectionId, MD5Key assetId, boolean urgent) {
+    AssetTransferManager manager = assetManagerMap.get(connectionId);
+    return manager != null && manager.prioritize(assetId, urgent);
   }
 
-  public void addAssetProducer(String connectionId, AssetProducer producer) {
+  /**
+   * Records that a client has received an asset chunk, making room in its send window for the next.
+   *
+   * @param connectionId the client's connection
+   * @param size the number of bytes in the chunk
+   */
+  public void acknowledgeAssetChunk(String connectionId, int size) {
     AssetTransferManager manager = assetManagerMap.get(connectionId);
-    manager.addProducer(producer);
+    if (manager != null) {
+      manager.acknowledge(size);
+      assetProducerThread.wakeUp();
+    }
   }
 
   public void addObserver(ServerObserver observer) {
@@ -155,6 +192,10 @@ public void updateServerPolicy(ServerPolicy policy) {
     this.policy = policy;
   }
 
+  public FogVersionTracker getFogVersionTracker() {
+    return fogVersionTracker;
+  }
+
   public ServerMethodHandler getMethodHandler() {
     return handler;
   }
@@ -264,20 +305,30 @@ public void shutdown() {
 
   ////
   // CLASSES
+  /**
+   * Sends asset chunks to each client as fast as its send window allows, and sleeps when there is
+   * nothing to send until a new transfer or an acknowledgement wakes it.
+   */
   private class AssetProducerThread extends Thread {
     private boolean stop = false;
+    private boolean woken = false;
 
     @Override
     public void run() {
       while (!stop) {
-        Entry<String, AssetTransferManager> entryForException = null;
-        try {
-          boolean lookForMore = false;
-          for (Entry<String, AssetTransferManager> entry : assetManagerMap.entrySet()) {
-            entryForException = entry;
-            AssetChunk chunk = entry.getValue().nextChunk(ASSET_CHUNK_SIZE);
+        synchronized (this) {
+          woken = false;
+        }
+        List<Entry<String, AssetTransferManager>> entries;
+        synchronized (assetManagerMap) {
+          entries = new ArrayList<Entry<String, AssetTransferManager>>(assetManagerMap.entrySet());
+        }
+        boolean sent = false;
+        for (Entry<String, AssetTransferManager> entry : entries) {
+          try {
+            AssetChunk chunk = entry.getValue().nextChunk();
             if (chunk != null) {
-              lookForMore = true;
+              sent = true;
               getConnection()
                   .callMethod(
                       entry.getKey(),
@@ -285,23 +336,37 @@ public void run() {
                       ClientCommand.COMMAND.updateAssetTransfer.name(),
                       chunk);
             }
+          } catch (Exception e) {
+            log.info("Couldn't retrieve AssetChunk for " + entry.getKey(), e);
+            // The failed asset has been dropped, but others may be waiting, so look again rather
+            // than wait for a wake up that might not come
+            sent = true;
           }
-          if (lookForMore) {
-            continue;
-          }
-          // Sleep for a bit
-          synchronized (this) {
-            Thread.sleep(500);
+        }
+        if (sent) {
+          continue;
+        }
+        synchronized (this) {
+          while (!woken && !stop) {
+            try {
+              wait();
+            } catch (InterruptedException e) {
+              // Check whether we've been stopped
+            }
           }
-        } catch (Exception e) {
-          log.info("Couldn't retrieve AssetChunk for " + entryForException.getKey(), e);
-          // keep on going
         }
       }
     }
 
-    public void shutdown() {
+    /** Has the thread look for chunks to send, as there may be some now. */
+    public synchronized void wakeUp() {
+      woken = true;
+      notify();
+    }
+
+    public synchronized void shutdown() {
       stop = true;
+      notify();
     }
   }
 
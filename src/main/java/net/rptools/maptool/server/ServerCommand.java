@@ -29,6 +29,8 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenBatch;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -92,6 +94,11 @@ public static enum COMMAND {
     setBoard,
     updateExposedAreaMeta,
     clearExposedArea,
+    updateToken,
+    updateTokens,
+    acknowledgeFoW,
+    requestFoW,
+    acknowledgeAssetChunk,
     restoreZoneView // Jamz: New command to restore player's view and let GM temporarily center and
     // scale a player's view
     // @formatter:on
@@ -127,7 +134,7 @@ public static enum COMMAND {
 
   public void putAsset(Asset asset);
 
-  public void getAsset(MD5Key assetID);
+  public void getAsset(MD5Key assetID, boolean urgent);
 
   public void removeAsset(MD5Key assetID);
 
@@ -205,4 +212,14 @@ public void updateExposedAreaMeta(
       GUID zoneGUID, GUID tokenExposedAreaGUID, ExposedAreaMetaData meta);
 
   public void clearExposedArea(GUID zoneGUID);
+
+  public void updateToken(GUID zoneGUID, TokenDelta delta);
+
+  public void updateTokens(GUID zoneGUID, TokenBatch tokens);
+
+  public void acknowledgeFoW(GUID zoneGUID, int version);
+
+  public void requestFoW(GUID zoneGUID);
+
+  public void acknowledgeAssetChunk(int size);
 }
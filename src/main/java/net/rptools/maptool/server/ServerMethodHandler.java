@@ -32,6 +32,7 @@
 import net.rptools.maptool.model.Campaign;
 import net.rptools.maptool.model.CampaignProperties;
 import net.rptools.maptool.model.ExposedAreaMetaData;
+import net.rptools.maptool.model.FogUpdate;
 import net.rptools.maptool.model.GUID;
 import net.rptools.maptool.model.Grid;
 import net.rptools.maptool.model.InitiativeList;
@@ -41,6 +42,8 @@
 import net.rptools.maptool.model.Pointer;
 import net.rptools.maptool.model.TextMessage;
 import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenBatch;
+import net.rptools.maptool.model.TokenDelta;
 import net.rptools.maptool.model.Zone;
 import net.rptools.maptool.model.Zone.VisionType;
 import net.rptools.maptool.model.ZonePoint;
@@ -95,7 +98,7 @@ public void handleMethod(String id, String method, Object... parameters) {
           exposeFoW(context.getGUID(0), (Area) context.get(1), (Set<GUID>) context.get(2));
           break;
         case getAsset:
-          getAsset((MD5Key) context.get(0));
+          getAsset((MD5Key) context.get(0), context.getBool(1));
           break;
         case getZone:
           getZone(context.getGUID(0));
@@ -132,6 +135,12 @@ public void handleMethod(String id, String method, Object... parameters) {
         case putToken:
           putToken(context.getGUID(0), (Token) context.get(1));
           break;
+        case updateToken:
+          updateToken(context.getGUID(0), (TokenDelta) context.get(1));
+          break;
+        case updateTokens:
+          updateTokens(context.getGUID(0), (TokenBatch) context.get(1));
+          break;
         case putZone:
           putZone((Zone) context.get(0));
           break;
@@ -253,6 +262,15 @@ public void handleMethod(String id, String method, Object... parameters) {
         case clearExposedArea:
           clearExposedArea(context.getGUID(0));
           break;
+        case acknowledgeFoW:
+          acknowledgeFoW(context.getGUID(0), context.getInt(1));
+          break;
+        case requestFoW:
+          requestFoW(context.getGUID(0));
+          break;
+        case acknowledgeAssetChunk:
+          acknowledgeAssetChunk(context.getInt(0));
+          break;
       }
     } finally {
       RPCContext.setCurrent(null);
@@ -374,11 +392,16 @@ public void exposeFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
             .getCampaign()
             .getZone(
                 zoneGUID); // this can return a zone that's not in MapToolFrame.zoneRenderList???
-    zone.exposeArea(area, selectedToks);
-    server
-        .getConnection()
-        .broadcastCallMethod(
-            ClientCommand.COMMAND.exposeFoW.name(), RPCContext.getCurrent().parameters);
+    // Clients send all a token can see, most of which is usually exposed already
+    Area unexposed = zone.getUnexposedArea(area, selectedToks);
+    if (unexposed.isEmpty()) {
+      return;
+    }
+    zone.exposeArea(unexposed, selectedToks);
+    broadcastFogUpdate(
+        zone,
+        FogUpdate.create(
+            FogUpdate.Type.EXPOSE, zone, zone.nextFogVersion(), unexposed, selectedToks));
   }
 
   public void exposePCArea(GUID zoneGUID) {
@@ -390,10 +413,14 @@ public void exposePCArea(GUID zoneGUID) {
             ClientCommand.COMMAND.exposePCArea.name(), RPCContext.getCurrent().parameters);
   }
 
-  public void getAsset(MD5Key assetID) {
+  public void getAsset(MD5Key assetID, boolean urgent) {
     if (assetID == null || assetID.toString().length() == 0) {
       return;
     }
+    if (server.prioritizeAssetTransfer(RPCContext.getCurrent().id, assetID, urgent)) {
+      // Already on its way; sending the header again would restart it
+      return;
+    }
     try {
       AssetProducer producer =
           new AssetProducer(
@@ -407,7 +434,7 @@ public void getAsset(MD5Key assetID) {
               MapToolConstants.Channel.IMAGE,
               ClientCommand.COMMAND.startAssetTransfer.name(),
               producer.getHeader());
-      server.addAssetProducer(RPCContext.getCurrent().id, producer);
+      server.addAssetProducer(RPCContext.getCurrent().id, producer, urgent);
 
     } catch (IOException ioe) {
       ioe.printStackTrace();
@@ -443,19 +470,17 @@ public void getZone(GUID zoneGUID) {
   public void hideFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
     Zone zone = server.getCampaign().getZone(zoneGUID);
     zone.hideArea(area, selectedToks);
-    server
-        .getConnection()
-        .broadcastCallMethod(
-            ClientCommand.COMMAND.hideFoW.name(), RPCContext.getCurrent().parameters);
+    broadcastFogUpdate(
+        zone,
+        FogUpdate.create(FogUpdate.Type.HIDE, zone, zone.nextFogVersion(), area, selectedToks));
   }
 
   public void setFoW(GUID zoneGUID, Area area, Set<GUID> selectedToks) {
     Zone zone = server.getCampaign().getZone(zoneGUID);
     zone.setFogArea(area, selectedToks);
-    server
-        .getConnection()
-        .broadcastCallMethod(
-            ClientCommand.COMMAND.setFoW.name(), RPCContext.getCurrent().parameters);
+    broadcastFogUpdate(
+        zone,
+        FogUpdate.create(FogUpdate.Type.SET, zone, zone.nextFogVersion(), area, selectedToks));
   }
 
   public void hidePointer(String player) {
@@ -519,19 +544,75 @@ public void putLabel(GUID zoneGUID, Label label) {
 
   public void putToken(GUID zoneGUID, Token token) {
     Zone zone = server.getCampaign().getZone(zoneGUID);
+    if (storeToken(zone, token)) {
+      forwardToAllClients();
+    } else {
+      forwardToClients();
+    }
+  }
 
-    boolean newToken = zone.getToken(token.getId()) == null;
+  /** @return true if the token is new to the zone */
+  private boolean storeToken(Zone zone, Token token) {
+    Token oldToken = zone.getToken(token.getId());
     synchronized (MUTEX) {
       // Set z-order for new tokens
-      if (newToken) {
+      if (oldToken == null) {
         token.setZOrder(zone.getLargestZOrder() + 1);
+      } else {
+        // Keep numbering changes on from the old token, so clients don't take later ones as stale
+        token.setVersion(oldToken.getVersion() + 1);
       }
       zone.putToken(token);
     }
-    if (newToken) {
-      forwardToAllClients();
+    return oldToken == null;
+  }
+
+  public void updateToken(GUID zoneGUID, TokenDelta delta) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    if (applyTokenDelta(zone, delta)) {
+      broadcastToClients(
+          RPCContext.getCurrent().id, ClientCommand.COMMAND.updateToken.name(), zoneGUID, delta);
+    }
+  }
+
+  /** @return false if the token has gone, so there was nothing to apply the delta to */
+  private boolean applyTokenDelta(Zone zone, TokenDelta delta) {
+    synchronized (MUTEX) {
+      Token token = zone.getToken(delta.getTokenId());
+      if (token == null) {
+        // Removed while the change was on its way
+        return false;
+      }
+      delta.apply(token);
+      token.setVersion(token.getVersion() + 1);
+      delta.setVersion(token.getVersion());
+      zone.putToken(token);
+    }
+    return true;
+  }
+
+  public void updateTokens(GUID zoneGUID, TokenBatch tokens) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    List<Object> applied = new ArrayList<Object>(tokens.size());
+    boolean newTokens = false;
+    for (Object item : tokens.getItems()) {
+      if (item instanceof Token) {
+        newTokens |= storeToken(zone, (Token) item);
+        applied.add(item);
+      } else if (applyTokenDelta(zone, (TokenDelta) item)) {
+        applied.add(item);
+      }
+    }
+    if (applied.isEmpty()) {
+      return;
+    }
+    // Send new tokens back to the sender too, for the z-order they were given
+    TokenBatch batch = new TokenBatch(applied);
+    if (newTokens) {
+      broadcastToAllClients(ClientCommand.COMMAND.updateTokens.name(), zoneGUID, batch);
     } else {
-      forwardToClients();
+      broadcastToClients(
+          RPCContext.getCurrent().id, ClientCommand.COMMAND.updateTokens.name(), zoneGUID, batch);
     }
   }
 
@@ -739,7 +820,12 @@ public void setBoard(GUID zoneGUID, MD5Key mapId, int x, int y) {
    */
   public void updateExposedAreaMeta(
       GUID zoneGUID, GUID tokenExposedAreaGUID, ExposedAreaMetaData meta) {
-    forwardToClients();
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    zone.setExposedAreaMetaData(tokenExposedAreaGUID, meta);
+    broadcastFogUpdate(
+        zone,
+        FogUpdate.createTokenHistory(
+            zone, zone.nextFogVersion(), tokenExposedAreaGUID, meta.getExposedAreaHistory()));
   }
 
   public void clearExposedArea(GUID zoneGUID) {
@@ -753,6 +839,50 @@ public void clearExposedArea(GUID zoneGUID) {
     // RPCContext.getCurrent().parameters);
   }
 
+  public void acknowledgeFoW(GUID zoneGUID, int version) {
+    server.getFogVersionTracker().acknowledge(RPCContext.getCurrent().id, zoneGUID, version);
+  }
+
+  public void acknowledgeAssetChunk(int size) {
+    server.acknowledgeAssetChunk(RPCContext.getCurrent().id, size);
+  }
+
+  public void requestFoW(GUID zoneGUID) {
+    Zone zone = server.getCampaign().getZone(zoneGUID);
+    if (zone != null) {
+      sendFogSnapshot(RPCContext.getCurrent().id, zone);
+    }
+  }
+
+  /**
+   * Sends the update to every client, including the one that made the change so that it moves to
+   * the new version too. Clients too far behind to catch up one update at a time get a snapshot
+   * instead.
+   */
+  private void broadcastFogUpdate(Zone zone, FogUpdate update) {
+    List<String> lagging =
+        server.getFogVersionTracker().getLaggingClients(zone.getId(), update.getVersion());
+    server
+        .getConnection()
+        .broadcastCallMethod(
+            lagging.toArray(new String[lagging.size()]),
+            ClientCommand.COMMAND.updateFoW.name(),
+            zone.getId(),
+            update);
+    for (String id : lagging) {
+      sendFogSnapshot(id, zone);
+    }
+  }
+
+  private void sendFogSnapshot(String connectionId, Zone zone) {
+    FogUpdate snapshot = FogUpdate.createSnapshot(zone);
+    server
+        .getConnection()
+        .callMethod(connectionId, ClientCommand.COMMAND.updateFoW.name(), zone.getId(), snapshot);
+    // Assume it arrives, so that the client isn't sent another before it can acknowledge this one
+    server.getFogVersionTracker().acknowledge(connectionId, zone.getId(), snapshot.getVersion());
+  }
+
   ////
   // CONTEXT
   private static class RPCContext {
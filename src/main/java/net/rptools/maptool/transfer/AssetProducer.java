@@ -14,10 +14,13 @@
  */
 package net.rptools.maptool.transfer;
 
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Creates data chunks for transferring binary data. Assumes large datasets (otherwise it would be a
@@ -31,6 +34,7 @@ public class AssetProducer {
   private File assetFile;
   private long length;
   private long currentPosition = 0;
+  private FileChannel channel;
 
   public AssetProducer(Serializable id, String name, File assetFile) {
     if (!assetFile.exists() || assetFile.isDirectory()) {
@@ -52,7 +56,8 @@ public AssetHeader getHeader() throws IOException {
   }
 
   /**
-   * Get the next chunk of data
+   * Get the next chunk of data. The file is kept open between chunks, and read from where the last
+   * chunk ended; it is closed once the last chunk has been read, or by {@link #close()}.
    *
    * @param size how many bytes to grab, may end up being less if there isn't enough data
    * @throws IOException
@@ -61,19 +66,48 @@ public AssetChunk nextChunk(int size) throws IOException {
     if (currentPosition + size > length) {
       size = (int) (length - currentPosition);
     }
+    if (channel == null) {
+      channel = FileChannel.open(assetFile.toPath(), StandardOpenOption.READ);
+    }
     byte[] data = new byte[size];
-    FileInputStream in = new FileInputStream(assetFile);
-
-    in.skip(currentPosition);
-    in.read(data, 0, size);
-    in.close();
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, currentPosition + buffer.position()) < 0) {
+        close();
+        throw new EOFException(assetFile + " is shorter than its header said");
+      }
+    }
 
     currentPosition += size;
+    if (isComplete()) {
+      close();
+    }
     return new AssetChunk(id, data);
   }
 
+  public Serializable getId() {
+    return id;
+  }
+
+  /** @return the number of bytes still to be transferred */
+  public long getRemaining() {
+    return length - currentPosition;
+  }
+
   /** Whether all the data has been transferred */
   public boolean isComplete() {
     return currentPosition >= length;
   }
+
+  /** Releases the file, for when the transfer is abandoned before it completes. */
+  public void close() {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing more we can do with it
+      }
+      channel = null;
+    }
+  }
 }
@@ -18,21 +18,40 @@
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class AssetTransferManager {
+  /** The size of the first chunks sent, kept small so that small assets arrive quickly. */
+  static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+  /** The size chunks grow to as they are acknowledged. */
+  static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+  /** The most bytes sent by {@link #nextChunk()} that the consumer may not yet have received. */
+  static final int SEND_WINDOW = 1024 * 1024;
+
   private Map<Serializable, AssetConsumer> consumerMap = new HashMap<Serializable, AssetConsumer>();
   private List<ConsumerListener> consumerListenerList =
       new CopyOnWriteArrayList<ConsumerListener>();
   private List<AssetProducer> producerList = new LinkedList<AssetProducer>();
+  private Set<Serializable> urgentIds = new HashSet<Serializable>();
+  private int chunkSize = MIN_CHUNK_SIZE;
+  private long unacknowledged;
 
   /** Clear out all existing consumers and producers */
   public synchronized void flush() {
     consumerMap.clear();
+    for (AssetProducer producer : producerList) {
+      producer.close();
+    }
     producerList.clear();
+    urgentIds.clear();
+    unacknowledged = 0;
   }
 
   /**
@@ -40,11 +59,43 @@ public synchronized void flush() {
    * the consumer. Producer chunks can then be retrieved via nextChunk()
    */
   public synchronized void addProducer(AssetProducer producer) {
+    addProducer(producer, false);
+  }
+
+  /**
+   * Add a new producer to the chunk queue, as {@link #addProducer(AssetProducer)}.
+   *
+   * @param urgent true if the consumer needs the data now, so it should go ahead of the rest
+   */
+  public synchronized void addProducer(AssetProducer producer, boolean urgent) {
     producerList.add(producer);
+    if (urgent) {
+      urgentIds.add(producer.getId());
+    }
   }
 
   /**
-   * Get the next chunk from the available producers
+   * Checks whether the data with the given id is already queued, for when it is asked for again.
+   *
+   * @param urgent true to have the queued data go ahead of the rest, as with {@link
+   *     #addProducer(AssetProducer, boolean)}
+   * @return true if it is queued, and so needn't be added
+   */
+  public synchronized boolean prioritize(Serializable id, boolean urgent) {
+    for (AssetProducer producer : producerList) {
+      if (producer.getId().equals(id)) {
+        if (urgent) {
+          urgentIds.add(id);
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Get the next chunk from the available producers. Urgent data goes first, then whichever has the
+   * least left to send, so that small assets don't wait behind large ones.
    *
    * @param size size of the data to retrieve
    * @throws IOException
@@ -53,14 +104,64 @@ public synchronized AssetChunk nextChunk(int size) throws IOException {
     if (producerList.size() == 0) {
       return null;
     }
-    AssetProducer producer = producerList.remove(0);
-    AssetChunk chunk = producer.nextChunk(size);
+    AssetProducer producer = producerList.get(0);
+    for (AssetProducer candidate : producerList) {
+      boolean urgent = urgentIds.contains(candidate.getId());
+      if (urgent != urgentIds.contains(producer.getId())) {
+        if (urgent) {
+          producer = candidate;
+        }
+      } else if (candidate.getRemaining() < producer.getRemaining()) {
+        producer = candidate;
+      }
+    }
+    producerList.remove(producer);
+    AssetChunk chunk;
+    try {
+      chunk = producer.nextChunk(size);
+    } catch (IOException e) {
+      // Dropped, so that it isn't tried again
+      producer.close();
+      urgentIds.remove(producer.getId());
+      throw e;
+    }
     if (!producer.isComplete()) {
       producerList.add(producer);
+    } else {
+      urgentIds.remove(producer.getId());
+    }
+    return chunk;
+  }
+
+  /**
+   * Get the next chunk from the available producers, if the consumer has acknowledged enough of
+   * those already sent for it to fit in the send window. Chunks start small and grow as they are
+   * acknowledged, so a connection that keeps up gets fewer, larger messages.
+   *
+   * @return the chunk, or null if there is nothing to send or the window is full
+   * @throws IOException
+   */
+  public synchronized AssetChunk nextChunk() throws IOException {
+    if (unacknowledged + chunkSize > SEND_WINDOW) {
+      return null;
+    }
+    AssetChunk chunk = nextChunk(chunkSize);
+    if (chunk != null) {
+      unacknowledged += chunk.getData().length;
     }
     return chunk;
   }
 
+  /**
+   * Records that the consumer has received a chunk sent by {@link #nextChunk()}.
+   *
+   * @param size the number of bytes in the chunk
+   */
+  public synchronized void acknowledge(int size) {
+    unacknowledged = Math.max(0, unacknowledged - size);
+    chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+  }
+
   /**
    * Add the corresponding consumer that is expecting to receive chunks. Add a ConsumerListener to
    * know when the asset is complete
@@ -16,6 +16,7 @@
 
 import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.awt.image.ImageObserver;
 import java.io.IOException;
 import java.util.HashMap;
@@ -47,8 +48,20 @@
 public class ImageManager {
   private static final Logger log = LogManager.getLogger(ImageManager.class);
 
-  /** Cache of images loaded for assets. */
-  private static final Map<MD5Key, BufferedImage> imageMap = new HashMap<MD5Key, BufferedImage>();
+  /** Share of the maximum heap that decoded images may hold on to before the oldest are evicted. */
+  private static final double IMAGE_CACHE_HEAP_FRACTION = 0.25;
+
+  /**
+   * Cache of images loaded for assets, bounded by the bytes of pixel data it holds. An evicted
+   * image is decoded again from its asset the next time it is asked for. Placeholders for images
+   * still loading are never evicted, as the loader replaces them when it is done.
+   */
+  private static final MemoryBoundedCache<MD5Key, BufferedImage> imageMap =
+      new MemoryBoundedCache<MD5Key, BufferedImage>(
+          "Image cache",
+          (long) (Runtime.getRuntime().maxMemory() * IMAGE_CACHE_HEAP_FRACTION),
+          ImageManager::getImageBytes,
+          (id, image) -> image != TRANSFERING_IMAGE);
 
   private static final Map<MD5Key, byte[]> textureMap = new HashMap<MD5Key, byte[]>();
 
@@ -104,6 +117,26 @@ public static void flush() {
     imageMap.clear();
   }
 
+  /** @return hit rate and resident size of the decoded image cache */
+  public static MemoryBoundedCache.Stats getCacheStats() {
+    return imageMap.getStats();
+  }
+
+  /**
+   * Approximate the memory held by an image's pixel data. The shared placeholder images are not
+   * counted, since they are never released anyway.
+   */
+  private static long getImageBytes(BufferedImage image) {
+    if (image == TRANSFERING_IMAGE || image == BROKEN_IMAGE) {
+      return 0;
+    }
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    return (long) buffer.getSize()
+        * buffer.getNumBanks()
+        * DataBuffer.getDataTypeSize(buffer.getDataType())
+        / 8;
+  }
+
   /**
    * Loads the asset's raw image data into a buffered image, and waits for the image to load.
    *
@@ -120,7 +153,7 @@ public static BufferedImage getImageAndWait(MD5Key assetId) {
    */
   public static void flush(Set<MD5Key> exceptionSet) {
     synchronized (imageLoaderMutex) {
-      for (MD5Key id : new HashSet<MD5Key>(imageMap.keySet())) {
+      for (MD5Key id : imageMap.keySet()) {
         if (!exceptionSet.contains(id)) {
           imageMap.remove(id);
         }
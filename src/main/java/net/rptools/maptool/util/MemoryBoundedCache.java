@@ -0,0 +1,334 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache that holds on to at most a given number of bytes of values, evicting the least recently
+ * used ones first. Evicted values are kept behind soft references, so they can still be returned
+ * until the garbage collector actually needs the memory; after that a lookup misses and the caller
+ * reloads the value from wherever it came from.
+ *
+ * <p>Values that can't be reloaded, such as an asset that hasn't reached the persistent cache yet,
+ * are skipped over by eviction for as long as the <code>evictable</code> test says so.
+ *
+ * <p>All methods are synchronized on the cache.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class MemoryBoundedCache<K, V> {
+  private final String name;
+  private final ToLongFunction<V> sizer;
+  private final BiPredicate<K, V> evictable;
+  private long maxBytes;
+
+  /** Strongly held values, least recently used first. */
+  private final LinkedHashMap<K, Entry<V>> resident =
+      new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+  /** Evicted values the garbage collector hasn't reclaimed yet. */
+  private final Map<K, KeyedReference<K, V>> evicted = new HashMap<K, KeyedReference<K, V>>();
+
+  private final ReferenceQueue<V> queue = new ReferenceQueue<V>();
+  private long residentBytes;
+
+  private long hits;
+  private long softHits;
+  private long misses;
+  private long evictions;
+
+  private static class Entry<V> {
+    private final V value;
+    private final long size;
+
+    private Entry(V value, long size) {
+      this.value = value;
+      this.size = size;
+    }
+  }
+
+  private static class KeyedReference<K, V> extends SoftReference<V> {
+    private final K key;
+
+    private KeyedReference(K key, V value, ReferenceQueue<V> queue) {
+      super(value, queue);
+      this.key = key;
+    }
+  }
+
+  /**
+   * @param name used when reporting statistics
+   * @param maxBytes the most bytes of values to hold strongly
+   * @param sizer gives the approximate number of bytes a value holds on to
+   * @param evictable tells whether a value may currently be evicted
+   */
+  public MemoryBoundedCache(
+      String name, long maxBytes, ToLongFunction<V> sizer, BiPredicate<K, V> evictable) {
+    this.name = name;
+    this.maxBytes = maxBytes;
+    this.sizer = sizer;
+    this.evictable = evictable;
+  }
+
+  /**
+   * Returns the cached value, promoting it back to a strong reference if it had been evicted but
+   * not yet collected.
+   *
+   * @return the value, or null if it isn't cached
+   */
+  public synchronized V get(K key) {
+    expungeCollected();
+    Entry<V> entry = resident.get(key);
+    if (entry != null) {
+      hits++;
+      return entry.value;
+    }
+    KeyedReference<K, V> ref = evicted.remove(key);
+    V value = ref != null ? ref.get() : null;
+    if (value != null) {
+      softHits++;
+      putResident(key, value);
+      return value;
+    }
+    misses++;
+    return null;
+  }
+
+  /** Caches the value, evicting least recently used values if this takes the cache over budget. */
+  public synchronized void put(K key, V value) {
+    expungeCollected();
+    evicted.remove(key);
+    putResident(key, value);
+  }
+
+  private void putResident(K key, V value) {
+    Entry<V> old = resident.put(key, new Entry<V>(value, sizer.applyAsLong(value)));
+    if (old != null) {
+      residentBytes -= old.size;
+    }
+    residentBytes += resident.get(key).size;
+    evict(key);
+  }
+
+  /**
+   * Evicts values, least recently used first, until the cache is back within budget.
+   *
+   * @param keep the key that was just added, which is never evicted here
+   */
+  private void evict(K keep) {
+    if (residentBytes <= maxBytes) {
+      return;
+    }
+    Iterator<Map.Entry<K, Entry<V>>> iter = resident.entrySet().iterator();
+    while (residentBytes > maxBytes && iter.hasNext()) {
+      Map.Entry<K, Entry<V>> mapEntry = iter.next();
+      K key = mapEntry.getKey();
+      Entry<V> entry = mapEntry.getValue();
+      if (key.equals(keep) || !evictable.test(key, entry.value)) {
+        continue;
+      }
+      iter.remove();
+      residentBytes -= entry.size;
+      evicted.put(key, new KeyedReference<K, V>(key, entry.value, queue));
+      evictions++;
+    }
+  }
+
+  /** Forgets keys whose evicted values have been collected. */
+  @SuppressWarnings("unchecked")
+  private void expungeCollected() {
+    KeyedReference<K, V> ref;
+    while ((ref = (KeyedReference<K, V>) queue.poll()) != null) {
+      // The key may have been cached again since
+      if (evicted.get(ref.key) == ref) {
+        evicted.remove(ref.key);
+      }
+    }
+  }
+
+  /** @return true if the value is held strongly or has been evicted but not yet collected */
+  public synchronized boolean containsKey(K key) {
+    expungeCollected();
+    if (resident.containsKey(key)) {
+      return true;
+    }
+    KeyedReference<K, V> ref = evicted.get(key);
+    return ref != null && ref.get() != null;
+  }
+
+  /** @return the removed value, or null if there was nothing cached for the key */
+  public synchronized V remove(K key) {
+    expungeCollected();
+    Entry<V> entry = resident.remove(key);
+    if (entry != null) {
+      residentBytes -= entry.size;
+      evicted.remove(key);
+      return entry.value;
+    }
+    KeyedReference<K, V> ref = evicted.remove(key);
+    return ref != null ? ref.get() : null;
+  }
+
+  public synchronized void clear() {
+    resident.clear();
+    evicted.clear();
+    residentBytes = 0;
+  }
+
+  /** @return a copy of the keys that {@link #containsKey(Object)} would currently accept */
+  public synchronized Set<K> keySet() {
+    expungeCollected();
+    Set<K> keys = new HashSet<K>(resident.keySet());
+    for (KeyedReference<K, V> ref : evicted.values()) {
+      if (ref.get() != null) {
+        keys.add(ref.key);
+      }
+    }
+    return keys;
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /** Changes the budget, evicting straight away if the cache is now over it. */
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    evict(null);
+  }
+
+  public synchronized Stats getStats() {
+    expungeCollected();
+    return new Stats(
+        name,
+        hits,
+        softHits,
+        misses,
+        evictions,
+        resident.size(),
+        residentBytes,
+        evicted.size(),
+        maxBytes);
+  }
+
+  public synchronized void resetStats() {
+    hits = 0;
+    softHits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+  /** A snapshot of the cache counters. */
+  public static class Stats {
+    private final String name;
+    private final long hits;
+    private final long softHits;
+    private final long misses;
+    private final long evictions;
+    private final int residentCount;
+    private final long residentBytes;
+    private final int evictedCount;
+    private final long maxBytes;
+
+    private Stats(
+        String name,
+        long hits,
+        long softHits,
+        long misses,
+        long evictions,
+        int residentCount,
+        long residentBytes,
+        int evictedCount,
+        long maxBytes) {
+      this.name = name;
+      this.hits = hits;
+      this.softHits = softHits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.residentCount = residentCount;
+      this.residentBytes = residentBytes;
+      this.evictedCount = evictedCount;
+      this.maxBytes = maxBytes;
+    }
+
+    /** @return lookups answered by a strongly held value */
+    public long getHits() {
+      return hits;
+    }
+
+    /** @return lookups answered by an evicted value that hadn't been collected yet */
+    public long getSoftHits() {
+      return softHits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /** @return the fraction of lookups that found a value, or 0 if there have been none */
+    public double getHitRate() {
+      long lookups = hits + softHits + misses;
+      return lookups == 0 ? 0 : (double) (hits + softHits) / lookups;
+    }
+
+    public int getResidentCount() {
+      return residentCount;
+    }
+
+    public long getResidentBytes() {
+      return residentBytes;
+    }
+
+    /** @return evicted values still waiting on the garbage collector */
+    public int getEvictedCount() {
+      return evictedCount;
+    }
+
+    public long getMaxBytes() {
+      return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %d entries, %dKB of %dKB resident, %d evicted awaiting GC; "
+              + "hits %d (+%d soft), misses %d (%.1f%% hit rate), evictions %d",
+          name,
+          residentCount,
+          residentBytes / 1024,
+          maxBytes / 1024,
+          evictedCount,
+          hits,
+          softHits,
+          misses,
+          getHitRate() * 100,
+          evictions);
+    }
+  }
+}
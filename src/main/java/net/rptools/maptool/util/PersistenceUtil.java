@@ -28,6 +28,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URL;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -38,6 +39,12 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 import net.rptools.lib.CodeTimer;
 import net.rptools.lib.FileUtil;
@@ -82,6 +89,9 @@ public class PersistenceUtil {
 
   private static final String CAMPAIGN_VERSION = "1.4.1";
 
+  /** Threads used to read assets and optimize zones while loading. */
+  private static final int LOAD_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
   // Please add a single note regarding why the campaign version number has been updated:
   // 1.3.70 ownerOnly added to model.Light (not backward compatible)
   // 1.3.75 model.Token.visibleOnlyToOwner (actually added to b74 but I didn't catch it before
@@ -441,9 +451,7 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
         // Note that the values are all placeholders
         Set<MD5Key> allAssetIds = persistedCampaign.assetMap.keySet();
         loadAssets(allAssetIds, pakFile);
-        for (Zone zone : persistedCampaign.campaign.getZones()) {
-          zone.optimize();
-        }
+        optimizeZones(persistedCampaign.campaign.getZones());
 
         // for (Entry<String, Map<GUID, LightSource>> entry :
         // persistedCampaign.campaign.getLightSourcesMap().entrySet()) {
@@ -479,6 +487,45 @@ public static PersistedCampaign loadCampaign(File campaignFile) throws IOExcepti
     return persistedCampaign;
   }
 
+  /**
+   * Optimizes the zones side by side, as each only touches its own drawables. Progress is reported
+   * from the calling thread as it waits for each zone, never from the pool.
+   */
+  static void optimizeZones(List<Zone> zones) throws IOException {
+    if (zones.size() < 2) {
+      for (Zone zone : zones) {
+        showOptimizing(zone);
+        zone.optimize();
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(LOAD_THREADS, zones.size()));
+    try {
+      List<Future<?>> optimizing = new ArrayList<Future<?>>(zones.size());
+      for (final Zone zone : zones) {
+        optimizing.add(
+            pool.submit(
+                new Runnable() {
+                  public void run() {
+                    zone.optimize();
+                  }
+                }));
+      }
+      for (int i = 0; i < zones.size(); i++) {
+        showOptimizing(zones.get(i));
+        await(optimizing.get(i));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static void showOptimizing(Zone zone) {
+    if (MapTool.getFrame() != null) {
+      MapTool.getFrame().setStatusMessage(I18N.getText("Zone.status.optimizing", zone.getName()));
+    }
+  }
+
   public static PersistedCampaign loadLegacyCampaign(File campaignFile) {
     HessianInput his = null;
     PersistedCampaign persistedCampaign = null;
@@ -636,70 +683,75 @@ private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
     String campaignVersion = (String) pakFile.getProperty(PROP_CAMPAIGN_VERSION);
     String progVersion = (String) pakFile.getProperty(PROP_VERSION);
     List<Asset> addToServer = new ArrayList<Asset>(assetIds.size());
+    // Reading and decoding the image data is left to a pool, created only if it's needed
+    List<Future<Asset>> loading = new ArrayList<Future<Asset>>(assetIds.size());
+    ExecutorService pool = null;
 
     // FJE: Ugly fix for a bug I introduced in b64. :(
     boolean fixRequired = "1.3.b64".equals(progVersion);
 
-    for (MD5Key key : assetIds) {
-      if (key == null) continue;
-
-      if (!AssetManager.hasAsset(key)) {
-        String pathname = ASSET_DIR + key;
-        Asset asset = null;
-        if (fixRequired) {
-          InputStream is = null;
-          try {
-            is = pakFile.getFileAsInputStream(pathname);
-            asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
-          } catch (FileNotFoundException fnf) {
-            // Doesn't need to be reported, since that's handled below.
-          } catch (Exception e) {
-            log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
-          } finally {
-            IOUtils.closeQuietly(is);
-          }
-        } else {
-          try {
-            asset = (Asset) pakFile.getFileObject(pathname); // XML deserialization
-          } catch (Exception e) {
-            // Do nothing. The asset will be 'null' and it'll be handled below.
-            log.info("Exception while handling asset '" + pathname + "'", e);
+    try {
+      for (MD5Key key : assetIds) {
+        if (key == null) continue;
+
+        if (!AssetManager.hasAsset(key)) {
+          String pathname = ASSET_DIR + key;
+          Asset asset = null;
+          if (fixRequired) {
+            InputStream is = null;
+            try {
+              is = pakFile.getFileAsInputStream(pathname);
+              asset = new Asset(key.toString(), IOUtils.toByteArray(is)); // Ugly bug fix :(
+            } catch (FileNotFoundException fnf) {
+              // Doesn't need to be reported, since that's handled below.
+            } catch (Exception e) {
+              log.error("Could not load asset from 1.3.b64 file in compatibility mode", e);
+            } finally {
+              IOUtils.closeQuietly(is);
+            }
+          } else {
+            try {
+              asset = (Asset) pakFile.getFileObject(pathname); // XML deserialization
+            } catch (Exception e) {
+              // Do nothing. The asset will be 'null' and it'll be handled below.
+              log.info("Exception while handling asset '" + pathname + "'", e);
+            }
           }
-        }
-        if (asset == null) { // Referenced asset not included in PackedFile??
-          log.error("Referenced asset '" + pathname + "' not found while loading?!");
-          continue;
-        }
-        // If the asset was marked as "broken" then ignore it completely. The end
-        // result is that MT will attempt to load it from a repository again, as normal.
-        if ("broken".equals(asset.getName())) {
-          log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
-          ImageManager.flushImage(asset);
-          continue;
-        }
-        // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
-        // New XStreamConverter creates empty byte[] for image.
-        if (asset.getImage() == null || asset.getImage().length < 4) {
-          String ext = asset.getImageExtension();
-          pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
-          pathname = assetnameVersionManager.transform(pathname, campaignVersion);
-          InputStream is = null;
-          try {
-            is = pakFile.getFileAsInputStream(pathname);
-            asset.setImage(IOUtils.toByteArray(is));
-          } catch (FileNotFoundException fnf) {
-            log.error("Image data for '" + pathname + "' not found?!", fnf);
+          if (asset == null) { // Referenced asset not included in PackedFile??
+            log.error("Referenced asset '" + pathname + "' not found while loading?!");
             continue;
-          } catch (Exception e) {
-            log.error("While reading image data for '" + pathname + "'", e);
+          }
+          // If the asset was marked as "broken" then ignore it completely. The end
+          // result is that MT will attempt to load it from a repository again, as normal.
+          if ("broken".equals(asset.getName())) {
+            log.warn("Reference to 'broken' asset '" + pathname + "' not restored.");
+            ImageManager.flushImage(asset);
             continue;
-          } finally {
-            IOUtils.closeQuietly(is);
+          }
+          // pre 1.3b52 campaign files stored the image data directly in the asset serialization.
+          // New XStreamConverter creates empty byte[] for image.
+          if (asset.getImage() == null || asset.getImage().length < 4) {
+            String ext = asset.getImageExtension();
+            pathname = pathname + "." + (StringUtil.isEmpty(ext) ? "dat" : ext);
+            pathname = assetnameVersionManager.transform(pathname, campaignVersion);
+            if (pool == null) {
+              pool = Executors.newFixedThreadPool(Math.min(LOAD_THREADS, assetIds.size()));
+            }
+            loading.add(pool.submit(new AssetImageReader(pakFile, asset, pathname)));
+          } else {
+            loading.add(CompletableFuture.completedFuture(asset));
           }
         }
-        AssetManager.putAsset(asset);
-        addToServer.add(asset);
       }
+      for (Future<Asset> future : loading) {
+        Asset asset = await(future);
+        if (asset != null) {
+          AssetManager.putAsset(asset);
+          addToServer.add(asset);
+        }
+      }
+    } finally {
+      if (pool != null) pool.shutdownNow();
     }
     if (!addToServer.isEmpty()) {
       // Isn't this the same as (MapTool.getServer() == null) ? And won't there always
@@ -721,6 +773,54 @@ private static void loadAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
     }
   }
 
+  /** Reads the image data of an asset from a packed file, giving null if it can't be read. */
+  private static class AssetImageReader implements Callable<Asset> {
+    private final PackedFile pakFile;
+    private final Asset asset;
+    private final String pathname;
+
+    AssetImageReader(PackedFile pakFile, Asset asset, String pathname) {
+      this.pakFile = pakFile;
+      this.asset = asset;
+      this.pathname = pathname;
+    }
+
+    public Asset call() {
+      InputStream is = null;
+      try {
+        is = pakFile.getFileAsInputStream(pathname);
+        asset.setImage(IOUtils.toByteArray(is));
+        return asset;
+      } catch (FileNotFoundException fnf) {
+        log.error("Image data for '" + pathname + "' not found?!", fnf);
+      } catch (Exception e) {
+        log.error("While reading image data for '" + pathname + "'", e);
+      } finally {
+        IOUtils.closeQuietly(is);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Waits for the result of work handed to a pool, rethrowing what it threw as if it had been done
+   * on this thread.
+   */
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new IOException(cause);
+    }
+  }
+
   private static void saveAssets(Collection<MD5Key> assetIds, PackedFile pakFile)
       throws IOException {
     // Special handling of assets: XML file to describe the Asset, but binary file for the image
@@ -0,0 +1,82 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.lib.io;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class PackedFileTest {
+
+  @Test
+  @DisplayName("Images are stored rather than deflated, on every save")
+  void testStoredImages() throws Exception {
+    byte[] image = new byte[4096];
+    for (int i = 0; i < image.length; i++) {
+      image[i] = (byte) (i * 31);
+    }
+    File file = File.createTempFile("packed", ".pak");
+    file.delete();
+    try {
+      PackedFile pakFile = new PackedFile(file);
+      pakFile.putFile("assets/image.png", image);
+      pakFile.putFile("assets/notes.txt", new byte[1024]);
+      pakFile.save();
+      pakFile.close();
+      assertEntry(file, "assets/image.png", ZipEntry.STORED, image);
+      assertEntry(file, "assets/notes.txt", ZipEntry.DEFLATED, new byte[1024]);
+
+      // A later save reads the old entries back and writes them again, the image still stored
+      pakFile = new PackedFile(file);
+      pakFile.putFile("assets/more.txt", new byte[10]);
+      pakFile.save();
+      pakFile.close();
+      assertEntry(file, "assets/image.png", ZipEntry.STORED, image);
+      assertEntry(file, "assets/notes.txt", ZipEntry.DEFLATED, new byte[1024]);
+      assertEntry(file, "assets/more.txt", ZipEntry.DEFLATED, new byte[10]);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  @DisplayName("Compressed File Types")
+  void testIsCompressed() {
+    assertTrue(PackedFile.isCompressed("assets/1234.png"));
+    assertTrue(PackedFile.isCompressed("assets/1234.JPG"));
+    assertTrue(PackedFile.isCompressed("assets/1234.jpeg"));
+    assertTrue(PackedFile.isCompressed("assets/1234.gif"));
+    assertFalse(PackedFile.isCompressed("assets/1234"));
+    assertFalse(PackedFile.isCompressed("content.xml"));
+  }
+
+  private static void assertEntry(File file, String path, int method, byte[] data)
+      throws Exception {
+    try (ZipFile zip = new ZipFile(file)) {
+      ZipEntry entry = zip.getEntry(path);
+      assertNotNull(entry);
+      assertEquals(method, entry.getMethod());
+      try (InputStream in = zip.getInputStream(entry)) {
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+      }
+    }
+  }
+}
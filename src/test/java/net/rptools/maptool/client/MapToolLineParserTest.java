@@ -0,0 +1,41 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.rptools.common.expression.ExpressionParser;
+import net.rptools.parser.ParserException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class MapToolLineParserTest {
+
+  private static final String EXPRESSION = "1 + 2 * 3";
+
+  @Test
+  @DisplayName("A resolver keeps the expression parser it was first evaluated with.")
+  void testParserReused() throws ParserException {
+    MapToolLineParser parser = new MapToolLineParser();
+    MapToolVariableResolver resolver = new MapToolVariableResolver(null);
+    assertNull(resolver.getExpressionParser());
+
+    assertEquals("7", parser.parseExpression(resolver, null, EXPRESSION).getValue().toString());
+    ExpressionParser first = resolver.getExpressionParser();
+    assertNotNull(first);
+    assertEquals("7", parser.parseExpression(resolver, null, EXPRESSION).getValue().toString());
+    assertSame(first, resolver.getExpressionParser());
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import net.rptools.maptool.client.ServerCommandClientImpl.CommandBatch;
+import net.rptools.maptool.model.GUID;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.TokenDelta;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class ServerCommandClientImplTest {
+
+  @Test
+  @DisplayName("A token moved to another map inside a batch is still put on the new map.")
+  void testMoveBetweenMaps() {
+    GUID fromZone = new GUID();
+    GUID toZone = new GUID();
+    Token token = new Token("Goblin", null);
+    TokenDelta.resetBaseline(token);
+
+    // As moveTokenToMap does it
+    CommandBatch batch = new CommandBatch();
+    TokenDelta.clearBaseline(token);
+    batch.putToken(toZone, token);
+    batch.removeToken(fromZone, token.getId());
+
+    assertSame(token, batch.tokens.get(token.getId()));
+    assertEquals(toZone, batch.zones.get(token.getId()));
+    // Goes to the new map whole, as it has never had it
+    assertNull(TokenDelta.create(token));
+  }
+
+  @Test
+  @DisplayName("A token removed from the map it was put on inside a batch is not put.")
+  void testRemoveFromSameMap() {
+    GUID zone = new GUID();
+    Token token = new Token("Goblin", null);
+
+    CommandBatch batch = new CommandBatch();
+    batch.putToken(zone, token);
+    batch.removeToken(zone, token.getId());
+
+    assertTrue(batch.tokens.isEmpty());
+    assertTrue(batch.zones.isEmpty());
+  }
+}
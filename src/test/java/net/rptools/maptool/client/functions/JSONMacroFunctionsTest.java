@@ -0,0 +1,104 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.functions;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import net.rptools.parser.ParserException;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class JSONMacroFunctionsTest {
+
+  /** A character sheet sized JSON object, as frameworks keep in a token property. */
+  private static String sheet(int fields) {
+    JSONObject sheet = new JSONObject();
+    for (int i = 0; i < fields; i++) {
+      sheet.put("field" + i, "value" + i);
+    }
+    return sheet.toString();
+  }
+
+  private static Object call(String function, Object... parameters) throws ParserException {
+    return JSONMacroFunctions.getInstance()
+        .childEvaluate(null, function, Arrays.asList(parameters));
+  }
+
+  /**
+   * Calls the function with the parameters as given and again with each JSON value written out as
+   * text, as the function used to do itself before parsing it.
+   */
+  private static void assertSameAsText(String function, Object... parameters)
+      throws ParserException {
+    Object[] text = new Object[parameters.length];
+    String[] before = new String[parameters.length];
+    for (int i = 0; i < parameters.length; i++) {
+      before[i] = parameters[i].toString();
+      boolean json = parameters[i] instanceof JSONObject || parameters[i] instanceof JSONArray;
+      text[i] = json ? before[i] : parameters[i];
+    }
+    String expected = String.valueOf(call(function, text));
+    assertEquals(expected, String.valueOf(call(function, parameters)), function);
+    for (int i = 0; i < parameters.length; i++) {
+      assertEquals(before[i], parameters[i].toString(), function + " changed parameter " + i);
+    }
+  }
+
+  @Test
+  @DisplayName("Changing a cached JSON value returns a copy and leaves the cached value alone.")
+  void testSharedValueUnchanged() throws ParserException {
+    String text = sheet(10);
+    assertEquals("value1", call("json.get", text, "field1"));
+
+    Object changed = call("json.set", text, "field1", BigDecimal.ONE);
+    assertEquals("1", call("json.get", changed, "field1"));
+    Object removed = call("json.remove", text, "field2");
+    assertEquals("", call("json.get", removed, "field2"));
+
+    assertEquals("value1", call("json.get", text, "field1"));
+    assertEquals("value2", call("json.get", text, "field2"));
+    assertEquals(BigDecimal.valueOf(10), call("json.length", text));
+  }
+
+  @Test
+  @DisplayName("JSON values give the same results as their text, and are left unchanged.")
+  void testJSONValuesSameAsText() throws ParserException {
+    JSONArray array = JSONArray.fromObject("[\"a\", \"b\", \"a\", 1, 2.5, {\"k\": \"v\"}, [1, 2]]");
+    JSONArray other = JSONArray.fromObject("[\"a\", 2.5, \"c\", [1, 2]]");
+    JSONObject object = JSONObject.fromObject("{\"a\": 1, \"b\": {\"c\": [true, null]}}");
+    JSONObject otherObject = JSONObject.fromObject("{\"b\": 2, \"d\": \"e\"}");
+
+    assertSameAsText("json.count", array, "a");
+    assertSameAsText("json.count", array, "{\"k\": \"v\"}", BigDecimal.ONE);
+    assertSameAsText("json.indexOf", array, "b");
+    assertSameAsText("json.indexOf", array, "[1, 2]");
+    assertSameAsText("json.unique", array);
+    assertSameAsText("json.merge", array, other);
+    assertSameAsText("json.merge", object, otherObject);
+    assertSameAsText("json.removeAll", array, other);
+    assertSameAsText("json.removeAll", object, otherObject);
+    assertSameAsText("json.removeFirst", array, other);
+    assertSameAsText("json.union", array, other);
+    assertSameAsText("json.union", object, otherObject);
+    assertSameAsText("json.intersection", array, other);
+    assertSameAsText("json.difference", array, other);
+    assertSameAsText("json.isSubset", array, other);
+    assertSameAsText("json.isSubset", object, otherObject);
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.util.List;
+import net.rptools.maptool.client.ui.zone.vbl.MovementBlockingIndex;
+import net.rptools.maptool.client.walker.WalkerMetric;
+import net.rptools.maptool.model.CellPoint;
+import net.rptools.maptool.model.SquareGrid;
+import net.rptools.maptool.model.Zone;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AStarHierarchicalSquareWalkerTest {
+  private static final int GRID_SIZE = 50;
+  private static final int MAP_CELLS = 100;
+
+  /** Walkers normally take the VBL index from the renderer, which the tests don't have. */
+  private static class PlainWalker extends AStarSquareEuclideanWalker {
+    private final MovementBlockingIndex index;
+
+    PlainWalker(Zone zone, WalkerMetric metric, MovementBlockingIndex index) {
+      super(zone, metric);
+      this.index = index;
+      restrictMovement = true;
+    }
+
+    @Override
+    protected MovementBlockingIndex getCurrentVblIndex() {
+      return index;
+    }
+  }
+
+  private static class HierarchicalWalker extends AStarHierarchicalSquareWalker {
+    private final MovementBlockingIndex index;
+
+    HierarchicalWalker(Zone zone, WalkerMetric metric, MovementBlockingIndex index) {
+      super(zone, metric);
+      this.index = index;
+      restrictMovement = true;
+    }
+
+    @Override
+    protected MovementBlockingIndex getCurrentVblIndex() {
+      return index;
+    }
+  }
+
+  private static Zone createZone() {
+    Zone zone = new Zone();
+    SquareGrid grid = new SquareGrid();
+    zone.setGrid(grid);
+    grid.setSize(GRID_SIZE);
+    return zone;
+  }
+
+  /** Marks a block of cells, given in cell coordinates, as VBL. */
+  private static void addWall(Area vbl, int x, int y, int width, int height) {
+    vbl.add(
+        new Area(
+            new Rectangle(x * GRID_SIZE, y * GRID_SIZE, width * GRID_SIZE, height * GRID_SIZE)));
+  }
+
+  /**
+   * A closed box with a wall every 20 columns. Each wall has a two cell gap, alternately at the
+   * bottom and the top, so the only way across is to snake through the whole map.
+   */
+  private static Area snakeWalls() {
+    Area vbl = new Area();
+    addWall(vbl, -1, -1, MAP_CELLS + 2, 1);
+    addWall(vbl, -1, MAP_CELLS, MAP_CELLS + 2, 1);
+    addWall(vbl, -1, 0, 1, MAP_CELLS);
+    addWall(vbl, MAP_CELLS, 0, 1, MAP_CELLS);
+    for (int x = 20; x < MAP_CELLS; x += 20) {
+      if ((x / 20) % 2 == 1) {
+        addWall(vbl, x, 0, 1, MAP_CELLS - 2);
+      } else {
+        addWall(vbl, x, 2, 1, MAP_CELLS - 2);
+      }
+    }
+    return vbl;
+  }
+
+  private static void assertValidPath(
+      Zone zone,
+      MovementBlockingIndex index,
+      List<CellPoint> path,
+      CellPoint start,
+      CellPoint goal) {
+    assertEquals(start, path.get(0));
+    assertEquals(goal, path.get(path.size() - 1));
+    for (int i = 1; i < path.size(); i++) {
+      CellPoint from = path.get(i - 1);
+      CellPoint to = path.get(i);
+      assertTrue(Math.abs(from.x - to.x) <= 1 && Math.abs(from.y - to.y) <= 1, "step " + i);
+      Rectangle b1 = zone.getGrid().getBounds(from);
+      Rectangle b2 = zone.getGrid().getBounds(to);
+      assertFalse(
+          index.blocksMovement(b1.getCenterX(), b1.getCenterY(), b2.getCenterX(), b2.getCenterY()),
+          "step " + i + " crosses VBL");
+    }
+  }
+
+  private static void assertSameAsPlain(
+      Zone zone,
+      MovementBlockingIndex index,
+      WalkerMetric metric,
+      CellPoint start,
+      CellPoint goal) {
+    PlainWalker plain = new PlainWalker(zone, metric, index);
+    HierarchicalWalker hierarchical = new HierarchicalWalker(zone, metric, index);
+
+    List<CellPoint> expected = plain.calculatePath(start, goal);
+    assertTrue(plain.isPathFound(), metric + ": plain walker found no path");
+    List<CellPoint> actual = hierarchical.calculatePath(start, goal);
+    assertTrue(hierarchical.isPathFound(), metric + ": hierarchical walker found no path");
+
+    assertValidPath(zone, index, expected, start, goal);
+    assertValidPath(zone, index, actual, start, goal);
+    assertEquals(plain.getDistance(), hierarchical.getDistance(), metric.toString());
+  }
+
+  @Test
+  @DisplayName("Paths across an open map match the plain walker.")
+  void testOpenMap() {
+    Zone zone = createZone();
+    MovementBlockingIndex index = new MovementBlockingIndex(null);
+    for (WalkerMetric metric : WalkerMetric.values()) {
+      assertSameAsPlain(zone, index, metric, new CellPoint(0, 0), new CellPoint(90, 37));
+      assertSameAsPlain(zone, index, metric, new CellPoint(12, -40), new CellPoint(-50, 3));
+    }
+  }
+
+  @Test
+  @DisplayName("Paths that snake between walls match the plain walker.")
+  void testWalls() {
+    Zone zone = createZone();
+    MovementBlockingIndex index = new MovementBlockingIndex(snakeWalls());
+    for (WalkerMetric metric : WalkerMetric.values()) {
+      assertSameAsPlain(zone, index, metric, new CellPoint(1, 1), new CellPoint(98, 98));
+      assertSameAsPlain(zone, index, metric, new CellPoint(50, 50), new CellPoint(10, 90));
+    }
+  }
+
+  @Test
+  @DisplayName("An interrupted search is given up rather than redone on the full map.")
+  void testInterrupted() {
+    Zone zone = createZone();
+    MovementBlockingIndex index = new MovementBlockingIndex(snakeWalls());
+    HierarchicalWalker walker = new HierarchicalWalker(zone, WalkerMetric.ONE_TWO_ONE, index);
+
+    // As when a newer request replaces this one
+    Thread.currentThread().interrupt();
+    try {
+      walker.calculatePath(new CellPoint(1, 1), new CellPoint(98, 98));
+    } finally {
+      Thread.interrupted();
+    }
+    assertFalse(walker.isPathFound());
+    assertFalse(walker.isSearchCompleted());
+
+    walker.calculatePath(new CellPoint(1, 1), new CellPoint(98, 98));
+    assertTrue(walker.isPathFound());
+    assertTrue(walker.isSearchCompleted());
+  }
+
+  @Test
+  @DisplayName("Changing the grid size or offset invalidates the cluster graph.")
+  void testGridChange() {
+    Zone zone = createZone();
+    MovementBlockingIndex index = new MovementBlockingIndex(snakeWalls());
+    HierarchicalWalker walker = new HierarchicalWalker(zone, WalkerMetric.ONE_TWO_ONE, index);
+    int[][] moves = walker.getNeighborMap(0, 0);
+    long signature = walker.getTerrainSignature();
+
+    AStarClusterGraph graph =
+        new AStarClusterGraph(index, zone.getGrid(), walker.getTerrainCells(), signature, moves);
+    assertNotNull(graph.findCorridor(zone.getGrid(), new CellPoint(1, 1), new CellPoint(98, 98)));
+    assertTrue(graph.getClusterCount() > 0);
+    assertTrue(graph.isValidFor(index, zone.getGrid(), signature, moves));
+
+    zone.getGrid().setSize(GRID_SIZE * 2);
+    assertFalse(graph.isValidFor(index, zone.getGrid(), signature, moves));
+    zone.getGrid().setSize(GRID_SIZE);
+    assertTrue(graph.isValidFor(index, zone.getGrid(), signature, moves));
+    zone.getGrid().setOffset(10, 0);
+    assertFalse(graph.isValidFor(index, zone.getGrid(), signature, moves));
+    zone.getGrid().setOffset(0, 0);
+
+    // Walkers share a graph per zone, and after the resize the walls cover different cells
+    assertSameAsPlain(
+        zone, index, WalkerMetric.ONE_TWO_ONE, new CellPoint(1, 1), new CellPoint(98, 98));
+    zone.getGrid().setSize(GRID_SIZE / 2);
+    assertSameAsPlain(
+        zone, index, WalkerMetric.ONE_TWO_ONE, new CellPoint(2, 2), new CellPoint(196, 196));
+  }
+}
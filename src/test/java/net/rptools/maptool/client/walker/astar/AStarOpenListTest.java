@@ -0,0 +1,93 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.client.walker.astar;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AStarOpenListTest {
+
+  private static AStarCellPoint node(int x, int y, double g, double h) {
+    AStarCellPoint node = new AStarCellPoint(x, y);
+    node.g = g;
+    node.h = h;
+    return node;
+  }
+
+  @Test
+  @DisplayName("Nodes are polled in F cost order.")
+  void testPollOrder() {
+    AStarOpenList openList = new AStarOpenList();
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      openList.add(node(i, -i, random.nextInt(500), random.nextInt(500)));
+    }
+
+    double last = Double.NEGATIVE_INFINITY;
+    int count = 0;
+    while (!openList.isEmpty()) {
+      AStarCellPoint node = openList.poll();
+      assertTrue(node.fCost() >= last);
+      assertEquals(-1, node.heapIndex);
+      assertNull(openList.get(node.x, node.y));
+      last = node.fCost();
+      count++;
+    }
+    assertEquals(1000, count);
+  }
+
+  @Test
+  @DisplayName("Lowering G cost moves an open node forward.")
+  void testDecreased() {
+    AStarOpenList openList = new AStarOpenList();
+    for (int i = 0; i < 10; i++) {
+      openList.add(node(i, 0, 10 + i, 0));
+    }
+    AStarCellPoint last = openList.get(9, 0);
+    assertNotNull(last);
+    last.g = 1;
+    openList.decreased(last);
+    assertSame(last, openList.poll());
+    assertEquals(10, openList.poll().g);
+  }
+
+  @Test
+  @DisplayName("Packed cell keys work for negative coordinates.")
+  void testCellKeys() {
+    CellKeySet set = new CellKeySet(4);
+    CellPointMap map = new CellPointMap(4);
+    for (int x = -50; x < 50; x++) {
+      for (int y = -50; y < 50; y++) {
+        assertTrue(set.add(x, y));
+        map.put(new AStarCellPoint(x, y));
+      }
+    }
+    assertFalse(set.add(-1, -1));
+    assertEquals(10000, set.size());
+    assertEquals(10000, map.size());
+    assertTrue(set.contains(-50, 49));
+    assertFalse(set.contains(50, 0));
+    assertEquals(new AStarCellPoint(-7, 3), map.get(-7, 3));
+    assertNull(map.get(0, 50));
+
+    set.clear();
+    map.clear();
+    assertFalse(set.contains(0, 0));
+    assertNull(map.get(0, 0));
+  }
+}
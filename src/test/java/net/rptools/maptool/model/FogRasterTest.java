@@ -0,0 +1,104 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class FogRasterTest {
+
+  @Test
+  @DisplayName("Exposing and hiding rectangles on cell boundaries is exact.")
+  void testUnionAndSubtract() {
+    FogRaster raster = new FogRaster(10);
+    raster.add(new Rectangle(0, 0, 100, 50));
+    raster.add(new Rectangle(50, 30, 100, 50));
+    raster.subtract(new Rectangle(20, 10, 20, 20));
+
+    assertTrue(raster.contains(5, 5));
+    assertTrue(raster.contains(145, 75));
+    assertFalse(raster.contains(25, 15));
+    assertFalse(raster.contains(5, 75));
+    assertFalse(raster.contains(-5, 5));
+    assertEquals(new Rectangle(0, 0, 150, 80), raster.getBounds());
+
+    Area expected = new Area(new Rectangle(0, 0, 100, 50));
+    expected.add(new Area(new Rectangle(50, 30, 100, 50)));
+    expected.subtract(new Area(new Rectangle(20, 10, 20, 20)));
+    Area difference = new Area(raster.toArea());
+    difference.exclusiveOr(expected);
+    assertTrue(difference.isEmpty());
+
+    raster.subtract(new Rectangle(-1000, -1000, 2000, 2000));
+    assertTrue(raster.isEmpty());
+  }
+
+  @Test
+  @DisplayName("A cell is exposed when its center is inside the exposed shape.")
+  void testCellCenters() {
+    FogRaster raster = new FogRaster(10);
+    raster.add(new Ellipse2D.Double(-50, -50, 100, 100));
+
+    // Cell 0,0 has its center at 5,5, well inside the circle
+    assertTrue(raster.contains(9, 9));
+    // Cell 4,4 has its center at 45,45, outside the circle
+    assertFalse(raster.contains(41, 41));
+    // Cell -5,0 has its center at -45,5, inside the circle
+    assertTrue(raster.contains(-49, 1));
+  }
+
+  @Test
+  @DisplayName("Encoding and decoding gives back the same cells.")
+  void testRoundTrip() {
+    FogRaster raster = new FogRaster(7);
+    raster.add(new Ellipse2D.Double(-300, 100, 900, 400));
+    raster.subtract(new Rectangle(0, 200, 50, 50));
+
+    FogRaster copy = FogRaster.fromBytes(raster.toBytes());
+    assertEquals(7, copy.getCellSize());
+    assertEquals(raster.getBounds(), copy.getBounds());
+    for (int y = 90; y < 510; y += 3) {
+      for (int x = -310; x < 610; x += 3) {
+        assertEquals(raster.contains(x, y), copy.contains(x, y), x + "," + y);
+      }
+    }
+    assertThrows(IllegalArgumentException.class, () -> FogRaster.fromBytes(new byte[] {1, 2}));
+  }
+
+  @Test
+  @DisplayName("Adding many small areas stays fast and compact.")
+  void testManyExposures() {
+    FogRaster raster = new FogRaster(5);
+    long start = System.nanoTime();
+    // A token walking a winding path, exposing a circle at every step
+    for (int step = 0; step < 2000; step++) {
+      double x = step * 10;
+      double y = Math.sin(step / 20.0) * 500;
+      raster.add(new Ellipse2D.Double(x - 60, y - 60, 120, 120));
+    }
+    long elapsed = System.nanoTime() - start;
+
+    assertTrue(raster.contains(0, 0));
+    assertTrue(raster.contains(19990, Math.sin(1999 / 20.0) * 500));
+    assertFalse(raster.contains(10000, 1000));
+    assertTrue(raster.toBytes().length < 64 * 1024, "encoded " + raster.toBytes().length);
+    assertTrue(elapsed < 30_000_000_000L, "took " + elapsed / 1_000_000 + "ms");
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class FogUpdateTest {
+
+  @Test
+  @DisplayName("Encoding and decoding a path gives back the same area.")
+  void testPathRoundTrip() {
+    // Coordinates on 1/64ths of a unit come back exactly
+    Area area = new Area(new Rectangle2D.Double(-120.25, 40.5, 300, 200));
+    area.subtract(new Area(new Rectangle(0, 100, 50, 50)));
+    area.add(new Area(new Rectangle(1000, -2000, 10, 10)));
+
+    Area decoded = new Area(FogUpdate.decodePath(FogUpdate.encodePath(area)));
+    Area difference = new Area(decoded);
+    difference.exclusiveOr(area);
+    assertTrue(difference.isEmpty());
+
+    // Curves come back within rounding
+    Area circle = new Area(new Ellipse2D.Double(-50, -50, 100, 100));
+    Rectangle2D bounds = FogUpdate.decodePath(FogUpdate.encodePath(circle)).getBounds2D();
+    assertEquals(-50, bounds.getMinX(), 1.0 / 64);
+    assertEquals(50, bounds.getMaxY(), 1.0 / 64);
+
+    assertTrue(FogUpdate.decodePath(FogUpdate.encodePath(new Area())).getBounds2D().isEmpty());
+    assertThrows(
+        IllegalArgumentException.class, () -> FogUpdate.decodePath(new byte[] {1, 2, 3}));
+  }
+
+  @Test
+  @DisplayName("Only the part of an area that isn't exposed yet is left to send.")
+  void testUnexposedArea() {
+    Zone zone = new Zone();
+    zone.exposeArea(new Area(new Rectangle(0, 0, 100, 100)), (Set<GUID>) null);
+
+    Area unexposed = zone.getUnexposedArea(new Area(new Rectangle(50, 0, 100, 100)), null);
+    assertFalse(unexposed.contains(75, 50));
+    assertTrue(unexposed.contains(125, 50));
+    assertTrue(zone.getUnexposedArea(new Area(new Rectangle(10, 10, 50, 50)), null).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Updates apply in version order and repeats are ignored.")
+  void testVersionOrder() {
+    Zone server = new Zone();
+    Zone client = new Zone();
+
+    FogUpdate first = expose(server, 0);
+    FogUpdate second = expose(server, 100);
+    assertEquals(1, first.getVersion());
+    assertEquals(2, second.getVersion());
+
+    assertEquals(FogUpdate.Outcome.APPLIED, first.applyInOrder(client));
+    assertEquals(FogUpdate.Outcome.APPLIED, second.applyInOrder(client));
+    assertEquals(2, client.getFogVersion());
+
+    // As when hosting and the update comes back to the zone that made it
+    assertEquals(FogUpdate.Outcome.ALREADY_APPLIED, first.applyInOrder(client));
+    assertEquals(2, client.getFogVersion());
+  }
+
+  @Test
+  @DisplayName("A missing update leaves the zone alone until a snapshot catches it up.")
+  void testGapNeedsSnapshot() {
+    Zone server = new Zone();
+    Zone client = new Zone();
+
+    FogUpdate first = expose(server, 0);
+    expose(server, 100); // lost on the way
+    FogUpdate third = expose(server, 200);
+
+    assertEquals(FogUpdate.Outcome.APPLIED, first.applyInOrder(client));
+    assertEquals(FogUpdate.Outcome.MISSED_UPDATE, third.applyInOrder(client));
+    assertEquals(1, client.getFogVersion());
+    assertFalse(client.getExposedArea().contains(205, 5));
+
+    FogUpdate snapshot = FogUpdate.createSnapshot(server);
+    assertEquals(FogUpdate.Type.SNAPSHOT, snapshot.getType());
+    assertEquals(FogUpdate.Outcome.APPLIED, snapshot.applyInOrder(client));
+    assertEquals(3, client.getFogVersion());
+    Area exposed = client.getExposedArea();
+    assertTrue(exposed.contains(5, 5));
+    assertTrue(exposed.contains(105, 5));
+    assertTrue(exposed.contains(205, 5));
+
+    // The update that was overtaken by the snapshot is not applied again
+    assertEquals(FogUpdate.Outcome.ALREADY_APPLIED, third.applyInOrder(client));
+  }
+
+  /** Exposes a 10 unit square on the server's zone, as the server does, and returns the update. */
+  private static FogUpdate expose(Zone server, int x) {
+    FogUpdate update =
+        FogUpdate.create(
+            FogUpdate.Type.EXPOSE,
+            server,
+            server.nextFogVersion(),
+            new Area(new Rectangle(x, 0, 10, 10)),
+            null);
+    update.apply(server);
+    return update;
+  }
+}
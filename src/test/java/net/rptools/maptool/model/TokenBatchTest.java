@@ -0,0 +1,72 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenBatchTest {
+
+  @Test
+  @DisplayName("Tokens and deltas come back out of the encoding in order.")
+  void testRoundTrip() throws IOException {
+    Token whole = new Token("Goblin", null);
+    whole.setProperty("HP", "7");
+    Token changed = new Token("Orc", null);
+    TokenDelta.resetBaseline(changed);
+    changed.setProperty("HP", "12");
+    TokenDelta delta = TokenDelta.create(changed);
+
+    List<Object> items = new ArrayList<Object>();
+    items.add(whole);
+    items.add(delta);
+    TokenBatch batch = new TokenBatch(items);
+    assertEquals(2, batch.size());
+
+    // Send it the way the connection does
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HessianOutput out = new HessianOutput(bytes);
+    out.getSerializerFactory().setAllowNonSerializable(true);
+    out.writeObject(batch);
+    TokenBatch received =
+        (TokenBatch) new HessianInput(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    List<Object> decoded = received.getItems();
+    assertEquals(2, decoded.size());
+    Token token = (Token) decoded.get(0);
+    assertEquals(whole.getId(), token.getId());
+    assertEquals("7", token.getProperty("HP"));
+
+    Token target = new Token("Orc", null);
+    ((TokenDelta) decoded.get(1)).apply(target);
+    assertEquals("12", target.getProperty("HP"));
+  }
+
+  @Test
+  @DisplayName("Only tokens and token deltas can be batched.")
+  void testItemTypes() {
+    assertThrows(
+        IllegalArgumentException.class, () -> new TokenBatch(Collections.singletonList("HP")));
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenDeltaTest {
+
+  private static Token token() {
+    Token token = new Token("Goblin", null);
+    token.setProperty("HP", "7");
+    token.setProperty("AC", "15");
+    token.setGMName("Goblin Boss");
+    return token;
+  }
+
+  @Test
+  @DisplayName("Without a baseline the token must be sent whole.")
+  void testNoBaseline() {
+    Token token = token();
+    assertNull(TokenDelta.create(token));
+    // Sending it whole made a baseline, and nothing has changed since
+    assertTrue(TokenDelta.create(token).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Only changed fields and property entries are carried and applied.")
+  void testChanges() {
+    Token sender = token();
+    Token receiver = new Token(sender);
+    receiver.setId(sender.getId());
+    TokenDelta.resetBaseline(sender);
+    TokenDelta.resetBaseline(receiver);
+
+    sender.setProperty("HP", "3");
+    sender.getPropertyMap().remove("AC");
+    sender.setX(150);
+    TokenDelta delta = TokenDelta.create(sender);
+    assertFalse(delta.isEmpty());
+    assertEquals(sender.getId(), delta.getTokenId());
+
+    receiver.setLabel("Set on the receiver");
+    delta.apply(receiver);
+    assertEquals("3", receiver.getProperty("HP"));
+    assertNull(receiver.getProperty("AC"));
+    assertEquals(150, receiver.getX());
+    assertEquals("Set on the receiver", receiver.getLabel());
+
+    // The applied fields are part of the receiver's baseline, its own change is not, so is sent
+    receiver.setProperty("HP", "2");
+    TokenDelta next = TokenDelta.create(receiver);
+    next.apply(sender);
+    assertEquals("2", sender.getProperty("HP"));
+    assertEquals("Set on the receiver", sender.getLabel());
+  }
+
+  @Test
+  @DisplayName("A rename applied from a delta is seen by the zone's name lookup.")
+  void testRename() {
+    Zone zone = new Zone();
+    Token receiver = new Token("Goblin", null);
+    zone.putToken(receiver);
+    assertSame(receiver, zone.getTokenByName("Goblin"));
+    TokenDelta.resetBaseline(receiver);
+
+    // The same token, renamed on the sender
+    Token sender = new Token("Hobgoblin", null);
+    sender.setId(receiver.getId());
+    sender.setSyncBaseline(receiver.getSyncBaseline());
+    TokenDelta delta = TokenDelta.create(sender);
+
+    delta.apply(receiver);
+    zone.putToken(receiver);
+    assertSame(receiver, zone.getTokenByName("hobgoblin"));
+    assertNull(zone.getTokenByName("Goblin"));
+  }
+}
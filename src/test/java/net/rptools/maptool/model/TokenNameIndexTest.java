@@ -0,0 +1,157 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenNameIndexTest {
+
+  private static Token token(String name, String gmName, int z) {
+    Token token = new Token(name, null);
+    token.setGMName(gmName);
+    token.setZOrder(z);
+    return token;
+  }
+
+  @Test
+  @DisplayName("Names and GM names are matched case-insensitively.")
+  void testLookup() {
+    List<Token> tokens = new ArrayList<Token>();
+    tokens.add(token("Goblin", "Goblin Boss", 0));
+    tokens.add(token("Orc", null, 1));
+    tokens.add(token("", "Hidden", 2));
+    TokenNameIndex index = new TokenNameIndex(tokens);
+
+    assertSame(tokens.get(0), index.getByName("gOBLIN"));
+    assertSame(tokens.get(1), index.getByName("ORC"));
+    assertSame(tokens.get(0), index.getByGMName("goblin boss"));
+    assertSame(tokens.get(2), index.getByGMName("HIDDEN"));
+    assertNull(index.getByName(""));
+    assertNull(index.getByName(null));
+    assertNull(index.getByName("Goblin Boss"));
+    assertEquals(TokenNameIndex.key("STRASSE"), TokenNameIndex.key("strasse"));
+  }
+
+  @Test
+  @DisplayName("Duplicate names resolve to the lowest token in z-order.")
+  void testDuplicateNames() {
+    Token top = token("Guard", null, 5);
+    Token bottom = token("guard", null, -3);
+    List<Token> tokens = new ArrayList<Token>();
+    tokens.add(top);
+    tokens.add(bottom);
+    TokenNameIndex index = new TokenNameIndex(tokens);
+    assertSame(bottom, index.getByName("Guard"));
+
+    index.remove(bottom);
+    assertSame(top, index.getByName("Guard"));
+  }
+
+  @Test
+  @DisplayName("Replacing a token files it under its new names.")
+  void testReplace() {
+    Token original = token("Alpha", "A", 0);
+    List<Token> tokens = new ArrayList<Token>();
+    tokens.add(original);
+    TokenNameIndex index = new TokenNameIndex(tokens);
+
+    // A token received from the server is a new instance with the same id
+    Token replacement = token("Alpha", "B", 0);
+    replacement.setId(original.getId());
+    index.put(replacement);
+    assertNull(index.getByGMName("A"));
+    assertSame(replacement, index.getByGMName("b"));
+    assertSame(replacement, index.getByName("alpha"));
+  }
+
+  @Test
+  @DisplayName("Renaming a filed token refiles it under its new names.")
+  void testRename() {
+    Token token = token("Alpha", "A", 0);
+    Token other = token("Beta", "B", 1);
+    List<Token> tokens = new ArrayList<Token>();
+    tokens.add(token);
+    tokens.add(other);
+    TokenNameIndex index = new TokenNameIndex(tokens);
+
+    token.setGMName("G");
+    assertNull(index.getByGMName("a"));
+    assertSame(token, index.getByGMName("g"));
+    assertSame(token, index.getByName("alpha"));
+    assertSame(other, index.getByGMName("b"));
+
+    // A clone shares the id but isn't the token on the zone
+    Token clone = token.clone();
+    clone.setGMName("H");
+    assertNull(index.getByGMName("h"));
+    assertSame(token, index.getByGMName("g"));
+
+    // Nor is a token once removed
+    index.remove(token);
+    token.setGMName("I");
+    assertNull(index.getByGMName("i"));
+  }
+
+  @Test
+  @DisplayName("The non-stamp lookup skips stamps with the same name.")
+  void testNonStamp() {
+    Token stamp = token("Statue", null, 0);
+    stamp.setLayer(Zone.Layer.OBJECT);
+    Token hidden = token("statue", null, 1);
+    hidden.setLayer(Zone.Layer.GM);
+    List<Token> tokens = new ArrayList<Token>();
+    tokens.add(stamp);
+    tokens.add(hidden);
+    TokenNameIndex index = new TokenNameIndex(tokens);
+
+    assertSame(stamp, index.getByName("Statue"));
+    assertNull(index.getNonStampByName("Statue"));
+
+    Token token = token("STATUE", null, 2);
+    index.put(token);
+    assertSame(stamp, index.getByName("Statue"));
+    assertSame(token, index.getNonStampByName("Statue"));
+  }
+
+  @Test
+  @DisplayName("Lookups over many tokens find the same tokens as a scan.")
+  void testManyTokens() {
+    int count = 5000;
+    List<Token> tokens = new ArrayList<Token>(count);
+    for (int i = 0; i < count; i++) {
+      tokens.add(token("Token " + i, "GM " + i, i));
+    }
+    TokenNameIndex index = new TokenNameIndex(tokens);
+
+    for (int i = 0; i < count; i += 7) {
+      String name = "TOKEN " + i;
+      Token scanned = null;
+      for (Token token : tokens) {
+        if (token.getName().equalsIgnoreCase(name)) {
+          scanned = token;
+          break;
+        }
+      }
+      assertNotNull(scanned);
+      assertSame(scanned, index.getByName(name));
+    }
+    assertNull(index.getByName("Token " + count));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TokenSpatialIndexTest {
+
+  private static List<Token> query(TokenSpatialIndex index, Zone.Layer layer, Rectangle area) {
+    List<Token> result = new ArrayList<Token>();
+    index.getTokensIntersecting(layer, area, result);
+    return result;
+  }
+
+  @Test
+  @DisplayName("Queries match a brute force scan.")
+  void testMatchesBruteForce() {
+    TokenSpatialIndex index = new TokenSpatialIndex();
+    Random random = new Random(7);
+    List<Token> tokens = new ArrayList<Token>();
+    List<Rectangle> bounds = new ArrayList<Rectangle>();
+    for (int i = 0; i < 500; i++) {
+      Token token = new Token();
+      // A few huge tokens exercise the oversized list
+      int size = i % 50 == 0 ? 8000 : 50 + random.nextInt(300);
+      Rectangle r =
+          new Rectangle(random.nextInt(10000) - 5000, random.nextInt(10000) - 5000, size, size);
+      index.put(token, r);
+      tokens.add(token);
+      bounds.add(r);
+    }
+    // Move some of them
+    for (int i = 0; i < 500; i += 3) {
+      Rectangle r = new Rectangle(bounds.get(i));
+      r.translate(random.nextInt(2000) - 1000, random.nextInt(2000) - 1000);
+      index.put(tokens.get(i), r);
+      bounds.set(i, r);
+    }
+    // And remove some
+    for (int i = 1; i < 500; i += 7) {
+      index.remove(tokens.get(i));
+    }
+
+    for (int q = 0; q < 200; q++) {
+      Rectangle area =
+          new Rectangle(
+              random.nextInt(12000) - 6000,
+              random.nextInt(12000) - 6000,
+              1 + random.nextInt(3000),
+              1 + random.nextInt(3000));
+      Set<Token> expected = new HashSet<Token>();
+      for (int i = 0; i < 500; i++) {
+        if (i % 7 != 1 && bounds.get(i).intersects(area)) {
+          expected.add(tokens.get(i));
+        }
+      }
+      List<Token> actual = query(index, Zone.Layer.TOKEN, area);
+      assertEquals(expected.size(), actual.size(), "duplicate or missing tokens");
+      assertEquals(expected, new HashSet<Token>(actual));
+    }
+  }
+
+  @Test
+  @DisplayName("Tokens are indexed per layer.")
+  void testLayers() {
+    TokenSpatialIndex index = new TokenSpatialIndex();
+    Token token = new Token();
+    Rectangle r = new Rectangle(0, 0, 100, 100);
+    index.put(token, r);
+    Rectangle point = new Rectangle(50, 50, 1, 1);
+    assertEquals(1, query(index, Zone.Layer.TOKEN, point).size());
+
+    token.setLayer(Zone.Layer.BACKGROUND);
+    index.put(token, r);
+    assertTrue(query(index, Zone.Layer.TOKEN, point).isEmpty());
+    assertEquals(1, query(index, Zone.Layer.BACKGROUND, point).size());
+    assertEquals(1, query(index, null, point).size());
+    assertEquals(1, index.size());
+  }
+}
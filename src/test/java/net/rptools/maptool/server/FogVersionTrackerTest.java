@@ -0,0 +1,68 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Collections;
+import net.rptools.maptool.model.GUID;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class FogVersionTrackerTest {
+
+  @Test
+  @DisplayName("Clients more than the allowed lag behind are picked out.")
+  void testLaggingClients() {
+    GUID zone = new GUID();
+    FogVersionTracker tracker = new FogVersionTracker();
+    tracker.acknowledge("current", zone, 40);
+    tracker.acknowledge("behind", zone, 40 - FogVersionTracker.MAX_LAG);
+    tracker.acknowledge("lagging", zone, 40 - FogVersionTracker.MAX_LAG - 1);
+
+    assertEquals(Collections.singletonList("lagging"), tracker.getLaggingClients(zone, 40));
+  }
+
+  @Test
+  @DisplayName("Clients that never acknowledged a zone are taken to be up to date.")
+  void testUnknownClients() {
+    GUID zone = new GUID();
+    FogVersionTracker tracker = new FogVersionTracker();
+    tracker.acknowledge("other zone", new GUID(), 1);
+    assertTrue(tracker.getLaggingClients(zone, 1000).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Acknowledgements never move a client back.")
+  void testAcknowledgeKeepsLatest() {
+    GUID zone = new GUID();
+    FogVersionTracker tracker = new FogVersionTracker();
+    tracker.acknowledge("client", zone, 100);
+    // A late acknowledgement of an older update, as after a snapshot
+    tracker.acknowledge("client", zone, 1);
+    assertTrue(tracker.getLaggingClients(zone, 100 + FogVersionTracker.MAX_LAG).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Removed clients are no longer tracked.")
+  void testRemoveClient() {
+    GUID zone = new GUID();
+    FogVersionTracker tracker = new FogVersionTracker();
+    tracker.acknowledge("client", zone, 1);
+    assertFalse(tracker.getLaggingClients(zone, 1000).isEmpty());
+    tracker.removeClient("client");
+    assertTrue(tracker.getLaggingClients(zone, 1000).isEmpty());
+  }
+}
@@ -76,6 +76,99 @@ void testBasicTransfer() throws Exception {
     consumer.getFilename().delete();
   }
 
+  @Test
+  @DisplayName("Chunks stop at the send window and grow as they are acknowledged.")
+  void testSendWindow() throws Exception {
+    File tmpFile = File.createTempFile("window", ".dat");
+    tmpFile.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(tmpFile);
+    out.write(new byte[2 * AssetTransferManager.SEND_WINDOW]);
+    out.close();
+
+    AssetTransferManager manager = new AssetTransferManager();
+    manager.addProducer(new AssetProducer("Testing", "window", tmpFile));
+
+    long sent = 0;
+    AssetChunk chunk;
+    while ((chunk = manager.nextChunk()) != null) {
+      assertEquals(AssetTransferManager.MIN_CHUNK_SIZE, chunk.getData().length);
+      sent += chunk.getData().length;
+    }
+    assertEquals(AssetTransferManager.SEND_WINDOW, sent);
+
+    manager.acknowledge(AssetTransferManager.MIN_CHUNK_SIZE);
+    assertNull(manager.nextChunk(), "Grown chunk shouldn't fit in the room one small one left");
+    manager.acknowledge(3 * AssetTransferManager.MIN_CHUNK_SIZE);
+    chunk = manager.nextChunk();
+    assertNotNull(chunk);
+    assertEquals(4 * AssetTransferManager.MIN_CHUNK_SIZE, chunk.getData().length);
+
+    manager.flush();
+    assertTrue(tmpFile.delete());
+  }
+
+  @Test
+  @DisplayName("Urgent assets go first, then the ones with least left to send.")
+  void testPriority() throws Exception {
+    File big = File.createTempFile("big", ".dat");
+    File small = File.createTempFile("small", ".dat");
+    File other = File.createTempFile("other", ".dat");
+    for (File file : new File[] {big, small, other}) {
+      file.deleteOnExit();
+    }
+    FileOutputStream out = new FileOutputStream(big);
+    out.write(new byte[100]);
+    out.close();
+    out = new FileOutputStream(small);
+    out.write(new byte[10]);
+    out.close();
+    out = new FileOutputStream(other);
+    out.write(new byte[50]);
+    out.close();
+
+    AssetTransferManager manager = new AssetTransferManager();
+    manager.addProducer(new AssetProducer("big", "big", big));
+    manager.addProducer(new AssetProducer("small", "small", small));
+    manager.addProducer(new AssetProducer("other", "other", other));
+    assertTrue(manager.prioritize("other", true));
+    assertFalse(manager.prioritize("missing", true));
+
+    assertEquals("other", manager.nextChunk(1000).getId());
+    assertEquals("small", manager.nextChunk(1000).getId());
+    assertEquals("big", manager.nextChunk(1000).getId());
+    assertNull(manager.nextChunk(1000));
+
+    assertTrue(big.delete());
+    assertTrue(small.delete());
+    assertTrue(other.delete());
+  }
+
+  @Test
+  @DisplayName("An asset that can't be read is dropped and the rest still go.")
+  void testFailedProducer() throws Exception {
+    File broken = File.createTempFile("broken", ".dat");
+    File good = File.createTempFile("good", ".dat");
+    good.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(broken);
+    out.write(new byte[10]);
+    out.close();
+    out = new FileOutputStream(good);
+    out.write(new byte[50]);
+    out.close();
+
+    AssetTransferManager manager = new AssetTransferManager();
+    manager.addProducer(new AssetProducer("broken", "broken", broken));
+    manager.addProducer(new AssetProducer("good", "good", good));
+    // Gone after it was queued, so reading it fails
+    assertTrue(broken.delete());
+
+    assertThrows(IOException.class, () -> manager.nextChunk(1000));
+    assertEquals("good", manager.nextChunk(1000).getId());
+    assertNull(manager.nextChunk(1000));
+
+    assertTrue(good.delete());
+  }
+
   @Test
   @DisplayName("Test Create Temporary File.")
   File createTempFile(byte[] data) throws IOException {
@@ -0,0 +1,96 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class MemoryBoundedCacheTest {
+
+  private static MemoryBoundedCache<String, byte[]> cache(long maxBytes) {
+    return new MemoryBoundedCache<String, byte[]>(
+        "Test cache", maxBytes, value -> value.length, (key, value) -> !key.startsWith("pinned"));
+  }
+
+  @Test
+  @DisplayName("The least recently used values are evicted first.")
+  void testEvictionOrder() {
+    MemoryBoundedCache<String, byte[]> cache = cache(300);
+    cache.put("a", new byte[100]);
+    cache.put("b", new byte[100]);
+    cache.put("c", new byte[100]);
+    assertNotNull(cache.get("a"));
+    cache.put("d", new byte[100]);
+
+    MemoryBoundedCache.Stats stats = cache.getStats();
+    assertEquals(300, stats.getResidentBytes());
+    assertEquals(3, stats.getResidentCount());
+    assertEquals(1, stats.getEvictions());
+    assertEquals(1, stats.getEvictedCount());
+  }
+
+  @Test
+  @DisplayName("Evicted values are returned until they are collected.")
+  void testSoftHit() {
+    MemoryBoundedCache<String, byte[]> cache = cache(100);
+    byte[] first = new byte[100];
+    cache.put("a", first);
+    cache.put("b", new byte[100]);
+
+    // Still strongly held here, so it can't have been collected
+    assertSame(first, cache.get("a"));
+    assertTrue(cache.containsKey("b"));
+    assertNull(cache.get("missing"));
+
+    MemoryBoundedCache.Stats stats = cache.getStats();
+    assertEquals(0, stats.getHits());
+    assertEquals(1, stats.getSoftHits());
+    assertEquals(1, stats.getMisses());
+    assertEquals(0.5, stats.getHitRate(), 1e-9);
+    assertEquals(100, stats.getResidentBytes());
+  }
+
+  @Test
+  @DisplayName("Values that can't be reloaded are never evicted.")
+  void testPinned() {
+    MemoryBoundedCache<String, byte[]> cache = cache(150);
+    cache.put("pinned", new byte[100]);
+    cache.put("a", new byte[100]);
+    cache.put("b", new byte[100]);
+    assertEquals(200, cache.getStats().getResidentBytes());
+
+    cache.setMaxBytes(0);
+    assertEquals(100, cache.getStats().getResidentBytes());
+    assertEquals(1, cache.getStats().getResidentCount());
+    assertNotNull(cache.remove("pinned"));
+    assertEquals(0, cache.getStats().getResidentBytes());
+  }
+
+  @Test
+  @DisplayName("Replacing a value accounts for the size of the new one.")
+  void testReplace() {
+    MemoryBoundedCache<String, byte[]> cache = cache(1000);
+    cache.put("a", new byte[100]);
+    cache.put("a", new byte[250]);
+    assertEquals(250, cache.getStats().getResidentBytes());
+    assertEquals(1, cache.keySet().size());
+
+    cache.clear();
+    assertFalse(cache.containsKey("a"));
+    assertEquals(0, cache.getStats().getResidentBytes());
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * This software Copyright by the RPTools.net development team, and
+ * licensed under the Affero GPL Version 3 or, at your option, any later
+ * version.
+ *
+ * MapTool Source Code is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License * along with this source Code.  If not, please visit
+ * <http://www.gnu.org/licenses/> and specifically the Affero license
+ * text at <http://www.gnu.org/licenses/agpl.html>.
+ */
+package net.rptools.maptool.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.rptools.maptool.model.Token;
+import net.rptools.maptool.model.Zone;
+import net.rptools.maptool.model.drawing.DrawnElement;
+import net.rptools.maptool.model.drawing.Pen;
+import net.rptools.maptool.model.drawing.ShapeDrawable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+class PersistenceUtilTest {
+  private static final Logger log = LogManager.getLogger(PersistenceUtilTest.class);
+
+  /**
+   * Builds zones with scattered drawings, erasers and tokens, the same ones for the same seed. The
+   * tokens are shared out evenly between the zones.
+   */
+  private static List<Zone> createZones(int count, int drawings, int tokens, long seed) {
+    Random random = new Random(seed);
+    List<Zone> zones = new ArrayList<Zone>(count);
+    for (int i = 0; i < count; i++) {
+      Zone zone = new Zone();
+      zone.setName("Zone " + i);
+      List<DrawnElement> layer = zone.getDrawnElements(Zone.Layer.BACKGROUND);
+      for (int j = 0; j < drawings; j++) {
+        Pen pen = new Pen();
+        pen.setEraser(j % 4 == 3);
+        Rectangle bounds =
+            new Rectangle(
+                random.nextInt(2000),
+                random.nextInt(2000),
+                10 + random.nextInt(300),
+                10 + random.nextInt(300));
+        layer.add(new DrawnElement(new ShapeDrawable(bounds), pen));
+      }
+      for (int j = i; j < tokens; j += count) {
+        Token token = new Token("Token " + j, null);
+        token.setX(random.nextInt(2000));
+        token.setY(random.nextInt(2000));
+        zone.putToken(token);
+      }
+      zones.add(zone);
+    }
+    return zones;
+  }
+
+  /**
+   * Optimizes the zones of a synthetic 50 zone, 10k token campaign one after the other, as loading
+   * did before, and side by side on the load pool, and logs the time for each. Run with the
+   * benchmark task, as the test task leaves it out.
+   */
+  @Test
+  @Tag("benchmark")
+  @DisplayName("Zone optimization benchmark with 50 zones and 10k tokens.")
+  void testOptimizeZonesBenchmark() throws Exception {
+    int count = 50;
+    int drawings = 400;
+    int tokens = 10000;
+    List<Zone> sequential = createZones(count, drawings, tokens, 42);
+    List<Zone> pooled = createZones(count, drawings, tokens, 42);
+
+    long start = System.nanoTime();
+    for (Zone zone : sequential) {
+      zone.optimize();
+    }
+    long sequentialNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    PersistenceUtil.optimizeZones(pooled);
+    long pooledNanos = System.nanoTime() - start;
+
+    for (int i = 0; i < count; i++) {
+      List<DrawnElement> expected = sequential.get(i).getDrawnElements(Zone.Layer.BACKGROUND);
+      List<DrawnElement> actual = pooled.get(i).getDrawnElements(Zone.Layer.BACKGROUND);
+      assertEquals(expected.size(), actual.size());
+      assertEquals(tokens / count, pooled.get(i).getTokenCount());
+    }
+
+    log.info(
+        String.format(
+            "Zone optimization, %d zones of %d drawings and %d tokens in all: one by one %dms,"
+                + " pooled %dms",
+            count, drawings, tokens, sequentialNanos / 1000000, pooledNanos / 1000000));
+  }
+}